@@ -0,0 +1,107 @@
+package my.vaadin.app;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded, reproducible data sets for the benchmarks. The names and cities are
+ * those of {@link CustomerService#ensureTestData()}, combined at random.
+ */
+final class BenchmarkData {
+
+	static final String[] FIRST_NAMES = { "Gabrielle", "Brian", "Eduardo", "Koen", "Alejandro", "Angel", "Yahir",
+			"Haiden", "Emily", "Corinne", "Ryann", "Yurem", "Kelly", "Eileen", "Kately", "Palestin", "Quinn", "Makena",
+			"Danielle", "Leland", "Gunner", "Jamar", "Lara", "Ann", "Remington", "Rene", "Elvis", "Solomon", "Jaydan",
+			"Bernard" };
+	static final String[] LAST_NAMES = { "Patel", "Robinson", "Haugen", "Johansen", "Macdonald", "Karlsson",
+			"Gustavsson", "Svensson", "Stewart", "Davis", "Jackson", "Walker", "Martin", "Carlsson", "Hansson", "Smith",
+			"Watson", "Harris", "Karlsen", "Olsson", "Andersson", "Olsen", "Nilsen" };
+	static final String[] CITIES = { "Saint-Vincent", "Talcahuano", "Melrose", "Plauen", "Baarle-Hertog", "Bonlez",
+			"Maple Creek", "Viggianello", "Bradford", "Etobicoke", "Lamorteau", "Salcito", "Hattiesburg",
+			"Mussy-la-Ville", "Lutsel K'e", "Idar-Oberstei", "Calgary", "Hull", "Tailles", "Macklin", "Secunderabad",
+			"Turnhout", "Kenosha", "Fermont", "Santo Domingo", "Firenze", "Gatineau", "Offenbach am Main", "Berwick",
+			"Sennariolo" };
+
+	private static final int BATCH_SIZE = 100000;
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * @return a new, not yet saved customer with random values
+	 */
+	static Customer customer(Random random) {
+		String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+		String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+		Customer customer = new Customer();
+		customer.setFirstName(firstName);
+		customer.setLastName(lastName);
+		customer.setBirthDate(LocalDate.of(1940, 1, 1).plusDays(random.nextInt(365 * 65)));
+		customer.setEmail(firstName.toLowerCase() + "." + random.nextInt(1000000) + "@" + lastName.toLowerCase()
+				+ ".com");
+		customer.setAddress(random.nextInt(10000) + " Main Street");
+		customer.setCity(CITIES[random.nextInt(CITIES.length)]);
+		customer.setPostalCode(String.valueOf(10000 + random.nextInt(90000)));
+		return customer;
+	}
+
+	/**
+	 * @return a new, not yet saved meeting of a random one of the given
+	 *         customers
+	 */
+	static Meeting meeting(Random random, int customers) {
+		LocalDateTime start = LocalDateTime.of(2015, 1, 1, 8, 0).plusDays(random.nextInt(365 * 5))
+				.plusMinutes(15 * random.nextInt(40));
+		Meeting meeting = new Meeting();
+		meeting.setCustomerId((long) random.nextInt(customers));
+		meeting.setLocation(CITIES[random.nextInt(CITIES.length)]);
+		meeting.setStartTime(start);
+		meeting.setEndTime(start.plusMinutes(15 + 15 * random.nextInt(8)));
+		return meeting;
+	}
+
+	/**
+	 * @return an in memory service holding the given amount of customers,
+	 *         with ids 0 to rows - 1, split into {@link Shards#COUNT_PROPERTY}
+	 *         shards
+	 */
+	static CustomerService customerService(int rows, long seed) {
+		CustomerService service = new CustomerService(Shards.fromSystemProperties(),
+				shard -> PersistenceBackend.inMemory());
+		Random random = new Random(seed);
+		List<Customer> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < rows; i++) {
+			batch.add(customer(random));
+			if (batch.size() == BATCH_SIZE) {
+				service.importAll(batch);
+				batch = new ArrayList<>(BATCH_SIZE);
+			}
+		}
+		service.importAll(batch);
+		return service;
+	}
+
+	/**
+	 * @return an in memory service holding the given amount of meetings,
+	 *         spread at random over customer ids 0 to customers - 1, split into
+	 *         {@link Shards#COUNT_PROPERTY} shards
+	 */
+	static MeetingService meetingService(int rows, int customers, long seed) {
+		MeetingService service = new MeetingService(Shards.fromSystemProperties(),
+				shard -> PersistenceBackend.inMemory());
+		Random random = new Random(seed);
+		List<Meeting> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < rows; i++) {
+			batch.add(meeting(random, customers));
+			if (batch.size() == BATCH_SIZE) {
+				service.importAll(batch);
+				batch = new ArrayList<>(BATCH_SIZE);
+			}
+		}
+		service.importAll(batch);
+		return service;
+	}
+}
@@ -0,0 +1,79 @@
+package my.vaadin.app;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of {@link CustomerService}: the full and the paged findAll the
+ * customer Grid uses, in the default and in a column order, without a filter
+ * (empty string) and with filters of different selectivity. Filtered queries
+ * after the first are answered by the filter cache of the service, unless it
+ * is turned off with {@code -Dcrm.filterCacheSize=0}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class CustomerReadBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	int rows;
+
+	@Param({ "", "a", "son", "gustavsson", "xyz" })
+	String filter;
+
+	private CustomerService service;
+	private int middle;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		service = BenchmarkData.customerService(rows, 42);
+		middle = service.count(filter) / 2;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public List<Customer> findAll() {
+		return service.findAll(filter);
+	}
+
+	@Benchmark
+	public List<Customer> findFirstPage() {
+		return service.findAll(filter, 0, 50);
+	}
+
+	@Benchmark
+	public List<Customer> findMiddlePage() {
+		return service.findAll(filter, middle, 50);
+	}
+
+	@Benchmark
+	public List<Customer> findMiddlePageByLastName() {
+		return service.findAll(filter, "lastName", false, middle, 50);
+	}
+
+	@Benchmark
+	public int count() {
+		return service.count(filter);
+	}
+}
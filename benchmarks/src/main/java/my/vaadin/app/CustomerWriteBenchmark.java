@@ -0,0 +1,78 @@
+package my.vaadin.app;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write throughput of {@link CustomerService}. The table size stays constant:
+ * updates replace random existing customers and every inserted customer is
+ * deleted again. Run with {@code -t <threads>}, or through
+ * {@link ThreadScalingRunner} for 1 to 32 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class CustomerWriteBenchmark {
+
+	@Param({ "100000" })
+	int rows;
+
+	private CustomerService service;
+	private List<Customer> existing;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		final Random random = new Random(Thread.currentThread().getId());
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		service = BenchmarkData.customerService(rows, 42);
+		existing = service.snapshot();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public void update(ThreadState state) {
+		Customer customer = existing.get(state.random.nextInt(existing.size())).mutableCopy();
+		customer.setEmail("updated." + state.random.nextInt() + "@example.com");
+		service.save(customer);
+	}
+
+	@Benchmark
+	public Customer updateAsync(ThreadState state) {
+		Customer customer = existing.get(state.random.nextInt(existing.size())).mutableCopy();
+		customer.setEmail("updated." + state.random.nextInt() + "@example.com");
+		return service.saveAsync(customer).join();
+	}
+
+	@Benchmark
+	public void insertAndDelete(ThreadState state) {
+		Customer customer = BenchmarkData.customer(state.random);
+		service.save(customer);
+		service.delete(customer);
+	}
+}
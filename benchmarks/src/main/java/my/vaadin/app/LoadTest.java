@@ -0,0 +1,344 @@
+package my.vaadin.app;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays the workflows of {@link MyUI} sessions against the services at
+ * production size and concurrency, e.g.
+ * {@code java -Dcrm.load.sessions=2000 -cp target/benchmarks.jar my.vaadin.app.LoadTest}.
+ * <p>
+ * Every session types a name or city into the filter one key at a time,
+ * sorts and scrolls the customer grid, selects customers, which loads their
+ * meetings, and now and then saves a customer or a meeting. Each step makes
+ * the service calls the UI makes for it, e.g. a count and the first 100 rows
+ * for every key typed, and then waits a random think time. The sessions also
+ * listen to the services, like the UIs do, so every save notifies all of
+ * them.
+ * <p>
+ * The latency of a step is measured from the time it was due, not from the
+ * time a driver thread picked it up, so a stalled service shows as the
+ * latency of the steps that waited for it instead of as fewer steps. The
+ * "driver.delay" line shows how late the steps started: high while the
+ * service lines stay low, the driver needs more
+ * {@link #THREADS_PROPERTY threads}; high together with them, the services
+ * are saturated.
+ * <p>
+ * The services are in memory, or log to {@link PersistenceBackend} files when
+ * a data directory is configured, which should be empty.
+ */
+public class LoadTest {
+
+	/** System property with the amount of customers, 1,000,000 by default. */
+	static final String CUSTOMERS_PROPERTY = "crm.load.customers";
+	/** System property with the mean meetings of a customer, 4 by default. */
+	static final String MEETINGS_PROPERTY = "crm.load.meetingsPerCustomer";
+	/** System property with the concurrent sessions, 1000 by default. */
+	static final String SESSIONS_PROPERTY = "crm.load.sessions";
+	/**
+	 * System property with the threads running the sessions, four per
+	 * processor by default.
+	 */
+	static final String THREADS_PROPERTY = "crm.load.threads";
+	/** System property with the mean think time between steps, 1000 ms. */
+	static final String THINK_PROPERTY = "crm.load.thinkMillis";
+	/** System property with the share of selections followed by a save, 0.2. */
+	static final String SAVE_PROPERTY = "crm.load.saveShare";
+	/** System property with the seconds not measured at the start, 10. */
+	static final String WARMUP_PROPERTY = "crm.load.warmupSeconds";
+	/** System property with the seconds measured, 60. */
+	static final String DURATION_PROPERTY = "crm.load.seconds";
+	/** System property with the seed of the data and the sessions, 42. */
+	static final String SEED_PROPERTY = "crm.load.seed";
+
+	private static final Logger LOGGER = Logger.getLogger(LoadTest.class.getName());
+	private static final int PAGE_ROWS = 100;
+	private static final int SCROLL_ROWS = 50;
+	private static final long KEYSTROKE_MILLIS = 150;
+	private static final String[] SORT_PROPERTIES = { "firstName", "lastName", "birthDate", "email" };
+
+	private final CustomerService customers;
+	private final MeetingService meetings;
+	private final long thinkMillis;
+	private final double saveShare;
+	private final ScheduledExecutorService executor;
+	private final Map<String, LatencyHistogram> steps = new LinkedHashMap<>();
+	private final LatencyHistogram delay = new LatencyHistogram();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder notifications = new LongAdder();
+	private volatile boolean running = true;
+
+	private LoadTest(CustomerService customers, MeetingService meetings, int threads, long thinkMillis,
+			double saveShare) {
+		this.customers = customers;
+		this.meetings = meetings;
+		this.thinkMillis = thinkMillis;
+		this.saveShare = saveShare;
+		executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+			Thread thread = new Thread(runnable, "session");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (String step : new String[] { "filter", "sort", "scroll", "select", "customerSave", "meetingSave" }) {
+			steps.put(step, new LatencyHistogram());
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int customerCount = Integer.getInteger(CUSTOMERS_PROPERTY, 1000000);
+		double meetingsPerCustomer = Double.parseDouble(System.getProperty(MEETINGS_PROPERTY, "4"));
+		int sessions = Integer.getInteger(SESSIONS_PROPERTY, 1000);
+		long seed = Long.getLong(SEED_PROPERTY, 42);
+		PrintWriter out = new PrintWriter(System.out, true);
+
+		int shards = Shards.fromSystemProperties();
+		try (CustomerService customers = new CustomerService(shards, shard -> PersistenceBackend
+				.fromSystemProperties(Shards.name("load-customers", shard, shards), new CustomerCodec()));
+				MeetingService meetings = new MeetingService(shards, shard -> PersistenceBackend
+						.fromSystemProperties(Shards.name("load-meetings", shard, shards), new MeetingCodec()))) {
+			long start = System.nanoTime();
+			long meetingCount = LoadTestData.generate(customers, meetings, customerCount, meetingsPerCustomer,
+					seed);
+			out.printf("generated %,d customers and %,d meetings in %.1f s%n", customerCount, meetingCount,
+					(System.nanoTime() - start) / 1e9);
+
+			LoadTest test = new LoadTest(customers, meetings,
+					Integer.getInteger(THREADS_PROPERTY, 4 * Runtime.getRuntime().availableProcessors()),
+					Long.getLong(THINK_PROPERTY, 1000), Double.parseDouble(System.getProperty(SAVE_PROPERTY, "0.2")));
+			test.run(sessions, seed, Integer.getInteger(WARMUP_PROPERTY, 10),
+					Integer.getInteger(DURATION_PROPERTY, 60), out);
+			customers.getMetrics().print(out);
+			meetings.getMetrics().print(out);
+		}
+	}
+
+	private void run(int sessions, long seed, int warmupSeconds, int seconds, PrintWriter out)
+			throws InterruptedException {
+		Random seeds = new Random(seed);
+		long now = System.nanoTime();
+		for (int i = 0; i < sessions; i++) {
+			Session session = new Session(new Random(seeds.nextLong()));
+			customers.addChangeListener(changes -> notifications.increment());
+			meetings.addChangeListener(changes -> notifications.increment());
+			// the sessions open during the first think time
+			session.schedule(now + (long) (seeds.nextDouble() * TimeUnit.MILLISECONDS.toNanos(thinkMillis)));
+		}
+		out.printf("%,d sessions warming up for %d s%n", sessions, warmupSeconds);
+		TimeUnit.SECONDS.sleep(warmupSeconds);
+		reset();
+		long start = System.nanoTime();
+		for (int elapsed = 0; elapsed < seconds; elapsed += 10) {
+			TimeUnit.SECONDS.sleep(Math.min(10, seconds - elapsed));
+			out.printf("%d s: %,.0f steps/s, filter p99 %.1f ms%n", Math.min(elapsed + 10, seconds),
+					total() / ((System.nanoTime() - start) / 1e9), steps.get("filter").quantile(0.99) / 1e6);
+		}
+		double measuredSeconds = (System.nanoTime() - start) / 1e9;
+		running = false;
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		print(out, measuredSeconds);
+	}
+
+	private void reset() {
+		for (LatencyHistogram histogram : steps.values()) {
+			histogram.reset();
+		}
+		delay.reset();
+		conflicts.reset();
+		notifications.reset();
+	}
+
+	private long total() {
+		long total = 0;
+		for (LatencyHistogram histogram : steps.values()) {
+			total += histogram.count();
+		}
+		return total;
+	}
+
+	private void print(PrintWriter out, double seconds) {
+		out.printf("load.steps per_s=%.1f%n", total() / seconds);
+		for (Map.Entry<String, LatencyHistogram> step : steps.entrySet()) {
+			print(out, "load." + step.getKey(), step.getValue(), seconds);
+		}
+		print(out, "driver.delay", delay, seconds);
+		out.printf("load.meetingConflicts %d%n", conflicts.sum());
+		out.printf("load.notifications %d%n", notifications.sum());
+	}
+
+	private static void print(PrintWriter out, String name, LatencyHistogram histogram, double seconds) {
+		out.printf("%s calls=%d per_s=%.1f p50_ms=%.2f p99_ms=%.2f p999_ms=%.2f max_ms=%.2f%n", name,
+				histogram.count(), histogram.count() / seconds, histogram.quantile(0.5) / 1e6,
+				histogram.quantile(0.99) / 1e6, histogram.quantile(0.999) / 1e6, histogram.max() / 1e6);
+	}
+
+	/**
+	 * The state of one simulated UI: the filter typed so far, the sort order
+	 * and the rows of the customer grid, and the selected customer. Only one
+	 * step of a session runs at a time.
+	 */
+	private final class Session implements Runnable {
+
+		private final Random random;
+		private String filter = "";
+		// the text being typed into the filter
+		private String typing;
+		private String sortProperty;
+		private boolean descending;
+		private int rowCount;
+		private List<Customer> rows = Collections.emptyList();
+		private Customer selected;
+		private List<Meeting> selectedMeetings = Collections.emptyList();
+		private boolean saveNext;
+		private long dueNanos;
+
+		Session(Random random) {
+			this.random = random;
+		}
+
+		void schedule(long dueNanos) {
+			if (!running) {
+				return;
+			}
+			this.dueNanos = dueNanos;
+			executor.schedule(this, dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void run() {
+			if (!running) {
+				return;
+			}
+			delay.record(System.nanoTime() - dueNanos);
+			long pause;
+			try {
+				String step;
+				if (typing != null) {
+					step = type();
+					pause = KEYSTROKE_MILLIS / 2 + random.nextInt((int) KEYSTROKE_MILLIS);
+				} else {
+					step = saveNext ? save() : browse();
+					pause = think();
+				}
+				steps.get(step).record(System.nanoTime() - dueNanos);
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "A session step failed", ex);
+				typing = null;
+				pause = think();
+			}
+			schedule(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pause));
+		}
+
+		private long think() {
+			// exponential, so that some users act quickly after each other
+			return (long) (-Math.log(1 - random.nextDouble()) * thinkMillis);
+		}
+
+		private String browse() {
+			int action = random.nextInt(10);
+			if (action < 3 || rows.isEmpty()) {
+				typing = target();
+				filter = "";
+				return type();
+			}
+			if (action < 4) {
+				sortProperty = SORT_PROPERTIES[random.nextInt(SORT_PROPERTIES.length)];
+				descending = random.nextBoolean();
+				rows = find(0, PAGE_ROWS);
+				return "sort";
+			}
+			if (action < 5) {
+				// the grid fetches the rows scrolled to
+				find(random.nextInt(Math.max(1, Math.min(rowCount, 2000))), SCROLL_ROWS);
+				return "scroll";
+			}
+			selected = rows.get(random.nextInt(rows.size()));
+			selectedMeetings = meetings.findAll(selected.getId());
+			saveNext = random.nextDouble() < saveShare;
+			return "select";
+		}
+
+		/**
+		 * @return a prefix of a name or city, as typed into the filter
+		 */
+		private String target() {
+			String[] values;
+			switch (random.nextInt(3)) {
+			case 0:
+				values = BenchmarkData.FIRST_NAMES;
+				break;
+			case 1:
+				values = BenchmarkData.LAST_NAMES;
+				break;
+			default:
+				values = BenchmarkData.CITIES;
+			}
+			String value = values[random.nextInt(values.length)];
+			return value.substring(0, 1 + random.nextInt(Math.min(value.length(), 6))).toLowerCase();
+		}
+
+		/**
+		 * Types the next key of the filter: the UI counts the matches and
+		 * prefetches the first rows.
+		 */
+		private String type() {
+			filter = typing.substring(0, filter.length() + 1);
+			if (filter.length() == typing.length()) {
+				typing = null;
+			}
+			rowCount = customers.count(filter);
+			rows = find(0, PAGE_ROWS);
+			return "filter";
+		}
+
+		private List<Customer> find(int offset, int limit) {
+			if (sortProperty == null) {
+				return customers.findAll(filter, offset, limit);
+			}
+			return customers.findAll(filter, sortProperty, descending, offset, limit);
+		}
+
+		private String save() {
+			saveNext = false;
+			if (random.nextInt(4) == 0) {
+				// the form edits a copy of the row
+				Customer customer = selected.mutableCopy();
+				customer.setEmail(customer.getFirstName().toLowerCase() + "." + random.nextInt(1000000) + "@"
+						+ customer.getLastName().toLowerCase() + ".com");
+				customers.saveAsync(customer).join();
+				return "customerSave";
+			}
+			Meeting meeting;
+			if (selectedMeetings.isEmpty() || random.nextBoolean()) {
+				meeting = new Meeting();
+				meeting.setCustomerId(selected.getId());
+				meeting.setLocation(selected.getCity());
+			} else {
+				meeting = selectedMeetings.get(random.nextInt(selectedMeetings.size())).mutableCopy();
+			}
+			meeting.setStartTime(LoadTestData.start(random));
+			meeting.setEndTime(meeting.getStartTime().plusMinutes(LoadTestData.durationMinutes(random)));
+			try {
+				meetings.saveAsync(meeting).join();
+			} catch (CompletionException ex) {
+				if (!(ex.getCause() instanceof MeetingConflictException)) {
+					throw ex;
+				}
+				// the form stays open, the user picks another time
+				conflicts.increment();
+			}
+			return "meetingSave";
+		}
+	}
+}
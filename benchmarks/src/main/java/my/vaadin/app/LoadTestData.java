@@ -0,0 +1,135 @@
+package my.vaadin.app;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Seeded data sets of production size for {@link LoadTest}, generated on all
+ * processors. The data only depends on the seed: every chunk of customers
+ * and their meetings has a random generator of its own, and the ids follow
+ * the chunk order, whichever thread generates it.
+ * <p>
+ * The meetings are spread like those of a sales team rather than uniformly:
+ * a quarter of the customers are prospects without meetings, one in a
+ * hundred is a key account with ten times the meetings of the others, the
+ * meetings take place on weekdays in office hours, mostly in the city of the
+ * customer, and most take half an hour or an hour.
+ */
+final class LoadTestData {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final double PROSPECTS = 0.25;
+	private static final double KEY_ACCOUNTS = 0.01;
+	private static final int KEY_ACCOUNT_FACTOR = 10;
+	private static final double OWN_CITY = 0.7;
+	private static final int[] DURATION_MINUTES = { 15, 30, 30, 30, 30, 45, 60, 60, 60, 90, 120 };
+	private static final LocalDate FIRST_DAY = LocalDate.of(2015, 1, 1);
+	private static final int DAYS = 365 * 5;
+
+	private LoadTestData() {
+	}
+
+	/**
+	 * Fills empty services with customers 0 to customerCount - 1 and their
+	 * meetings.
+	 *
+	 * @param meetingsPerCustomer
+	 *            the mean amount of meetings of a customer
+	 * @return the amount of meetings generated
+	 */
+	static long generate(CustomerService customers, MeetingService meetings, int customerCount,
+			double meetingsPerCustomer, long seed) {
+		int chunks = (customerCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		// the mean of the customers that are neither prospects nor key
+		// accounts, so that all of them have the given mean
+		double regularMean = meetingsPerCustomer
+				/ ((1 - PROSPECTS) * (1 - KEY_ACCOUNTS) + KEY_ACCOUNTS * KEY_ACCOUNT_FACTOR);
+		List<List<Meeting>> chunkMeetings = new ArrayList<>();
+		IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+			Random random = new Random(seed ^ chunk * 0x9E3779B97F4A7C15L);
+			int first = chunk * CHUNK_SIZE;
+			int last = Math.min(customerCount, first + CHUNK_SIZE);
+			List<Customer> chunkCustomers = new ArrayList<>(last - first);
+			List<Meeting> generated = new ArrayList<>();
+			for (int id = first; id < last; id++) {
+				Customer customer = BenchmarkData.customer(random);
+				customer.setId((long) id);
+				chunkCustomers.add(customer);
+				int count = meetingCount(random, regularMean);
+				for (int i = 0; i < count; i++) {
+					generated.add(meeting(random, customer));
+				}
+			}
+			customers.importAll(chunkCustomers);
+			return generated;
+		}).forEachOrdered(chunkMeetings::add);
+		// numbered in chunk order, then stored in parallel
+		long nextId = 0;
+		for (List<Meeting> chunk : chunkMeetings) {
+			for (Meeting meeting : chunk) {
+				meeting.setId(nextId++);
+			}
+		}
+		chunkMeetings.parallelStream().forEach(meetings::importAll);
+		return nextId;
+	}
+
+	private static int meetingCount(Random random, double regularMean) {
+		if (random.nextDouble() < KEY_ACCOUNTS) {
+			return geometric(random, regularMean * KEY_ACCOUNT_FACTOR);
+		}
+		if (random.nextDouble() < PROSPECTS) {
+			return 0;
+		}
+		return geometric(random, regularMean);
+	}
+
+	/**
+	 * @return a geometrically distributed count with the given mean: many
+	 *         customers with a few meetings, some with many
+	 */
+	private static int geometric(Random random, double mean) {
+		if (mean <= 0) {
+			return 0;
+		}
+		double failure = mean / (mean + 1);
+		return (int) (Math.log(1 - random.nextDouble()) / Math.log(failure));
+	}
+
+	/**
+	 * @return a random start of a meeting, a quarter hour from 8:00 to 16:45
+	 *         of a weekday
+	 */
+	static LocalDateTime start(Random random) {
+		LocalDate day = FIRST_DAY.plusDays(random.nextInt(DAYS));
+		if (day.getDayOfWeek() == DayOfWeek.SATURDAY) {
+			day = day.minusDays(1);
+		} else if (day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+			day = day.plusDays(1);
+		}
+		return day.atTime(8, 0).plusMinutes(15 * random.nextInt(36));
+	}
+
+	/**
+	 * @return a random duration, mostly half an hour or an hour
+	 */
+	static int durationMinutes(Random random) {
+		return DURATION_MINUTES[random.nextInt(DURATION_MINUTES.length)];
+	}
+
+	private static Meeting meeting(Random random, Customer customer) {
+		LocalDateTime start = start(random);
+		Meeting meeting = new Meeting();
+		meeting.setCustomerId(customer.getId());
+		meeting.setLocation(random.nextDouble() < OWN_CITY ? customer.getCity()
+				: BenchmarkData.CITIES[random.nextInt(BenchmarkData.CITIES.length)]);
+		meeting.setStartTime(start);
+		meeting.setEndTime(start.plusMinutes(durationMinutes(random)));
+		return meeting;
+	}
+}
@@ -0,0 +1,82 @@
+package my.vaadin.app;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link MeetingService#findAll(Long)}, i.e. opening a customer,
+ * and of the time range queries of a calendar at growing meeting counts with
+ * ten meetings per customer on average, spread over the five years of
+ * {@link BenchmarkData#meeting(Random, int)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Benchmark)
+public class MeetingReadBenchmark {
+
+	private static final int MEETINGS_PER_CUSTOMER = 10;
+
+	@Param({ "10000", "100000", "1000000", "10000000" })
+	int rows;
+
+	private MeetingService service;
+	private int customers;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		final Random random = new Random(Thread.currentThread().getId());
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		customers = rows / MEETINGS_PER_CUSTOMER;
+		service = BenchmarkData.meetingService(rows, customers, 42);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public List<Meeting> findAllOfCustomer(ThreadState state) {
+		return service.findAll((long) state.random.nextInt(customers));
+	}
+
+	@Benchmark
+	public List<Meeting> findOverlappingHour(ThreadState state) {
+		LocalDateTime from = randomDay(state).plusHours(8 + state.random.nextInt(10));
+		return service.findOverlapping(from, from.plusHours(1));
+	}
+
+	@Benchmark
+	public List<TimeSlot> findBusyOfLocationDay(ThreadState state) {
+		LocalDateTime from = randomDay(state);
+		return service.findBusy(BenchmarkData.CITIES[state.random.nextInt(BenchmarkData.CITIES.length)], from,
+				from.plusDays(1));
+	}
+
+	private static LocalDateTime randomDay(ThreadState state) {
+		return LocalDateTime.of(2015, 1, 1, 0, 0).plusDays(state.random.nextInt(365 * 5));
+	}
+}
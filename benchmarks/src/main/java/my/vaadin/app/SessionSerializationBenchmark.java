@@ -0,0 +1,181 @@
+package my.vaadin.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to serialize and deserialize the rows a session holds, as when the
+ * server writes the session to disk or to another node: the customers of the
+ * grid, the customer being edited and the meetings of the selected customer.
+ * The bytes of every format are printed at the start of a trial.
+ * <p>
+ * "compact" are the entities as they serialize now, through
+ * {@link SerializedEntity}, with the meetings in a {@link MeetingList};
+ * "default" reproduces the default serialization they had before, with
+ * classes of the same fields and a plain list of the meetings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class SessionSerializationBenchmark {
+
+	private static final int MEETINGS = 20;
+
+	@Param({ "default", "compact" })
+	String format;
+
+	// the rows the customer grid holds, about a screen or a long scroll
+	@Param({ "50", "500" })
+	int rows;
+
+	private Object session;
+	private byte[] serialized;
+
+	/**
+	 * The fields of a Customer, serialized by default.
+	 */
+	@SuppressWarnings("serial")
+	static class DefaultCustomer implements Serializable {
+
+		private final Long id;
+		private final String firstName;
+		private final String lastName;
+		private final LocalDate birthDate;
+		private final String email;
+		private final String address;
+		private final String city;
+		private final String postalCode;
+		private final long version;
+		private final boolean frozen;
+
+		DefaultCustomer(Customer customer) {
+			id = customer.getId();
+			firstName = customer.getFirstName();
+			lastName = customer.getLastName();
+			birthDate = customer.getBirthDate();
+			email = customer.getEmail();
+			address = customer.getAddress();
+			city = customer.getCity();
+			postalCode = customer.getPostalCode();
+			version = customer.getVersion();
+			frozen = customer.isFrozen();
+		}
+	}
+
+	/**
+	 * The fields of a Meeting, serialized by default.
+	 */
+	@SuppressWarnings("serial")
+	static class DefaultMeeting implements Serializable {
+
+		private final Long id;
+		private final Long customerId;
+		private final String location;
+		private final LocalDateTime startTime;
+		private final LocalDateTime endTime;
+		private final long version;
+		private final boolean frozen;
+
+		DefaultMeeting(Meeting meeting) {
+			id = meeting.getId();
+			customerId = meeting.getCustomerId();
+			location = meeting.getLocation();
+			startTime = meeting.getStartTime();
+			endTime = meeting.getEndTime();
+			version = meeting.getVersion();
+			frozen = meeting.isFrozen();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// rows read from the log or saved by a form share no strings, unlike the
+		// names of BenchmarkData, which default serialization writes once each
+		List<Customer> customers = new ArrayList<>(rows);
+		try (CustomerService service = BenchmarkData.customerService(rows, 42)) {
+			for (Customer stored : service.findAll("", 0, rows)) {
+				Customer customer = stored.mutableCopy();
+				customer.setFirstName(new String(customer.getFirstName()));
+				customer.setLastName(new String(customer.getLastName()));
+				customer.setCity(new String(customer.getCity()));
+				customers.add(customer.freeze());
+			}
+		}
+		Customer edited = customers.get(0).mutableCopy();
+		// MeetingList reads the meetings from the shared instance, so they are
+		// added to a customer of its test data
+		MeetingService meetingService = MeetingService.getInstance();
+		long customerId = CustomerService.getInstance().findAll("", 0, 1).get(0).getId();
+		Random random = new Random(42);
+		List<Meeting> imported = new ArrayList<>(MEETINGS);
+		for (int i = 0; i < MEETINGS; i++) {
+			Meeting meeting = BenchmarkData.meeting(random, 1);
+			meeting.setCustomerId(customerId);
+			meeting.setLocation(new String(meeting.getLocation()));
+			imported.add(meeting);
+		}
+		meetingService.importAll(imported);
+		List<Meeting> meetings = meetingService.findAll(customerId);
+
+		if (format.equals("default")) {
+			List<DefaultCustomer> page = new ArrayList<>(rows);
+			for (Customer customer : customers) {
+				page.add(new DefaultCustomer(customer));
+			}
+			List<DefaultMeeting> shown = new ArrayList<>(meetings.size());
+			for (Meeting meeting : meetings) {
+				shown.add(new DefaultMeeting(meeting));
+			}
+			session = new Object[] { page, new DefaultCustomer(edited), shown };
+		} else {
+			MeetingList shown = new MeetingList();
+			shown.addAll(meetings);
+			session = new Object[] { new ArrayList<>(customers), edited, shown };
+		}
+		serialized = serialize();
+		System.out.println(format + " session of " + rows + " customers and " + meetings.size() + " meetings: "
+				+ serialized.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(session);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package my.vaadin.app;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link CustomerWriteBenchmark} with 1, 2, 4, 8, 16 and 32 threads, e.g.
+ * {@code java -cp target/benchmarks.jar my.vaadin.app.ThreadScalingRunner}.
+ */
+public class ThreadScalingRunner {
+
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : THREADS) {
+			Options options = new OptionsBuilder()
+					.include(CustomerWriteBenchmark.class.getSimpleName())
+					.threads(threads)
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
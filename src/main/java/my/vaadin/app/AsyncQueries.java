@@ -0,0 +1,112 @@
+package my.vaadin.app;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Runs the queries of the UIs off the session lock, so that a slow search
+ * neither freezes the UI of the user nor holds a request thread, and applies
+ * their results through {@link UI#access(com.vaadin.server.Command)}, which
+ * pushes them to the browser. The same goes for the writes of the forms,
+ * which wait for the writer thread of a shard.
+ * <p>
+ * The queries run on virtual threads on JDKs that have them, otherwise on a
+ * pool of {@link #THREADS_PROPERTY} daemon threads.
+ */
+final class AsyncQueries {
+
+	/**
+	 * System property with the threads running queries when there are no
+	 * virtual threads, the amount of processors by default.
+	 */
+	static final String THREADS_PROPERTY = "crm.queryThreads";
+
+	private static final Logger LOGGER = Logger.getLogger(AsyncQueries.class.getName());
+
+	private static final ExecutorService EXECUTOR = createExecutor();
+
+	private AsyncQueries() {
+	}
+
+	private static ExecutorService createExecutor() {
+		try {
+			// compiled for Java 8, so looked up rather than called
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+			return Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "query");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Runs a query and applies its result to a UI. Cancelling the returned
+	 * future with interruption drops a query that has not started and the
+	 * result of one that is running; the query itself may check
+	 * {@link #isCancelled()} to stop early. A result may still be applied if
+	 * the future is cancelled while it waits for the session lock, so callers
+	 * that cancel also check in apply that the result is still wanted.
+	 *
+	 * @param query
+	 *            run on a thread of its own, without the session lock
+	 * @param apply
+	 *            run with the session lock held
+	 */
+	static <R> Future<?> submit(UI ui, Supplier<R> query, Consumer<R> apply) {
+		return EXECUTOR.submit(() -> {
+			R result;
+			try {
+				result = query.get();
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "Query failed", ex);
+				return;
+			}
+			if (isCancelled()) {
+				return;
+			}
+			try {
+				ui.access(() -> apply.accept(result));
+			} catch (UIDetachedException ex) {
+				// closed while the query ran
+			}
+		});
+	}
+
+	/**
+	 * Applies the outcome of a write to a UI once it is done, without holding
+	 * the session lock in the meantime.
+	 *
+	 * @param apply
+	 *            run with the session lock held, with the result or the
+	 *            failure of the write, the other being null
+	 */
+	static <R> void whenDone(UI ui, CompletionStage<R> write, BiConsumer<R, Throwable> apply) {
+		write.whenComplete((result, failure) -> {
+			try {
+				ui.access(() -> apply.accept(result, failure));
+			} catch (UIDetachedException ex) {
+				// closed while the write waited
+			}
+		});
+	}
+
+	/**
+	 * @return true if the query running on the current thread was cancelled
+	 */
+	static boolean isCancelled() {
+		return Thread.currentThread().isInterrupted();
+	}
+}
@@ -0,0 +1,98 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+
+/**
+ * A snapshot of the counters of a cache, counted since the service started.
+ */
+@SuppressWarnings("serial")
+public class CacheStats implements Serializable {
+
+	private final long hits;
+	private final long narrowedHits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+	private final int entries;
+	private final long cachedIds;
+
+	CacheStats(long hits, long narrowedHits, long misses, long evictions, long invalidations, int entries,
+			long cachedIds) {
+		this.hits = hits;
+		this.narrowedHits = narrowedHits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+		this.entries = entries;
+		this.cachedIds = cachedIds;
+	}
+
+	/**
+	 * @return the sums of the counters of this and another cache, e.g. of
+	 *         the caches of two shards
+	 */
+	CacheStats plus(CacheStats other) {
+		return new CacheStats(hits + other.hits, narrowedHits + other.narrowedHits, misses + other.misses,
+				evictions + other.evictions, invalidations + other.invalidations, entries + other.entries,
+				cachedIds + other.cachedIds);
+	}
+
+	/**
+	 * @return the lookups answered from the cache as they were
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the lookups answered by narrowing down a cached result
+	 */
+	public long getNarrowedHits() {
+		return narrowedHits;
+	}
+
+	/**
+	 * @return the lookups answered by searching the index
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the entries dropped to make room for others
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the entries dropped because a write changed their result
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public long getCachedIds() {
+		return cachedIds;
+	}
+
+	/**
+	 * @return the share of lookups answered without searching the index,
+	 *         exactly or by narrowing, 0 before the first lookup
+	 */
+	public double getHitRate() {
+		long lookups = hits + narrowedHits + misses;
+		return lookups == 0 ? 0 : (double) (hits + narrowedHits) / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f%% hit rate (%d hits, %d narrowed, %d misses), %d evictions, %d invalidations, "
+				+ "%d entries with %d ids", 100 * getHitRate(), hits, narrowedHits, misses, evictions, invalidations,
+				entries, cachedIds);
+	}
+}
@@ -0,0 +1,54 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+
+/**
+ * A single change applied by a service, as delivered to a
+ * {@link ChangeListener}.
+ *
+ * @param <T>
+ *            the entity type
+ */
+@SuppressWarnings("serial")
+public class ChangeEvent<T> implements Serializable {
+
+	public enum Type {
+		ADDED, UPDATED, REMOVED
+	}
+
+	private final Type type;
+	private final T entity;
+	private final boolean replacement;
+
+	ChangeEvent(Type type, T entity) {
+		this(type, entity, false);
+	}
+
+	ChangeEvent(Type type, T entity, boolean replacement) {
+		this.type = type;
+		this.entity = entity;
+		this.replacement = replacement;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the frozen new version for added and updated entities, the last
+	 *         version for removed ones
+	 */
+	public T getEntity() {
+		return entity;
+	}
+
+	/**
+	 * @return true if the entity is from the snapshot of a leader that
+	 *         numbered its versions anew, so it replaces the previous version
+	 *         even if that has a higher version number
+	 * @see ReplicationFollower
+	 */
+	public boolean isReplacement() {
+		return replacement;
+	}
+}
@@ -0,0 +1,21 @@
+package my.vaadin.app;
+
+import java.util.List;
+
+/**
+ * Notified by a service after changes were applied and made durable. Called on
+ * the writing thread, so implementations should hand the work off quickly,
+ * e.g. with {@code UI.access}.
+ *
+ * @param <T>
+ *            the entity type
+ */
+@FunctionalInterface
+public interface ChangeListener<T> {
+
+	/**
+	 * @param changes
+	 *            the changes of one write, in the order they were applied
+	 */
+	void changed(List<ChangeEvent<T>> changes);
+}
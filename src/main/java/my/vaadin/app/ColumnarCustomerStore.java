@@ -0,0 +1,311 @@
+package my.vaadin.app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the customers in primitive columns instead of one object graph per
+ * customer, and creates Customer objects only when they are read.
+ * <p>
+ * Every customer is a row: the id, version, birth date as an epoch day and
+ * the dictionary codes of city and postal code sit in arrays, the remaining
+ * strings are UTF-8 encoded into pages of bytes, on or off the Java heap. An
+ * open addressing map from the primitive id finds the row. Removing a
+ * customer moves the last row into its place; the bytes of removed and
+ * replaced strings are reclaimed by copying the live ones into new pages once
+ * they make up more than half of the pages. Dictionary entries are never
+ * removed, which suits cities and postal codes, whose values repeat.
+ * <p>
+ * Measured with 1M generated customers, the {@code heap} store retains about
+ * 320 bytes per customer, this store about 160 bytes with its pages on the
+ * heap and about 75 bytes of heap plus 85 bytes of direct memory off heap.
+ * The search index of {@link CustomerService} adds another 270 to 290 bytes
+ * per customer to each of them. Reads pay for this with one allocation per
+ * materialized customer and its strings.
+ * <p>
+ * Not thread safe, {@link CustomerService} guards it with its lock.
+ */
+class ColumnarCustomerStore implements CustomerStore {
+
+	private static final int PAGE_SIZE = 1 << 24;
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	private static final int NULL_CODE = -1;
+
+	private final boolean offHeap;
+	private final LongIntHashMap rows = new LongIntHashMap();
+	private long[] ids = new long[16];
+	private long[] versions = new long[16];
+	private int[] birthDays = new int[16];
+	private int[] cities = new int[16];
+	private int[] postalCodes = new int[16];
+	// page index in the high and position in the low 32 bits
+	private long[] textOffsets = new long[16];
+	private int[] textLengths = new int[16];
+	// written last by the modifying methods, so it can be read without a lock
+	private volatile int size;
+
+	private final Dictionary cityDictionary = new Dictionary();
+	private final Dictionary postalCodeDictionary = new Dictionary();
+	private final ArrayList<ByteBuffer> pages = new ArrayList<>();
+	private ByteBuffer page;
+	private long usedBytes;
+	private long liveBytes;
+
+	/**
+	 * @param offHeap
+	 *            true to keep the strings in direct buffers outside the Java
+	 *            heap
+	 */
+	ColumnarCustomerStore(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	@Override
+	public Customer get(long id) {
+		int row = rows.get(id);
+		return row == LongIntHashMap.NO_VALUE ? null : materialize(row);
+	}
+
+	@Override
+	public boolean put(Customer customer) {
+		long id = customer.getId();
+		int row = rows.get(id);
+		boolean replaced = row != LongIntHashMap.NO_VALUE;
+		if (replaced) {
+			liveBytes -= textLengths[row];
+		} else {
+			row = size;
+			ensureCapacity(row + 1);
+			rows.put(id, row);
+			ids[row] = id;
+		}
+		versions[row] = customer.getVersion();
+		birthDays[row] = customer.getBirthDate() == null ? NO_DATE : (int) customer.getBirthDate().toEpochDay();
+		cities[row] = cityDictionary.encode(customer.getCity());
+		postalCodes[row] = postalCodeDictionary.encode(customer.getPostalCode());
+		byte[] text = encodeText(customer);
+		textOffsets[row] = append(text, text.length);
+		textLengths[row] = text.length;
+		liveBytes += text.length;
+		if (!replaced) {
+			size = row + 1;
+		}
+		compactIfNeeded();
+		return replaced;
+	}
+
+	@Override
+	public Customer remove(long id) {
+		int row = rows.remove(id);
+		if (row == LongIntHashMap.NO_VALUE) {
+			return null;
+		}
+		Customer removed = materialize(row);
+		liveBytes -= textLengths[row];
+		int last = size - 1;
+		if (row != last) {
+			ids[row] = ids[last];
+			versions[row] = versions[last];
+			birthDays[row] = birthDays[last];
+			cities[row] = cities[last];
+			postalCodes[row] = postalCodes[last];
+			textOffsets[row] = textOffsets[last];
+			textLengths[row] = textLengths[last];
+			rows.put(ids[row], row);
+		}
+		size = last;
+		compactIfNeeded();
+		return removed;
+	}
+
+	@Override
+	public boolean contains(long id) {
+		return rows.get(id) != LongIntHashMap.NO_VALUE;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void trim() {
+		rows.trim();
+		if (ids.length > 2 * Math.max(size, 16)) {
+			resize(Math.max(size, 16));
+		}
+		// the strings of removed rows are dropped once they take half of the
+		// pages, which may not be the case yet
+		if (usedBytes > liveBytes) {
+			compact();
+		}
+	}
+
+	@Override
+	public boolean materializes() {
+		return true;
+	}
+
+	@Override
+	public List<Customer> values() {
+		List<Customer> values = new ArrayList<>(size);
+		for (int row = 0; row < size; row++) {
+			values.add(materialize(row));
+		}
+		return values;
+	}
+
+	private Customer materialize(int row) {
+		Customer customer = new Customer();
+		customer.setId(ids[row]);
+		customer.setVersion(versions[row]);
+		ByteBuffer text = text(row);
+		customer.setFirstName(readString(text));
+		customer.setLastName(readString(text));
+		customer.setEmail(readString(text));
+		customer.setAddress(readString(text));
+		customer.setBirthDate(birthDays[row] == NO_DATE ? null : LocalDate.ofEpochDay(birthDays[row]));
+		customer.setCity(cityDictionary.decode(cities[row]));
+		customer.setPostalCode(postalCodeDictionary.decode(postalCodes[row]));
+		return customer.freeze();
+	}
+
+	/**
+	 * @return a view of the pages positioned at the strings of the row
+	 */
+	private ByteBuffer text(int row) {
+		ByteBuffer text = pages.get((int) (textOffsets[row] >>> 32)).duplicate();
+		text.position((int) textOffsets[row]);
+		return text;
+	}
+
+	private static byte[] encodeText(Customer customer) {
+		byte[][] strings = { bytes(customer.getFirstName()), bytes(customer.getLastName()),
+				bytes(customer.getEmail()), bytes(customer.getAddress()) };
+		int length = 0;
+		for (byte[] string : strings) {
+			length += 4 + (string == null ? 0 : string.length);
+		}
+		ByteBuffer text = ByteBuffer.allocate(length);
+		for (byte[] string : strings) {
+			if (string == null) {
+				text.putInt(NULL_CODE);
+			} else {
+				text.putInt(string.length).put(string);
+			}
+		}
+		return text.array();
+	}
+
+	private static byte[] bytes(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String readString(ByteBuffer text) {
+		int length = text.getInt();
+		if (length == NULL_CODE) {
+			return null;
+		}
+		String value;
+		if (text.hasArray()) {
+			value = new String(text.array(), text.arrayOffset() + text.position(), length, StandardCharsets.UTF_8);
+			text.position(text.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			text.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the offset the text was written at
+	 */
+	private long append(byte[] text, int length) {
+		if (page == null || page.remaining() < length) {
+			int capacity = Math.max(PAGE_SIZE, length);
+			page = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			pages.add(page);
+		}
+		long offset = ((long) (pages.size() - 1) << 32) | page.position();
+		page.put(text, 0, length);
+		usedBytes += length;
+		return offset;
+	}
+
+	private void compactIfNeeded() {
+		if (usedBytes > PAGE_SIZE && usedBytes > 2 * liveBytes) {
+			compact();
+		}
+	}
+
+	/**
+	 * Copies the strings of all rows into new pages, dropping the ones of
+	 * removed and replaced versions.
+	 */
+	private void compact() {
+		List<ByteBuffer> oldPages = new ArrayList<>(pages);
+		pages.clear();
+		page = null;
+		usedBytes = 0;
+		byte[] text = new byte[256];
+		for (int row = 0; row < size; row++) {
+			int length = textLengths[row];
+			if (text.length < length) {
+				text = new byte[Math.max(length, text.length * 2)];
+			}
+			ByteBuffer source = oldPages.get((int) (textOffsets[row] >>> 32)).duplicate();
+			source.position((int) textOffsets[row]);
+			source.get(text, 0, length);
+			textOffsets[row] = append(text, length);
+		}
+	}
+
+	private void ensureCapacity(int rowCount) {
+		if (rowCount <= ids.length) {
+			return;
+		}
+		resize(Math.max(rowCount, ids.length * 2));
+	}
+
+	private void resize(int length) {
+		ids = Arrays.copyOf(ids, length);
+		versions = Arrays.copyOf(versions, length);
+		birthDays = Arrays.copyOf(birthDays, length);
+		cities = Arrays.copyOf(cities, length);
+		postalCodes = Arrays.copyOf(postalCodes, length);
+		textOffsets = Arrays.copyOf(textOffsets, length);
+		textLengths = Arrays.copyOf(textLengths, length);
+	}
+
+	/**
+	 * Encodes repeating strings as ints, each distinct value is kept once.
+	 */
+	private static final class Dictionary {
+
+		private final HashMap<String, Integer> codes = new HashMap<>();
+		private final ArrayList<String> values = new ArrayList<>();
+
+		int encode(String value) {
+			if (value == null) {
+				return NULL_CODE;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		String decode(int code) {
+			return code == NULL_CODE ? null : values.get(code);
+		}
+	}
+}
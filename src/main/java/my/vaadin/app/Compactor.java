@@ -0,0 +1,68 @@
+package my.vaadin.app;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the compactions of the shards on a background thread. The hash tables
+ * and arrays of the indexes only grow while entities are added, so after a
+ * large delete they keep the memory of the removed ones until a compaction
+ * copies them at their current size. The compaction then checkpoints the
+ * log, which drops the records of the removed entities.
+ */
+final class Compactor {
+
+	private static final Logger LOGGER = Logger.getLogger(Compactor.class.getName());
+
+	// fewer removals are not worth copying the indexes for
+	private static final int MIN_REMOVALS = 10000;
+
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Compactor() {
+	}
+
+	/**
+	 * @param removed
+	 *            the entities removed since the last compaction
+	 * @param size
+	 *            the entities left
+	 * @return true once the removed entities are at least half as many as
+	 *         those left
+	 */
+	static boolean isDue(int removed, int size) {
+		return removed >= Math.max(MIN_REMOVALS, size / 2);
+	}
+
+	/**
+	 * Queues a compaction unless the previous one with the same flag is still
+	 * queued or running.
+	 *
+	 * @param queued
+	 *            set while the compaction is queued or running
+	 */
+	static void submit(AtomicBoolean queued, String name, Runnable compaction) {
+		if (!queued.compareAndSet(false, true)) {
+			return;
+		}
+		EXECUTOR.execute(() -> {
+			try {
+				long startNanos = System.nanoTime();
+				compaction.run();
+				LOGGER.log(Level.FINE, "Compacted {0} in {1} ms",
+						new Object[] { name, (System.nanoTime() - startNanos) / 1000000 });
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "Compacting " + name + " failed", ex);
+			} finally {
+				queued.set(false);
+			}
+		});
+	}
+}
@@ -0,0 +1,38 @@
+package my.vaadin.app;
+
+import java.util.List;
+
+/**
+ * The columns of an entity in a CSV file, used by {@link CsvTransfer}.
+ *
+ * @param <T>
+ *            the entity type
+ */
+interface CsvFormat<T> {
+
+	/**
+	 * @return the column names, written as the first line of a file
+	 */
+	String[] header();
+
+	/**
+	 * @return the column values of the entity, null for an empty column
+	 */
+	String[] format(T entity);
+
+	/**
+	 * @param fields
+	 *            the column values of one line, empty strings for empty
+	 *            columns
+	 * @return a new, not frozen entity
+	 */
+	T parse(List<String> fields);
+
+	static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	static String toString(Object value) {
+		return value == null ? null : value.toString();
+	}
+}
@@ -0,0 +1,349 @@
+package my.vaadin.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams entities between the services and CSV files without holding a whole
+ * file in memory.
+ * <p>
+ * An import splits the file at line breaks into chunks, maps each chunk into
+ * memory and parses the chunks in parallel. Parsed rows go to the bulk insert
+ * path of the service in batches, which stores them without copying and takes
+ * the write lock once per batch. Because records are split at line breaks,
+ * exported fields never contain one; line breaks in values are written as
+ * spaces.
+ * <p>
+ * Can also be run from the command line against the configured data
+ * directory, e.g.
+ * {@code java -Dcrm.dataDirectory=data my.vaadin.app.CsvTransfer import customers customers.csv}.
+ */
+public class CsvTransfer {
+
+	private static final Logger LOGGER = Logger.getLogger(CsvTransfer.class.getName());
+
+	private static final int CHUNK_SIZE = 64 << 20;
+	private static final int BATCH_SIZE = 10000;
+	private static final int MAX_LOGGED_ERRORS = 10;
+
+	/**
+	 * The outcome of an import or export.
+	 */
+	public static class Result {
+
+		private final long rows;
+		private final long rejectedRows;
+		private final long nanos;
+
+		Result(long rows, long rejectedRows, long nanos) {
+			this.rows = rows;
+			this.rejectedRows = rejectedRows;
+			this.nanos = nanos;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the amount of lines an import could not parse
+		 */
+		public long getRejectedRows() {
+			return rejectedRows;
+		}
+
+		public double getRowsPerSecond() {
+			return nanos == 0 ? 0 : rows * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d rows (%d rejected) in %.1f s, %.0f rows/s", rows, rejectedRows, nanos / 1e9,
+					getRowsPerSecond());
+		}
+	}
+
+	private CsvTransfer() {
+	}
+
+	/**
+	 * Writes all customers to a CSV file.
+	 */
+	public static Result exportCustomers(Path file) {
+		return export(CustomerService.getInstance().snapshot(), new CustomerCsvFormat(), file);
+	}
+
+	/**
+	 * Reads customers from a CSV file into the {@link CustomerService}.
+	 * Customers with an id replace the stored customer with the same id.
+	 *
+	 * @param parallelism
+	 *            the amount of chunks parsed at the same time
+	 */
+	public static Result importCustomers(Path file, int parallelism) {
+		return importFile(file, new CustomerCsvFormat(), CustomerService.getInstance()::importAll, parallelism);
+	}
+
+	/**
+	 * Writes all meetings to a CSV file.
+	 */
+	public static Result exportMeetings(Path file) {
+		return export(MeetingService.getInstance().snapshot(), new MeetingCsvFormat(), file);
+	}
+
+	/**
+	 * Reads meetings from a CSV file into the {@link MeetingService}. Meetings
+	 * with an id replace the stored meeting with the same id.
+	 *
+	 * @param parallelism
+	 *            the amount of chunks parsed at the same time
+	 */
+	public static Result importMeetings(Path file, int parallelism) {
+		return importFile(file, new MeetingCsvFormat(), MeetingService.getInstance()::importAll, parallelism);
+	}
+
+	static <T> Result export(List<T> entities, CsvFormat<T> format, Path file) {
+		long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16)) {
+			StringBuilder line = new StringBuilder(256);
+			writeLine(out, line, format.header());
+			for (T entity : entities) {
+				writeLine(out, line, format.format(entity));
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Exporting to " + file + " failed", ex);
+		}
+		Result result = new Result(entities.size(), 0, System.nanoTime() - start);
+		LOGGER.info("Exported " + result + " to " + file);
+		return result;
+	}
+
+	static <T> Result importFile(Path file, CsvFormat<T> format, Consumer<List<T>> bulkInsert, int parallelism) {
+		long start = System.nanoTime();
+		AtomicLong rows = new AtomicLong();
+		AtomicLong rejected = new AtomicLong();
+		ExecutorService parsers = Executors.newFixedThreadPool(parallelism);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Future<?>> chunks = new ArrayList<>();
+			long[] boundaries = chunkBoundaries(channel);
+			for (int i = 0; i + 1 < boundaries.length; i++) {
+				long chunkStart = boundaries[i];
+				long chunkEnd = boundaries[i + 1];
+				chunks.add(parsers.submit(() -> {
+					importChunk(channel, chunkStart, chunkEnd, format, bulkInsert, rows, rejected);
+					return null;
+				}));
+			}
+			for (Future<?> chunk : chunks) {
+				chunk.get();
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Importing " + file + " failed", ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Importing " + file + " was interrupted", ex);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("Importing " + file + " failed", ex.getCause());
+		} finally {
+			parsers.shutdownNow();
+		}
+		Result result = new Result(rows.get(), rejected.get(), System.nanoTime() - start);
+		LOGGER.info("Imported " + result + " from " + file);
+		return result;
+	}
+
+	/**
+	 * @return the chunk start offsets, each right after a line break, followed
+	 *         by the file size
+	 */
+	private static long[] chunkBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ArrayList<Long> boundaries = new ArrayList<>();
+		boundaries.add(0L);
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long position = CHUNK_SIZE;
+		while (position < size) {
+			long lineEnd = -1;
+			while (lineEnd < 0 && position < size) {
+				probe.clear();
+				int read = channel.read(probe, position);
+				for (int i = 0; i < read; i++) {
+					if (probe.get(i) == '\n') {
+						lineEnd = position + i + 1;
+						break;
+					}
+				}
+				position += Math.max(read, 0);
+			}
+			if (lineEnd < 0 || lineEnd >= size) {
+				break;
+			}
+			boundaries.add(lineEnd);
+			position = lineEnd + CHUNK_SIZE;
+		}
+		boundaries.add(size);
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	private static <T> void importChunk(FileChannel channel, long start, long end, CsvFormat<T> format,
+			Consumer<List<T>> bulkInsert, AtomicLong rows, AtomicLong rejected) throws IOException {
+		MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		String header = String.join(",", format.header());
+		List<String> fields = new ArrayList<>();
+		List<T> batch = new ArrayList<>(BATCH_SIZE);
+		byte[] line = new byte[256];
+		int lineStart = 0;
+		int limit = chunk.limit();
+		for (int position = 0; position <= limit; position++) {
+			if (position < limit && chunk.get(position) != '\n') {
+				continue;
+			}
+			int length = position - lineStart;
+			if (length > 0 && chunk.get(lineStart + length - 1) == '\r') {
+				length--;
+			}
+			if (length > 0) {
+				if (line.length < length) {
+					line = new byte[Math.max(length, line.length * 2)];
+				}
+				chunk.position(lineStart);
+				chunk.get(line, 0, length);
+				String text = new String(line, 0, length, StandardCharsets.UTF_8);
+				if (start != 0 || lineStart != 0 || !text.equals(header)) {
+					try {
+						parseLine(text, fields);
+						batch.add(format.parse(fields));
+					} catch (RuntimeException ex) {
+						if (rejected.incrementAndGet() <= MAX_LOGGED_ERRORS) {
+							LOGGER.log(Level.WARNING, "Skipping unparseable line at offset " + (start + lineStart)
+									+ ": " + text, ex);
+						}
+					}
+				}
+			}
+			if (batch.size() == BATCH_SIZE) {
+				bulkInsert.accept(batch);
+				rows.addAndGet(batch.size());
+				batch = new ArrayList<>(BATCH_SIZE);
+			}
+			lineStart = position + 1;
+		}
+		if (!batch.isEmpty()) {
+			bulkInsert.accept(batch);
+			rows.addAndGet(batch.size());
+		}
+	}
+
+	/**
+	 * Splits a CSV line into its fields. Fields may be quoted with double
+	 * quotes, a double quote inside a quoted field is written twice.
+	 */
+	static void parseLine(String line, List<String> fields) {
+		fields.clear();
+		StringBuilder field = new StringBuilder();
+		int i = 0;
+		while (true) {
+			field.setLength(0);
+			if (i < line.length() && line.charAt(i) == '"') {
+				i++;
+				while (true) {
+					int quote = line.indexOf('"', i);
+					if (quote < 0) {
+						throw new IllegalArgumentException("Unterminated quoted field");
+					}
+					field.append(line, i, quote);
+					i = quote + 1;
+					if (i < line.length() && line.charAt(i) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						break;
+					}
+				}
+				fields.add(field.toString());
+				if (i == line.length()) {
+					return;
+				}
+				if (line.charAt(i) != ',') {
+					throw new IllegalArgumentException("Unexpected character after a quoted field");
+				}
+				i++;
+			} else {
+				int comma = line.indexOf(',', i);
+				if (comma < 0) {
+					fields.add(line.substring(i));
+					return;
+				}
+				fields.add(line.substring(i, comma));
+				i = comma + 1;
+			}
+		}
+	}
+
+	private static void writeLine(Writer out, StringBuilder line, String[] fields) throws IOException {
+		line.setLength(0);
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				line.append(',');
+			}
+			String field = fields[i];
+			if (field == null) {
+				continue;
+			}
+			field = field.replace('\r', ' ').replace('\n', ' ');
+			if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0) {
+				line.append('"').append(field.replace("\"", "\"\"")).append('"');
+			} else {
+				line.append(field);
+			}
+		}
+		line.append('\n');
+		out.append(line);
+	}
+
+	/**
+	 * Command line entry point:
+	 * {@code (import|export) (customers|meetings) <file> [parallelism]}.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: CsvTransfer (import|export) (customers|meetings) <file> [parallelism]");
+			System.exit(2);
+		}
+		Path file = Paths.get(args[2]);
+		int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		boolean customers = "customers".equals(args[1]);
+		Result result;
+		if ("import".equals(args[0])) {
+			result = customers ? importCustomers(file, parallelism) : importMeetings(file, parallelism);
+		} else {
+			result = customers ? exportCustomers(file) : exportMeetings(file);
+		}
+		System.out.println(args[0] + " " + args[1] + ": " + result);
+	}
+}
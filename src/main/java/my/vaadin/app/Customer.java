@@ -7,6 +7,10 @@ import java.util.Date;
 /**
  * A entity object, like in any other Java application. In a typical real world
  * application this could for example be a JPA entity.
+ * <p>
+ * The instances returned by {@link CustomerService} are frozen snapshots of a
+ * stored version and reject modification, use {@link #mutableCopy()} to edit
+ * one.
  */
 @SuppressWarnings("serial")
 public class Customer implements Serializable, Cloneable {
@@ -19,10 +23,13 @@ public class Customer implements Serializable, Cloneable {
 	private String address = "";
 	private String city = "";
 	private String postalCode = "";
+	private long version;
+	private boolean frozen;
 
 	public Long getId() { return id; }
 
 	public void setId(Long id) {
+		checkNotFrozen();
 		this.id = id;
 	}
 
@@ -31,6 +38,7 @@ public class Customer implements Serializable, Cloneable {
 	}
 
 	public void setEmail(String email) {
+		checkNotFrozen();
 		this.email = email;
 	}
 
@@ -39,6 +47,7 @@ public class Customer implements Serializable, Cloneable {
 	}
 
 	public void setBirthDate(LocalDate birthDate) {
+		checkNotFrozen();
 		this.birthDate = birthDate;
 	}
 
@@ -47,6 +56,7 @@ public class Customer implements Serializable, Cloneable {
 	}
 
 	public void setLastName(String lastName) {
+		checkNotFrozen();
 		this.lastName = lastName;
 	}
 
@@ -55,25 +65,73 @@ public class Customer implements Serializable, Cloneable {
 	}
 
 	public void setFirstName(String firstName) {
+		checkNotFrozen();
 		this.firstName = firstName;
 	}
 
 	public String getAddress() { return address; }
 
-	public void setAddress(String address) { this.address = address; }
+	public void setAddress(String address) { checkNotFrozen(); this.address = address; }
 
 	public String getCity() { return city; }
 
-	public void setCity(String city) { this.city = city; }
+	public void setCity(String city) { checkNotFrozen(); this.city = city; }
 
 	public String getPostalCode() { return postalCode; }
 
-	public void setPostalCode(String postalCode) { this.postalCode = postalCode; }
+	public void setPostalCode(String postalCode) { checkNotFrozen(); this.postalCode = postalCode; }
 
 	public boolean isPersisted() {
 		return id != null;
 	}
 
+	/**
+	 * @return the version the service stamped on this customer when it was
+	 *         saved, 0 for a customer that was never saved
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	void setVersion(long version) {
+		checkNotFrozen();
+		this.version = version;
+	}
+
+	/**
+	 * @return true if this is a read-only snapshot handed out by the service
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Makes this instance read-only, after which it can be shared between
+	 * readers without copying.
+	 */
+	Customer freeze() {
+		frozen = true;
+		return this;
+	}
+
+	/**
+	 * @return an editable copy of this customer
+	 */
+	public Customer mutableCopy() {
+		try {
+			return clone();
+		} catch (CloneNotSupportedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException(
+					"Customer " + id + " is a read-only snapshot, edit a mutableCopy() instead");
+		}
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj) {
@@ -90,9 +148,23 @@ public class Customer implements Serializable, Cloneable {
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return id == null ? super.hashCode() : id.hashCode();
+	}
+
+	/**
+	 * Serializes this customer compactly, see {@link SerializedEntity}.
+	 */
+	private Object writeReplace() {
+		return new SerializedEntity(this);
+	}
+
 	@Override
 	public Customer clone() throws CloneNotSupportedException {
-		return (Customer) super.clone();
+		Customer copy = (Customer) super.clone();
+		copy.frozen = false;
+		return copy;
 	}
 
 	@Override
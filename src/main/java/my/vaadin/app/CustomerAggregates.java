@@ -0,0 +1,62 @@
+package my.vaadin.app;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The counts of the dashboard over the customers of one shard: the customers
+ * per city and by birth date. {@link CustomerShard} adds every version it
+ * stores and removes the version it replaces or drops, so an edit moves a
+ * customer from the counts of its old values to those of its new ones, and
+ * reading the counts never scans the customers.
+ * <p>
+ * Guarded by the lock of the shard.
+ */
+class CustomerAggregates {
+
+	// city -> customers, null for those without a city
+	private final HashMap<String, Integer> cities = new HashMap<>();
+	private final DayCounts birthDates = new DayCounts();
+	private int withoutBirthDate;
+
+	void add(Customer customer) {
+		cities.merge(customer.getCity(), 1, Integer::sum);
+		if (customer.getBirthDate() == null) {
+			withoutBirthDate++;
+		} else {
+			birthDates.add(customer.getBirthDate());
+		}
+	}
+
+	void remove(Customer customer) {
+		// drops the city with its last customer
+		cities.computeIfPresent(customer.getCity(), (city, count) -> count == 1 ? null : count - 1);
+		if (customer.getBirthDate() == null) {
+			withoutBirthDate--;
+		} else {
+			birthDates.remove(customer.getBirthDate());
+		}
+	}
+
+	/**
+	 * Adds the customers per city to the given counts.
+	 */
+	void addCitiesTo(Map<String, Integer> counts) {
+		for (Map.Entry<String, Integer> city : cities.entrySet()) {
+			counts.merge(city.getKey(), city.getValue(), Integer::sum);
+		}
+	}
+
+	/**
+	 * @return the customers born from the first day, inclusive, to the
+	 *         second, exclusive
+	 */
+	int countBornBetween(LocalDate from, LocalDate to) {
+		return birthDates.count(from, to);
+	}
+
+	int countWithoutBirthDate() {
+		return withoutBirthDate;
+	}
+}
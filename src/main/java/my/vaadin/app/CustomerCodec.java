@@ -0,0 +1,39 @@
+package my.vaadin.app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of {@link Customer}.
+ */
+class CustomerCodec implements EntityCodec<Customer> {
+
+	@Override
+	public void write(Customer customer, DataOutput out) throws IOException {
+		EntityCodec.writeId(out, customer.getId());
+		out.writeLong(customer.getVersion());
+		EntityCodec.writeString(out, customer.getFirstName());
+		EntityCodec.writeString(out, customer.getLastName());
+		EntityCodec.writeDate(out, customer.getBirthDate());
+		EntityCodec.writeString(out, customer.getEmail());
+		EntityCodec.writeString(out, customer.getAddress());
+		EntityCodec.writeString(out, customer.getCity());
+		EntityCodec.writeString(out, customer.getPostalCode());
+	}
+
+	@Override
+	public Customer read(DataInput in) throws IOException {
+		Customer customer = new Customer();
+		customer.setId(EntityCodec.readId(in));
+		customer.setVersion(in.readLong());
+		customer.setFirstName(EntityCodec.readString(in));
+		customer.setLastName(EntityCodec.readString(in));
+		customer.setBirthDate(EntityCodec.readDate(in));
+		customer.setEmail(EntityCodec.readString(in));
+		customer.setAddress(EntityCodec.readString(in));
+		customer.setCity(EntityCodec.readString(in));
+		customer.setPostalCode(EntityCodec.readString(in));
+		return customer;
+	}
+}
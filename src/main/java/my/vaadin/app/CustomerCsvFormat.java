@@ -0,0 +1,38 @@
+package my.vaadin.app;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * CSV columns of {@link Customer}.
+ */
+class CustomerCsvFormat implements CsvFormat<Customer> {
+
+	@Override
+	public String[] header() {
+		return new String[] { "id", "firstName", "lastName", "birthDate", "email", "address", "city", "postalCode" };
+	}
+
+	@Override
+	public String[] format(Customer customer) {
+		return new String[] { CsvFormat.toString(customer.getId()), customer.getFirstName(), customer.getLastName(),
+				CsvFormat.toString(customer.getBirthDate()), customer.getEmail(), customer.getAddress(),
+				customer.getCity(), customer.getPostalCode() };
+	}
+
+	@Override
+	public Customer parse(List<String> fields) {
+		Customer customer = new Customer();
+		String id = CsvFormat.emptyToNull(fields.get(0));
+		customer.setId(id == null ? null : Long.valueOf(id));
+		customer.setFirstName(fields.get(1));
+		customer.setLastName(fields.get(2));
+		String birthDate = CsvFormat.emptyToNull(fields.get(3));
+		customer.setBirthDate(birthDate == null ? null : LocalDate.parse(birthDate));
+		customer.setEmail(fields.get(4));
+		customer.setAddress(fields.get(5));
+		customer.setCity(fields.get(6));
+		customer.setPostalCode(fields.get(7));
+		return customer;
+	}
+}
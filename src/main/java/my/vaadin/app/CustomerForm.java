@@ -1,11 +1,17 @@
 package my.vaadin.app;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import com.vaadin.data.Binder;
 import com.vaadin.event.ShortcutAction.KeyCode;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.DateField;
 import com.vaadin.ui.FormLayout;
 import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Notification;
 import com.vaadin.ui.TextField;
 import com.vaadin.ui.themes.ValoTheme;
 
@@ -21,7 +27,7 @@ public class CustomerForm extends FormLayout {
     private Button save = new Button("Save");
     private Button delete = new Button("Delete");
 
-    private CustomerService service = CustomerService.getInstance();
+    private transient CustomerService service = CustomerService.getInstance();
     private Customer customer;
     private MyUI myUI;
     private Binder<Customer> binder = new Binder<>(Customer.class);
@@ -44,25 +50,41 @@ public class CustomerForm extends FormLayout {
     }
 
     public void setCustomer(Customer customer) {
-        this.customer = customer;
-        binder.setBean(customer);
+        // rows from the service are read-only snapshots, edit a copy of them
+        this.customer = customer.mutableCopy();
+        binder.setBean(this.customer);
 
         // Show delete button for only customers already in the database
-        delete.setVisible(customer.isPersisted());
+        delete.setVisible(this.customer.isPersisted() && !service.isReadOnly());
+        save.setVisible(!service.isReadOnly());
         setVisible(true);
         firstName.selectAll();
     }
 
     private void delete() {
-        service.delete(customer);
-        myUI.updateCustomerList();
-        setVisible(false);
+        finish(service.deleteAsync(customer), "Deleting failed");
     }
 
     private void save() {
-        service.save(customer);
-        myUI.updateCustomerList();
-        setVisible(false);
+        // queued so that concurrent sessions share one lock acquisition and log flush
+        finish(service.saveAsync(customer), "Saving failed");
+    }
+
+    private void finish(CompletableFuture<Customer> write, String failed) {
+        // the session stays unlocked while the write waits for the disk
+        Customer written = customer;
+        AsyncQueries.whenDone(getUI(), write, (result, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                Notification.show(failed, String.valueOf(cause.getMessage()), Notification.Type.ERROR_MESSAGE);
+            } else if (customer == written) {
+                setVisible(false);
+            }
+        });
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        service = CustomerService.getInstance();
+    }
 }
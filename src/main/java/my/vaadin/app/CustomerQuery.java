@@ -0,0 +1,151 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter on several Customer fields, all of which have to match, for
+ * {@link CustomerService#find(CustomerQuery, int, int)}. Fields without a
+ * predicate are not filtered, e.g.
+ * {@code new CustomerQuery().cityEquals("Turku").birthDateBetween(from, to).emailContains("example.com")}.
+ */
+@SuppressWarnings("serial")
+public class CustomerQuery implements Serializable {
+
+	private String city;
+	private String postalCode;
+	private LocalDate bornFrom;
+	private LocalDate bornTo;
+	private String name;
+	private String email;
+
+	/**
+	 * Matches customers living in exactly this city.
+	 */
+	public CustomerQuery cityEquals(String city) {
+		this.city = city;
+		return this;
+	}
+
+	/**
+	 * Matches customers with exactly this postal code.
+	 */
+	public CustomerQuery postalCodeEquals(String postalCode) {
+		this.postalCode = postalCode;
+		return this;
+	}
+
+	/**
+	 * Matches customers born on or between the given days.
+	 *
+	 * @param from
+	 *            the first day, or null for no lower bound
+	 * @param to
+	 *            the last day, or null for no upper bound
+	 */
+	public CustomerQuery birthDateBetween(LocalDate from, LocalDate to) {
+		this.bornFrom = from;
+		this.bornTo = to;
+		return this;
+	}
+
+	/**
+	 * Matches customers whose first and last name contain the text, ignoring
+	 * case, like the filter of {@link CustomerService#findAll(String)}.
+	 */
+	public CustomerQuery nameContains(String text) {
+		this.name = text;
+		return this;
+	}
+
+	/**
+	 * Matches customers whose email contains the text, ignoring case.
+	 */
+	public CustomerQuery emailContains(String text) {
+		this.email = text;
+		return this;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getPostalCode() {
+		return postalCode;
+	}
+
+	public LocalDate getBornFrom() {
+		return bornFrom;
+	}
+
+	public LocalDate getBornTo() {
+		return bornTo;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	boolean hasBirthDateRange() {
+		return bornFrom != null || bornTo != null;
+	}
+
+	/**
+	 * @return true if the customer matches every predicate
+	 */
+	boolean matches(Customer customer) {
+		if (city != null && !city.equals(customer.getCity())) {
+			return false;
+		}
+		if (postalCode != null && !postalCode.equals(customer.getPostalCode())) {
+			return false;
+		}
+		if (hasBirthDateRange()) {
+			LocalDate birthDate = customer.getBirthDate();
+			if (birthDate == null || (bornFrom != null && birthDate.isBefore(bornFrom))
+					|| (bornTo != null && birthDate.isAfter(bornTo))) {
+				return false;
+			}
+		}
+		if (!isEmpty(name) && !customer.toString().toLowerCase().contains(name.toLowerCase())) {
+			return false;
+		}
+		if (!isEmpty(email)
+				&& (customer.getEmail() == null || !customer.getEmail().toLowerCase().contains(email.toLowerCase()))) {
+			return false;
+		}
+		return true;
+	}
+
+	static boolean isEmpty(String text) {
+		return text == null || text.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		List<String> predicates = new ArrayList<>();
+		if (city != null) {
+			predicates.add("city = '" + city + "'");
+		}
+		if (postalCode != null) {
+			predicates.add("postalCode = '" + postalCode + "'");
+		}
+		if (hasBirthDateRange()) {
+			predicates.add("birthDate between " + (bornFrom == null ? "-" : bornFrom) + " and "
+					+ (bornTo == null ? "-" : bornTo));
+		}
+		if (!isEmpty(name)) {
+			predicates.add("name contains '" + name + "'");
+		}
+		if (!isEmpty(email)) {
+			predicates.add("email contains '" + email + "'");
+		}
+		return predicates.isEmpty() ? "all customers" : String.join(" and ", predicates);
+	}
+}
@@ -0,0 +1,216 @@
+package my.vaadin.app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An in memory trigram index over the text the customer filter is matched
+ * against, i.e. {@link Customer#toString()} in lower case. A substring query of
+ * three or more characters only has to verify the customers that share the
+ * rarest of its trigrams instead of every customer in the system.
+ * <p>
+ * Trigrams are packed into a long, three 16 bit chars, so building the index
+ * allocates no substrings. The texts are kept in an array, so filters shorter
+ * than a trigram scan it in {@link ParallelScan segments}, as are the
+ * candidates of a common trigram. The index is not thread safe,
+ * {@link CustomerService} guards it together with the customers themselves.
+ */
+class CustomerSearchIndex {
+
+	private static final int GRAM_LENGTH = 3;
+
+	// id -> position in ids and keys, removals move the last one into the gap
+	private final ParallelScan scans;
+	private final LongIntHashMap rows = new LongIntHashMap();
+	private long[] ids = new long[16];
+	private String[] keys = new String[16];
+	private int size;
+	// not final, trim() replaces it by a copy of the right size
+	private HashMap<Long, LongHashSet> postings = new HashMap<>();
+
+	/**
+	 * @param scans
+	 *            runs the scans of large candidate sets
+	 */
+	CustomerSearchIndex(ParallelScan scans) {
+		this.scans = scans;
+	}
+
+	/**
+	 * Adds a customer to the index, replacing whatever was indexed for it
+	 * before.
+	 */
+	void add(Customer customer) {
+		String key = customer.toString().toLowerCase();
+		int row = rows.get(customer.getId());
+		if (row == LongIntHashMap.NO_VALUE) {
+			row = size++;
+			if (row == ids.length) {
+				ids = Arrays.copyOf(ids, row * 2);
+				keys = Arrays.copyOf(keys, row * 2);
+			}
+			rows.put(customer.getId(), row);
+			ids[row] = customer.getId();
+		} else if (key.equals(keys[row])) {
+			return;
+		} else {
+			removeGrams(customer.getId(), keys[row]);
+		}
+		keys[row] = key;
+		for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+			Long gram = gram(key, i);
+			LongHashSet ids = postings.get(gram);
+			if (ids == null) {
+				ids = new LongHashSet();
+				postings.put(gram, ids);
+			}
+			ids.add(customer.getId());
+		}
+	}
+
+	/**
+	 * Removes a customer from the index.
+	 */
+	void remove(Long id) {
+		int row = rows.remove(id);
+		if (row == LongIntHashMap.NO_VALUE) {
+			return;
+		}
+		removeGrams(id, keys[row]);
+		int last = --size;
+		if (row != last) {
+			ids[row] = ids[last];
+			keys[row] = keys[last];
+			rows.put(ids[row], row);
+		}
+		keys[last] = null;
+	}
+
+	/**
+	 * Finds the ids of all customers whose text contains the given filter.
+	 *
+	 * @param stringFilter
+	 *            a non empty filter
+	 * @return the ids of the matching customers in ascending order
+	 */
+	long[] search(String stringFilter) {
+		String query = stringFilter.toLowerCase();
+		if (query.length() < GRAM_LENGTH) {
+			return ParallelScan.merge(scans.scan(size, (from, to) -> {
+				long[] found = new long[Math.min(to - from, 16)];
+				int count = 0;
+				for (int row = from; row < to; row++) {
+					if (keys[row].contains(query)) {
+						if (count == found.length) {
+							found = Arrays.copyOf(found, count * 2);
+						}
+						found[count++] = ids[row];
+					}
+				}
+				found = Arrays.copyOf(found, count);
+				Arrays.sort(found);
+				return found;
+			}));
+		}
+		// every match contains all trigrams of the query, so the rarest one
+		// gives the smallest candidate set to verify
+		LongHashSet candidates = null;
+		for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+			LongHashSet posting = postings.get(gram(query, i));
+			if (posting == null) {
+				return new long[0];
+			}
+			if (candidates == null || posting.size() < candidates.size()) {
+				candidates = posting;
+			}
+		}
+		long[] candidateIds = candidates.toArray();
+		return ParallelScan.merge(scans.scan(candidateIds.length, (from, to) -> {
+			long[] found = searchWithin(candidateIds, from, to, query);
+			Arrays.sort(found);
+			return found;
+		}));
+	}
+
+	/**
+	 * Shrinks the arrays, the posting lists and the maps to their current
+	 * size, e.g. after most customers were removed.
+	 */
+	void trim() {
+		rows.trim();
+		ids = Arrays.copyOf(ids, Math.max(size, 16));
+		keys = Arrays.copyOf(keys, Math.max(size, 16));
+		for (LongHashSet posting : postings.values()) {
+			posting.trim();
+		}
+		postings = new HashMap<>(postings);
+	}
+
+	/**
+	 * @return the indexed text of a customer, or null if it is not indexed
+	 */
+	String text(long id) {
+		int row = rows.get(id);
+		return row == LongIntHashMap.NO_VALUE ? null : keys[row];
+	}
+
+	/**
+	 * Finds the customers among the given ones whose text contains the
+	 * filter, checking their text only.
+	 *
+	 * @param ids
+	 *            the ids of the candidates
+	 * @param query
+	 *            a filter in lower case
+	 * @return the ids of the matching candidates in the order given
+	 */
+	long[] searchWithin(long[] ids, String query) {
+		return searchWithin(ids, 0, ids.length, query);
+	}
+
+	private long[] searchWithin(long[] ids, int from, int to, String query) {
+		long[] result = new long[to - from];
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			String key = text(ids[i]);
+			if (key != null && key.contains(query)) {
+				result[count++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @return an upper bound of the amount of customers {@link #search(String)}
+	 *         finds for the filter, without verifying any of them
+	 */
+	int estimate(String stringFilter) {
+		String query = stringFilter.toLowerCase();
+		if (query.length() < GRAM_LENGTH) {
+			return size;
+		}
+		int estimate = size;
+		for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+			LongHashSet ids = postings.get(gram(query, i));
+			estimate = Math.min(estimate, ids == null ? 0 : ids.size());
+		}
+		return estimate;
+	}
+
+	private void removeGrams(Long id, String key) {
+		for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+			Long gram = gram(key, i);
+			LongHashSet ids = postings.get(gram);
+			if (ids != null) {
+				ids.remove(id);
+				if (ids.isEmpty()) {
+					postings.remove(gram);
+				}
+			}
+		}
+	}
+
+	private static Long gram(String key, int start) {
+		return ((long) key.charAt(start) << 32) | ((long) key.charAt(start + 1) << 16) | key.charAt(start + 2);
+	}
+}
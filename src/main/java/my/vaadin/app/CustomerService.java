@@ -2,11 +2,19 @@ package my.vaadin.app;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,35 +22,109 @@ import java.util.logging.Logger;
  * An in memory dummy "database" for the example purposes. In a typical Java app
  * this class would be replaced by e.g. EJB or a Spring based service class.
  * <p>
+ * The customers are split by id into {@link CustomerShard shards}, see
+ * {@link Shards#COUNT_PROPERTY}. Queries run on all shards in parallel and
+ * merge their results; writes to different shards do not wait for each other.
+ * A write of several customers is applied shard by shard, so readers may see
+ * it partly applied.
+ * <p>
  * In demos/tutorials/examples, get a reference to this service class with
  * {@link CustomerService#getInstance()}.
  */
-public class CustomerService {
+public class CustomerService implements AutoCloseable {
+
+	/**
+	 * The sort property ordering customers by their creation.
+	 */
+	public static final String ID_PROPERTY = "id";
 
-	private static CustomerService instance;
 	private static final Logger LOGGER = Logger.getLogger(CustomerService.class.getName());
+	private static final Comparator<Customer> NEWEST_FIRST = Comparator.comparing(Customer::getId).reversed();
 
-	private final HashMap<Long, Customer> contacts = new HashMap<>();
-	private long nextId = 0;
+	private final CustomerShard[] shards;
+	// the queries of the shards and the segments of their scans
+	private final ExecutorService queries;
+	// ids are not partitioned into ranges per shard, customer i lives on
+	// shard i mod n, so one counter hands them out without a lock
+	private final AtomicLong nextId = new AtomicLong();
+	private final AtomicLong lastVersion = new AtomicLong();
+	private volatile boolean readOnly;
+	private final CopyOnWriteArrayList<ChangeListener<Customer>> listeners = new CopyOnWriteArrayList<>();
+	private final ServiceMetrics metrics = new ServiceMetrics("CustomerService", "findAll", "find", "count", "save",
+			"delete", "writeBatch", "readLockWait", "writeLockWait");
+	private final OperationMetrics findAllMetrics = metrics.get("findAll");
+	private final OperationMetrics findMetrics = metrics.get("find");
+	private final OperationMetrics countMetrics = metrics.get("count");
+	private final OperationMetrics saveMetrics = metrics.get("save");
+	private final OperationMetrics deleteMetrics = metrics.get("delete");
+
+	/**
+	 * Creates an empty instance of its own with a single shard, for
+	 * benchmarks and tools; the application uses {@link #getInstance()}.
+	 */
+	CustomerService(PersistenceBackend<Customer> persistence) {
+		this(1, shard -> persistence);
+	}
 
-	private CustomerService() {
+	/**
+	 * @param shardCount
+	 *            the amount of shards
+	 * @param persistence
+	 *            the backend of each shard
+	 */
+	CustomerService(int shardCount, IntFunction<PersistenceBackend<Customer>> persistence) {
+		// a thread per shard, and per core for the scans of a single shard
+		int threads = Math.max(shardCount, Runtime.getRuntime().availableProcessors());
+		queries = Shards.executor("customer-query", threads);
+		ParallelScan scans = new ParallelScan(queries, threads);
+		shards = new CustomerShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new CustomerShard(Shards.name("customer-writer", i, shardCount), persistence.apply(i),
+					CustomerStore.fromSystemProperties(), FilterCache.fromSystemProperties(shardCount), scans,
+					nextId, lastVersion, this::changed, metrics);
+		}
+		metrics.addGauge("filterCache", this::getFilterCacheStats);
 	}
 
 	/**
 	 * @return a reference to an example facade for Customer objects.
 	 */
 	public static CustomerService getInstance() {
-		if (instance == null) {
-			instance = new CustomerService();
-			instance.ensureTestData();
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Creates the shared instance on first use; the class loader guarantees
+	 * this happens exactly once even under concurrent first requests.
+	 */
+	private static class InstanceHolder {
+
+		private static final CustomerService INSTANCE = createInstance();
+
+		private static CustomerService createInstance() {
+			int shards = Shards.fromSystemProperties();
+			Shards.checkPersistedCount("customers", shards);
+			CustomerService service = new CustomerService(shards,
+					shard -> ReplicationLeader.log(
+							PersistenceBackend.fromSystemProperties(Shards.name("customers", shard, shards),
+									new CustomerCodec()),
+							ReplicationLeader.CUSTOMER_SAVED, ReplicationLeader.CUSTOMER_DELETED));
+			service.recover();
+			if (ReplicationFollower.isConfigured()) {
+				// the customers come from the leader, see MeetingService
+				service.setReadOnly(true);
+			} else {
+				service.ensureTestData();
+			}
+			service.metrics.register();
+			return service;
 		}
-		return instance;
 	}
 
 	/**
 	 * @return all available Customer objects.
 	 */
-	public synchronized List<Customer> findAll() {
+	public List<Customer> findAll() {
 		return findAll(null);
 	}
 
@@ -52,29 +134,10 @@ public class CustomerService {
 	 * @param stringFilter
 	 *            filter that returned objects should match or null/empty string
 	 *            if all objects should be returned.
-	 * @return list a Customer objects
+	 * @return list of frozen Customer snapshots
 	 */
-	public synchronized List<Customer> findAll(String stringFilter) {
-		ArrayList<Customer> arrayList = new ArrayList<>();
-		for (Customer contact : contacts.values()) {
-			try {
-				boolean passesFilter = (stringFilter == null || stringFilter.isEmpty())
-						|| contact.toString().toLowerCase().contains(stringFilter.toLowerCase());
-				if (passesFilter) {
-					arrayList.add(contact.clone());
-				}
-			} catch (CloneNotSupportedException ex) {
-				Logger.getLogger(CustomerService.class.getName()).log(Level.SEVERE, null, ex);
-			}
-		}
-		Collections.sort(arrayList, new Comparator<Customer>() {
-
-			@Override
-			public int compare(Customer o1, Customer o2) {
-				return (int) (o2.getId() - o1.getId());
-			}
-		});
-		return arrayList;
+	public List<Customer> findAll(String stringFilter) {
+		return findAll(stringFilter, ID_PROPERTY, true, 0, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -87,40 +150,235 @@ public class CustomerService {
 	 *            the index of first result
 	 * @param maxresults
 	 *            maximum result count
-	 * @return list a Customer objects
+	 * @return list of frozen Customer snapshots
 	 */
-	public synchronized List<Customer> findAll(String stringFilter, int start, int maxresults) {
-		ArrayList<Customer> arrayList = new ArrayList<>();
-		for (Customer contact : contacts.values()) {
-			try {
-				boolean passesFilter = (stringFilter == null || stringFilter.isEmpty())
-						|| contact.toString().toLowerCase().contains(stringFilter.toLowerCase());
-				if (passesFilter) {
-					arrayList.add(contact.clone());
-				}
-			} catch (CloneNotSupportedException ex) {
-				Logger.getLogger(CustomerService.class.getName()).log(Level.SEVERE, null, ex);
-			}
+	public List<Customer> findAll(String stringFilter, int start, int maxresults) {
+		return findAll(stringFilter, ID_PROPERTY, true, start, maxresults);
+	}
+
+	/**
+	 * Finds the Customer's that match given filter in the order of a property
+	 * and limits the resultset. Without a filter the page is read from an
+	 * index kept in that order, in O(log n + maxresults). With several shards
+	 * each of them reads up to the end of the page and the pages are merged.
+	 *
+	 * @param stringFilter
+	 *            filter that returned objects should match or null/empty string
+	 *            if all objects should be returned.
+	 * @param sortProperty
+	 *            {@link #ID_PROPERTY} or one of the properties the customer
+	 *            Grid shows: firstName, lastName, birthDate or email
+	 * @param descending
+	 *            true to start with the largest values, for the id the newest
+	 *            customers
+	 * @param start
+	 *            the index of first result
+	 * @param maxresults
+	 *            maximum result count
+	 * @return list of frozen Customer snapshots
+	 */
+	public List<Customer> findAll(String stringFilter, String sortProperty, boolean descending, int start,
+			int maxresults) {
+		Comparator<Customer> order = shards[0].order(sortProperty, descending);
+		if (order == null) {
+			throw new IllegalArgumentException("Customers cannot be sorted by " + sortProperty);
 		}
-		Collections.sort(arrayList, new Comparator<Customer>() {
+		int end = (int) Math.min((long) start + maxresults, Integer.MAX_VALUE);
+		long startNanos = System.nanoTime();
+		CustomerShard.Rows rows = new CustomerShard.Rows();
+		List<Customer> page;
+		if (shards.length == 1) {
+			page = shards[0].findAll(stringFilter, sortProperty, descending, start, end, rows);
+		} else {
+			CustomerShard.Rows[] shardRows = rows(shards.length);
+			page = Shards.merge(Shards.scatter(queries, shards.length,
+					i -> shards[i].findAll(stringFilter, sortProperty, descending, 0, end, shardRows[i])), order,
+					start, end);
+			addAll(rows, shardRows);
+		}
+		findAllMetrics.record(startNanos, rows.scanned, page.size(), shards[0].materializes() ? rows.read : 0);
+		return page;
+	}
 
-			@Override
-			public int compare(Customer o1, Customer o2) {
-				return (int) (o2.getId() - o1.getId());
-			}
-		});
-		int end = start + maxresults;
-		if (end > arrayList.size()) {
-			end = arrayList.size();
+	/**
+	 * Counts the Customer's that match given filter.
+	 *
+	 * @param stringFilter
+	 *            filter that counted objects should match or null/empty string
+	 *            if all objects should be counted.
+	 * @return the amount of matching customers
+	 */
+	public int count(String stringFilter) {
+		if (stringFilter == null || stringFilter.isEmpty()) {
+			return (int) count();
+		}
+		long startNanos = System.nanoTime();
+		int count = 0;
+		for (int shardCount : Shards.scatter(queries, shards.length, i -> shards[i].count(stringFilter))) {
+			count += shardCount;
 		}
-		return arrayList.subList(start, end);
+		countMetrics.record(startNanos, count, 0, 0);
+		return count;
+	}
+
+	/**
+	 * @return the hit rate, evictions and size of the caches of filter
+	 *         results of all shards, see {@link FilterCache#SIZE_PROPERTY}
+	 */
+	public CacheStats getFilterCacheStats() {
+		CacheStats stats = shards[0].filterCacheStats();
+		for (int i = 1; i < shards.length; i++) {
+			stats = stats.plus(shards[i].filterCacheStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Finds the customers matching a query, newest first, and limits the
+	 * resultset. The candidates come from the most selective index the query
+	 * can use, see {@link #explain(CustomerQuery, int, int)}.
+	 *
+	 * @param start
+	 *            the index of first result
+	 * @param maxresults
+	 *            maximum result count
+	 * @return list of frozen Customer snapshots
+	 */
+	public List<Customer> find(CustomerQuery query, int start, int maxresults) {
+		int end = (int) Math.min((long) start + maxresults, Integer.MAX_VALUE);
+		long startNanos = System.nanoTime();
+		CustomerShard.Rows rows = new CustomerShard.Rows();
+		List<Customer> page;
+		if (shards.length == 1) {
+			page = shards[0].find(query, start, end, rows);
+		} else {
+			CustomerShard.Rows[] shardRows = rows(shards.length);
+			page = Shards.merge(Shards.scatter(queries, shards.length, i -> shards[i].find(query, 0, end, shardRows[i])),
+					NEWEST_FIRST, start, end);
+			addAll(rows, shardRows);
+		}
+		findMetrics.record(startNanos, rows.scanned, page.size(), shards[0].materializes() ? rows.read : 0);
+		return page;
+	}
+
+	/**
+	 * Counts the customers matching a query.
+	 */
+	public int count(CustomerQuery query) {
+		long startNanos = System.nanoTime();
+		CustomerShard.Rows rows = new CustomerShard.Rows();
+		CustomerShard.Rows[] shardRows = rows(shards.length);
+		int count = 0;
+		for (int shardCount : Shards.scatter(queries, shards.length, i -> shards[i].count(query, shardRows[i]))) {
+			count += shardCount;
+		}
+		addAll(rows, shardRows);
+		countMetrics.record(startNanos, rows.scanned, 0, shards[0].materializes() ? rows.scanned : 0);
+		return count;
+	}
+
+	/**
+	 * Describes how {@link #find(CustomerQuery, int, int)} would answer a
+	 * query right now: the access path it picks, the amount of candidates it
+	 * expects to check and the other paths it considered, for each shard.
+	 */
+	public String explain(CustomerQuery query, int start, int maxresults) {
+		int wanted = (int) Math.min((long) start + maxresults, Integer.MAX_VALUE);
+		if (shards.length == 1) {
+			return shards[0].explain(query, wanted);
+		}
+		StringBuilder explanation = new StringBuilder();
+		for (int i = 0; i < shards.length; i++) {
+			explanation.append(i == 0 ? "" : "; ").append("shard ").append(i).append(": ")
+					.append(shards[i].explain(query, wanted));
+		}
+		return explanation.toString();
 	}
 
 	/**
 	 * @return the amount of all customers in the system
 	 */
-	public synchronized long count() {
-		return contacts.size();
+	public long count() {
+		long count = 0;
+		for (CustomerShard shard : shards) {
+			count += shard.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the customers per city from counts kept up to date with every
+	 * change, without reading the customers.
+	 *
+	 * @return the customers per city, the most common city first; customers
+	 *         without a city are counted under null
+	 */
+	public Map<String, Integer> countByCity() {
+		Map<String, Integer> counts = new HashMap<>();
+		for (CustomerShard shard : shards) {
+			shard.countByCity(counts);
+		}
+		Map<String, Integer> ordered = new LinkedHashMap<>();
+		counts.entrySet().stream().sorted(Map.Entry.<String, Integer> comparingByValue().reversed())
+				.forEachOrdered(city -> ordered.put(city.getKey(), city.getValue()));
+		return ordered;
+	}
+
+	/**
+	 * Counts the customers born in a period from counts kept up to date with
+	 * every change, in O(log days) per shard.
+	 *
+	 * @param from
+	 *            the first day, inclusive
+	 * @param to
+	 *            the last day, exclusive
+	 * @return the customers born from {@code from} to {@code to}
+	 */
+	public int countBornBetween(LocalDate from, LocalDate to) {
+		int count = 0;
+		for (CustomerShard shard : shards) {
+			count += shard.countBornBetween(from, to);
+		}
+		return count;
+	}
+
+	/**
+	 * @param fromAge
+	 *            the youngest age counted
+	 * @param toAge
+	 *            the age after the oldest one counted
+	 * @return the customers at least {@code fromAge} and less than
+	 *         {@code toAge} years old on the given day
+	 */
+	public int countAged(int fromAge, int toAge, LocalDate day) {
+		// aged a on the day means born after a + 1 years before it, up to a years before it
+		return countBornBetween(day.minusYears(toAge).plusDays(1), day.minusYears(fromAge).plusDays(1));
+	}
+
+	/**
+	 * @return the customers without a birth date
+	 */
+	public int countWithoutBirthDate() {
+		int count = 0;
+		for (CustomerShard shard : shards) {
+			count += shard.countWithoutBirthDate();
+		}
+		return count;
+	}
+
+	/**
+	 * @return a frozen snapshot of the customer with the id, or null if there
+	 *         is none
+	 */
+	Customer get(long id) {
+		return shards[shardOf(id)].get(id);
+	}
+
+	/**
+	 * @return true if a customer with the id is stored
+	 */
+	boolean contains(long id) {
+		return shards[shardOf(id)].contains(id);
 	}
 
 	/**
@@ -129,31 +387,290 @@ public class CustomerService {
 	 * @param value
 	 *            the Customer to be deleted
 	 */
-	public synchronized void delete(Customer value) {
-		contacts.remove(value.getId());
+	public void delete(Customer value) {
+		deleteAll(Collections.singletonList(value));
+	}
+
+	/**
+	 * Deletes customers from the system with one lock acquisition and one log
+	 * flush per shard.
+	 *
+	 * @param values
+	 *            the Customers to be deleted
+	 */
+	public void deleteAll(Collection<Customer> values) {
+		checkWritable();
+		long startNanos = System.nanoTime();
+		List<List<Long>> ids = byShard();
+		for (Customer value : values) {
+			ids.get(shardOf(value.getId())).add(value.getId());
+		}
+		int changes = 0;
+		for (int i = 0; i < shards.length; i++) {
+			if (!ids.get(i).isEmpty()) {
+				changes += shards[i].deleteAll(ids.get(i)).size();
+			}
+		}
+		deleteMetrics.record(startNanos, values.size(), changes, 0);
+	}
+
+	/**
+	 * Queues a customer for deletion together with the writes of other
+	 * threads.
+	 *
+	 * @param value
+	 *            the Customer to be deleted
+	 * @return a future completed once the deletion is durable
+	 */
+	public CompletableFuture<Customer> deleteAsync(Customer value) {
+		checkWritable();
+		return shards[shardOf(value.getId())].submit(value, true);
 	}
 
 	/**
 	 * Persists or updates customer in the system. Also assigns an identifier
 	 * for new Customer instances.
+	 * <p>
+	 * The given instance is not stored itself; a frozen copy of it becomes the
+	 * new version, so snapshots handed out earlier keep their old state.
 	 *
 	 * @param entry
 	 */
-	public synchronized void save(Customer entry) {
+	public void save(Customer entry) {
 		if (entry == null) {
 			LOGGER.log(Level.SEVERE,
 					"Customer is null. Are you sure you have connected your form to the application as described in tutorial chapter 7?");
 			return;
 		}
+		saveAll(Collections.singletonList(entry));
+	}
+
+	/**
+	 * Persists or updates customers with one lock acquisition and one log
+	 * flush per shard. Also assigns identifiers for new Customer instances.
+	 *
+	 * @param entries
+	 *            the Customers to be saved
+	 */
+	public void saveAll(Collection<Customer> entries) {
+		checkWritable();
+		long startNanos = System.nanoTime();
+		List<List<Customer>> copies = byShard();
+		for (Customer entry : entries) {
+			Customer copy = prepare(entry);
+			copies.get(shardOf(copy.getId())).add(copy);
+		}
+		int changes = 0;
+		for (int i = 0; i < shards.length; i++) {
+			if (!copies.get(i).isEmpty()) {
+				changes += shards[i].saveAll(copies.get(i)).size();
+			}
+		}
+		saveMetrics.record(startNanos, 0, changes, entries.size());
+	}
+
+	/**
+	 * Queues a customer for saving together with the writes of other threads
+	 * to its shard, which then share one lock acquisition and one log flush.
+	 * The identifier of a new Customer is assigned right away.
+	 *
+	 * @param entry
+	 *            the Customer to be saved
+	 * @return a future completed with the saved version once it is durable
+	 */
+	public CompletableFuture<Customer> saveAsync(Customer entry) {
+		checkWritable();
+		Customer copy = prepare(entry);
+		return shards[shardOf(copy.getId())].submit(copy, false);
+	}
+
+	/**
+	 * @return the latency and row counts of the operations of this service
+	 */
+	ServiceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers a listener notified of every change after it was applied and
+	 * made durable.
+	 */
+	public void addChangeListener(ChangeListener<Customer> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeChangeListener(ChangeListener<Customer> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Notifies the listeners of the durable changes of a shard.
+	 */
+	private void changed(List<ChangeEvent<Customer>> changes) {
+		for (ChangeListener<Customer> listener : listeners) {
+			try {
+				listener.changed(changes);
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "A change listener failed", ex);
+			}
+		}
+	}
+
+	/**
+	 * Bulk insert path for new instances handed over by the caller, e.g. rows
+	 * parsed by {@link CsvTransfer}. They are stored as they are instead of
+	 * copied and must not be used by the caller afterwards. Instances with an
+	 * identifier replace the stored Customer with that identifier.
+	 */
+	void importAll(List<Customer> entries) {
+		checkWritable();
+		List<List<Customer>> parts = byShard();
+		for (Customer entry : entries) {
+			if (entry.getId() == null) {
+				entry.setId(nextId.getAndIncrement());
+			} else {
+				nextId.accumulateAndGet(entry.getId() + 1, Math::max);
+			}
+			parts.get(shardOf(entry.getId())).add(entry);
+		}
+		Shards.scatter(queries, shards.length, i -> {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].importAll(parts.get(i));
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Applies customer versions replicated from the leader, keeping their ids
+	 * and versions.
+	 *
+	 * @param replace
+	 *            true to store every version, as for the snapshot of a
+	 *            restarted leader whose versions are not comparable to the
+	 *            stored ones, false to only replace older versions
+	 * @see ReplicationFollower
+	 */
+	void replicate(List<Customer> versions, boolean replace) {
+		List<List<Customer>> parts = byShard();
+		for (Customer version : versions) {
+			parts.get(shardOf(version.getId())).add(version);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].replicate(parts.get(i), replace);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the customers the leader deleted.
+	 *
+	 * @see ReplicationFollower
+	 */
+	void replicateDeletes(Collection<Long> ids) {
+		List<List<Long>> parts = byShard();
+		for (Long id : ids) {
+			parts.get(shardOf(id)).add(id);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].deleteAll(parts.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @return true if this service only applies the changes a follower
+	 *         replicates from its leader and rejects writes of its own
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Applies the writes queued so far, then stops the writer thread of every
+	 * shard and closes its log. Writes submitted afterwards fail, queries run
+	 * on the calling thread. For the instances benchmarks and tools create;
+	 * the shared one lives as long as the application.
+	 */
+	@Override
+	public void close() {
+		for (CustomerShard shard : shards) {
+			shard.close();
+		}
+		queries.shutdown();
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new IllegalStateException("Customers are replicated from the leader, save them there");
+		}
+	}
+
+	/**
+	 * @return every stored Customer in no particular order
+	 */
+	List<Customer> snapshot() {
+		List<Customer> customers = new ArrayList<>();
+		for (CustomerShard shard : shards) {
+			customers.addAll(shard.snapshot());
+		}
+		return customers;
+	}
+
+	/**
+	 * @return the copy of the entry that becomes its next version
+	 */
+	private Customer prepare(Customer entry) {
 		if (entry.getId() == null) {
-			entry.setId(nextId++);
+			entry.setId(nextId.getAndIncrement());
+		}
+		return entry.mutableCopy();
+	}
+
+	private int shardOf(long id) {
+		return Shards.of(id, shards.length);
+	}
+
+	private static CustomerShard.Rows[] rows(int count) {
+		CustomerShard.Rows[] rows = new CustomerShard.Rows[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = new CustomerShard.Rows();
 		}
-		try {
-			entry = (Customer) entry.clone();
-		} catch (Exception ex) {
-			throw new RuntimeException(ex);
+		return rows;
+	}
+
+	private static void addAll(CustomerShard.Rows rows, CustomerShard.Rows[] shardRows) {
+		for (CustomerShard.Rows shard : shardRows) {
+			rows.add(shard);
 		}
-		contacts.put(entry.getId(), entry);
+	}
+
+	/**
+	 * @return an empty list for each shard
+	 */
+	private <T> List<List<T>> byShard() {
+		List<List<T>> parts = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			parts.add(new ArrayList<>());
+		}
+		return parts;
+	}
+
+	/**
+	 * Loads the persisted customers of all shards, if the service has a
+	 * durable backend.
+	 */
+	private void recover() {
+		Shards.scatter(queries, shards.length, i -> {
+			shards[i].recover();
+			return null;
+		});
 	}
 
 	/**
@@ -194,6 +711,7 @@ public class CustomerService {
 				"Bernard Nilsen 'Ap #420-6116 A, St.' Sennariolo 9761"
 			};
 			Random r = new Random(0);
+			List<Customer> testData = new ArrayList<>(customers.length);
 			for (String customer : customers) {
 				String[] split = customer.split("'");
 				String[] splitName = split[0].split(" ");
@@ -207,8 +725,9 @@ public class CustomerService {
 				c.setAddress(split[1].replace("'", ""));
 				c.setCity(splitCity[1]);
 				c.setPostalCode(splitCity[2]);
-				save(c);
+				testData.add(c);
 			}
+			saveAll(testData);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,889 @@
+package my.vaadin.app;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The customers of one shard of {@link CustomerService} with their indexes,
+ * lock, log and writer thread. Ids and versions come from counters all shards
+ * of the service share.
+ */
+class CustomerShard {
+
+	private static final Logger LOGGER = Logger.getLogger(CustomerService.class.getName());
+	private static final Comparator<String> STRING_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+	private static final Comparator<Object> NO_ORDER = (first, second) -> 0;
+
+	private final CustomerStore contacts;
+	private final CustomerSearchIndex searchIndex;
+	private final ParallelScan scans;
+	private final FilterCache filterCache;
+	private final HashIndex cityIndex = new HashIndex();
+	private final HashIndex postalCodeIndex = new HashIndex();
+	private final CustomerAggregates aggregates = new CustomerAggregates();
+	// sort property -> all customers ordered by it
+	private final Map<String, SortColumn<?>> sortColumns = new HashMap<>();
+	private final AtomicLong nextId;
+	private final AtomicLong lastVersion;
+	// searches, counts and pages of all sessions hold the read lock together,
+	// only put() and drop() take the write lock
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final PersistenceBackend<Customer> persistence;
+	// notifies the listeners of the service
+	private final Consumer<List<ChangeEvent<Customer>>> listeners;
+	private final WriteBatcher<Customer> writer;
+	private final OperationMetrics writeBatchMetrics;
+	private final OperationMetrics readLockWaitMetrics;
+	private final OperationMetrics writeLockWaitMetrics;
+	private final String name;
+	// customers removed since the last compaction, guarded by the write lock
+	private int removedSinceCompaction;
+	private final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+	/**
+	 * @param writerName
+	 *            the name of the writer thread
+	 * @param filterCache
+	 *            the cache of the filter results of this shard
+	 * @param scans
+	 *            runs the scans of large match sets on the query threads of
+	 *            the service
+	 * @param nextId
+	 *            the next id to assign, shared by all shards
+	 * @param lastVersion
+	 *            the last version stamped, shared by all shards
+	 * @param metrics
+	 *            the metrics of the service, with writeBatch, readLockWait and
+	 *            writeLockWait operations
+	 */
+	CustomerShard(String writerName, PersistenceBackend<Customer> persistence, CustomerStore contacts,
+			FilterCache filterCache, ParallelScan scans, AtomicLong nextId, AtomicLong lastVersion,
+			Consumer<List<ChangeEvent<Customer>>> listeners, ServiceMetrics metrics) {
+		this.persistence = persistence;
+		this.contacts = contacts;
+		this.filterCache = filterCache;
+		this.scans = scans;
+		this.searchIndex = new CustomerSearchIndex(scans);
+		this.nextId = nextId;
+		this.lastVersion = lastVersion;
+		this.listeners = listeners;
+		this.name = writerName;
+		this.writer = new WriteBatcher<>(writerName, this::applyWrites, 1000);
+		this.writeBatchMetrics = metrics.get("writeBatch");
+		this.readLockWaitMetrics = metrics.get("readLockWait");
+		this.writeLockWaitMetrics = metrics.get("writeLockWait");
+		sortColumns.put(CustomerService.ID_PROPERTY, new SortColumn<>(customer -> 0, customer -> null, NO_ORDER));
+		sortColumns.put("firstName", stringColumn(Customer::getFirstName));
+		sortColumns.put("lastName", stringColumn(Customer::getLastName));
+		// the epoch day is the whole key, so no LocalDate is kept
+		sortColumns.put("birthDate", new SortColumn<>(customer -> customer.getBirthDate() == null ? Long.MIN_VALUE
+				: customer.getBirthDate().toEpochDay(), customer -> null, NO_ORDER));
+		sortColumns.put("email", stringColumn(Customer::getEmail));
+	}
+
+	private static SortColumn<String> stringColumn(Function<Customer, String> key) {
+		return new SortColumn<>(customer -> SortedIndex.stringPrefix(key.apply(customer)), key, STRING_ORDER);
+	}
+
+	/**
+	 * A property customers can be ordered by, with the index keeping them in
+	 * that order. Ties are ordered by id.
+	 */
+	private static final class SortColumn<K> {
+
+		private final ToLongFunction<Customer> prefix;
+		private final Function<Customer, K> key;
+		private final Comparator<? super K> keyOrder;
+		private final SortedIndex<K> index;
+
+		/**
+		 * @see SortedIndex
+		 */
+		SortColumn(ToLongFunction<Customer> prefix, Function<Customer, K> key, Comparator<? super K> keyOrder) {
+			this.prefix = prefix;
+			this.key = key;
+			this.keyOrder = keyOrder;
+			this.index = new SortedIndex<>(keyOrder);
+		}
+
+		void add(Customer customer) {
+			index.add(prefix.applyAsLong(customer), key.apply(customer), customer.getId());
+		}
+
+		void remove(Customer customer) {
+			index.remove(prefix.applyAsLong(customer), key.apply(customer), customer.getId());
+		}
+
+		Comparator<Customer> order(boolean descending) {
+			Comparator<Customer> order = Comparator.comparingLong(prefix).thenComparing(key, keyOrder)
+					.thenComparing(Customer::getId);
+			return descending ? order.reversed() : order;
+		}
+	}
+
+	/**
+	 * What a query looked at, for its metrics.
+	 */
+	static final class Rows {
+
+		// index entries or candidates
+		long scanned;
+		// customers read from the store
+		long read;
+
+		void add(Rows other) {
+			scanned += other.scanned;
+			read += other.read;
+		}
+	}
+
+	/**
+	 * @return the order of {@link #findAll} for a sort property, the same in
+	 *         every shard, or null if customers cannot be sorted by it
+	 */
+	Comparator<Customer> order(String sortProperty, boolean descending) {
+		SortColumn<?> column = sortColumns.get(sortProperty);
+		return column == null ? null : column.order(descending);
+	}
+
+	/**
+	 * @return true if every read creates a new Customer object
+	 */
+	boolean materializes() {
+		return contacts.materializes();
+	}
+
+	/**
+	 * Finds the customers from position start to end of the filtered order.
+	 *
+	 * @see CustomerService#findAll(String, String, boolean, int, int)
+	 */
+	List<Customer> findAll(String stringFilter, String sortProperty, boolean descending, int start, int end,
+			Rows rows) {
+		List<Customer> page = new ArrayList<>();
+		lockRead();
+		try {
+			readPage(sortColumns.get(sortProperty), stringFilter, descending, start, end, page, rows);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return page;
+	}
+
+	/**
+	 * Adds the customers from position start to end of the filtered order to
+	 * the page. Callers hold the read lock.
+	 */
+	private void readPage(SortColumn<?> column, String stringFilter, boolean descending, int start, int end,
+			List<Customer> page, Rows rows) {
+		if (stringFilter == null || stringFilter.isEmpty()) {
+			column.index.forEach(start, end, descending, id -> page.add(contacts.get(id)));
+			rows.scanned = rows.read = page.size();
+			return;
+		}
+		long[] ids = matching(stringFilter);
+		rows.scanned = ids.length;
+		end = Math.min(end, ids.length);
+		if (start >= end) {
+			return;
+		}
+		if (column == sortColumns.get(CustomerService.ID_PROPERTY)) {
+			// the matches are in id order already, only the page is
+			// materialized
+			for (int i = start; i < end; i++) {
+				page.add(contacts.get(ids[descending ? ids.length - 1 - i : i]));
+			}
+			rows.read = page.size();
+			return;
+		}
+		if (ids.length > contacts.size() / 16) {
+			// for a broad filter walking the index and skipping the
+			// customers that do not match is cheaper than sorting
+			LongHashSet matches = new LongHashSet(ids.length);
+			for (long id : ids) {
+				matches.add(id);
+			}
+			int[] skipped = { 0 };
+			int pageSize = end - start;
+			column.index.forEach(descending, id -> {
+				rows.scanned++;
+				if (!matches.contains(id)) {
+					return true;
+				}
+				if (skipped[0] < start) {
+					skipped[0]++;
+					return true;
+				}
+				page.add(contacts.get(id));
+				return page.size() < pageSize;
+			});
+			rows.read = page.size();
+			return;
+		}
+		// only the first end matches in the order are kept and sorted, each
+		// segment of a large match set picks its own which are then merged
+		Comparator<Customer> order = column.order(descending);
+		int wanted = end;
+		page.addAll(Shards.merge(scans.scan(ids.length, (from, to) -> first(ids, from, to, order, wanted)),
+				order, start, end));
+		rows.read = ids.length;
+	}
+
+	/**
+	 * @return the first customers in the order among those with the ids from
+	 *         position from to to, at most wanted of them, sorted
+	 */
+	private List<Customer> first(long[] ids, int from, int to, Comparator<Customer> order, int wanted) {
+		// the last kept customer on top, to be replaced by any before it
+		PriorityQueue<Customer> kept = new PriorityQueue<>(Math.min(wanted, to - from) + 1, order.reversed());
+		for (int i = from; i < to; i++) {
+			Customer customer = contacts.get(ids[i]);
+			if (kept.size() < wanted) {
+				kept.add(customer);
+			} else if (order.compare(customer, kept.peek()) < 0) {
+				kept.poll();
+				kept.add(customer);
+			}
+		}
+		List<Customer> first = new ArrayList<>(kept);
+		first.sort(order);
+		return first;
+	}
+
+	/**
+	 * @return the amount of customers matching a non empty filter
+	 */
+	int count(String stringFilter) {
+		lockRead();
+		try {
+			return matching(stringFilter).length;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the ids of the customers matching a non empty filter in
+	 *         ascending order, which must not be modified. Callers hold the
+	 *         read lock.
+	 */
+	private long[] matching(String stringFilter) {
+		String filter = stringFilter.toLowerCase();
+		long[] ids = filterCache.get(filter);
+		if (ids != null) {
+			return ids;
+		}
+		// the matches of a longer filter are among those of its beginning,
+		// checking them beats the index once few are left
+		long[] broader = filterCache.getPrefix(filter);
+		if (broader != null && broader.length <= searchIndex.estimate(filter)) {
+			ids = searchIndex.searchWithin(broader, filter);
+			filterCache.put(filter, ids, true);
+			return ids;
+		}
+		ids = searchIndex.search(filter);
+		filterCache.put(filter, ids, false);
+		return ids;
+	}
+
+	CacheStats filterCacheStats() {
+		return filterCache.stats();
+	}
+
+	/**
+	 * Finds the newest customers matching a query, up to the end position.
+	 *
+	 * @see CustomerService#find(CustomerQuery, int, int)
+	 */
+	List<Customer> find(CustomerQuery query, int start, int end, Rows rows) {
+		List<Customer> page = new ArrayList<>();
+		if (start >= end) {
+			return page;
+		}
+		lockRead();
+		try {
+			QueryPlan plan = plan(query, end);
+			LOGGER.log(Level.FINE, "{0}", plan);
+			if (plan.newestFirst) {
+				// the candidates arrive in result order, so the walk stops
+				// once the page is full
+				int[] skipped = { 0 };
+				plan.candidates.accept(id -> {
+					rows.scanned++;
+					Customer customer = contacts.get(id);
+					if (!query.matches(customer)) {
+						return true;
+					}
+					if (skipped[0] < start) {
+						skipped[0]++;
+						return true;
+					}
+					page.add(customer);
+					return page.size() < end - start;
+				});
+				rows.read = rows.scanned;
+			} else {
+				long[] ids = matchingIds(query, plan, rows);
+				Arrays.sort(ids);
+				for (int i = start; i < Math.min(end, ids.length); i++) {
+					page.add(contacts.get(ids[ids.length - 1 - i]));
+				}
+				rows.read = rows.scanned + page.size();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return page;
+	}
+
+	/**
+	 * @return the amount of customers matching a query
+	 */
+	int count(CustomerQuery query, Rows rows) {
+		lockRead();
+		try {
+			return matchingIds(query, plan(query, Integer.MAX_VALUE), rows).length;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the plan {@link #find} would use for a query right now
+	 */
+	String explain(CustomerQuery query, int wanted) {
+		lockRead();
+		try {
+			return plan(query, wanted).toString();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * A way to find the candidates for a query, each of which is then checked
+	 * against the whole query.
+	 */
+	private static final class QueryPlan {
+
+		private final String path;
+		private final int estimate;
+		// passes candidate ids to the predicate until it returns false
+		private final Consumer<LongPredicate> candidates;
+		private final boolean newestFirst;
+		private final List<QueryPlan> alternatives = new ArrayList<>();
+
+		QueryPlan(String path, int estimate, Consumer<LongPredicate> candidates, boolean newestFirst) {
+			this.path = path;
+			this.estimate = estimate;
+			this.candidates = candidates;
+			this.newestFirst = newestFirst;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder explanation = new StringBuilder(path).append(" (~").append(estimate)
+					.append(" candidates)");
+			for (QueryPlan alternative : alternatives) {
+				explanation.append(alternatives.get(0) == alternative ? ", rejected " : ", ")
+						.append(alternative.path).append(" (~").append(alternative.estimate).append(")");
+			}
+			return explanation.toString();
+		}
+	}
+
+	/**
+	 * Picks the access path with the fewest candidates. Callers hold the read
+	 * lock.
+	 *
+	 * @param wanted
+	 *            the amount of matches needed, counted from the newest
+	 */
+	private QueryPlan plan(CustomerQuery query, int wanted) {
+		List<QueryPlan> paths = new ArrayList<>();
+		if (query.getCity() != null) {
+			LongHashSet ids = cityIndex.get(query.getCity());
+			paths.add(new QueryPlan("hash index on city", ids.size(), action -> ids.forEach(action::test), false));
+		}
+		if (query.getPostalCode() != null) {
+			LongHashSet ids = postalCodeIndex.get(query.getPostalCode());
+			paths.add(new QueryPlan("hash index on postalCode", ids.size(), action -> ids.forEach(action::test),
+					false));
+		}
+		if (query.hasBirthDateRange()) {
+			SortedIndex<?> byBirthDate = sortColumns.get("birthDate").index;
+			// null birth dates sort first with the smallest prefix
+			int from = byBirthDate.position(
+					query.getBornFrom() == null ? Long.MIN_VALUE + 1 : query.getBornFrom().toEpochDay());
+			int to = query.getBornTo() == null ? byBirthDate.size()
+					: byBirthDate.position(query.getBornTo().toEpochDay() + 1);
+			paths.add(new QueryPlan("range index on birthDate", Math.max(to - from, 0),
+					action -> byBirthDate.forEach(from, to, false, action::test), false));
+		}
+		// email has no index of its own, a trigram index over it would take
+		// more memory than all other indexes together
+		if (!CustomerQuery.isEmpty(query.getName())) {
+			String name = query.getName();
+			paths.add(new QueryPlan("trigram index on name", searchIndex.estimate(name), action -> {
+				for (long id : matching(name)) {
+					if (!action.test(id)) {
+						return;
+					}
+				}
+			}, false));
+		}
+		int total = contacts.size();
+		int fewest = total;
+		for (QueryPlan path : paths) {
+			fewest = Math.min(fewest, path.estimate);
+		}
+		// the scan walks newest first and stops after the wanted matches; the
+		// best index estimate stands in for the amount of matches, so for a
+		// first page of a broad query it beats collecting all candidates
+		SortedIndex<?> byId = sortColumns.get(CustomerService.ID_PROPERTY).index;
+		int scanned = (int) Math.min(total, (long) wanted * total / Math.max(fewest, 1));
+		paths.add(0, new QueryPlan("scan", scanned, action -> byId.forEach(true, action), true));
+		QueryPlan best = paths.get(0);
+		for (QueryPlan path : paths) {
+			if (path.estimate < best.estimate) {
+				best = path;
+			}
+		}
+		for (QueryPlan path : paths) {
+			if (path != best) {
+				best.alternatives.add(path);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the ids of the candidates of the plan that match the query, in
+	 *         no particular order
+	 */
+	private long[] matchingIds(CustomerQuery query, QueryPlan plan, Rows rows) {
+		long[][] ids = { new long[16] };
+		int[] count = { 0 };
+		plan.candidates.accept(id -> {
+			rows.scanned++;
+			if (query.matches(contacts.get(id))) {
+				if (count[0] == ids[0].length) {
+					ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+				}
+				ids[0][count[0]++] = id;
+			}
+			return true;
+		});
+		return Arrays.copyOf(ids[0], count[0]);
+	}
+
+	int size() {
+		return contacts.size();
+	}
+
+	/**
+	 * Adds the customers per city of this shard to the given counts.
+	 *
+	 * @see CustomerService#countByCity()
+	 */
+	void countByCity(Map<String, Integer> counts) {
+		lockRead();
+		try {
+			aggregates.addCitiesTo(counts);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see CustomerService#countBornBetween(LocalDate, LocalDate)
+	 */
+	int countBornBetween(LocalDate from, LocalDate to) {
+		lockRead();
+		try {
+			return aggregates.countBornBetween(from, to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	int countWithoutBirthDate() {
+		lockRead();
+		try {
+			return aggregates.countWithoutBirthDate();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes customers with one lock acquisition and one log flush.
+	 *
+	 * @return the changes made
+	 */
+	List<ChangeEvent<Customer>> deleteAll(Collection<Long> ids) {
+		long sequence = 0;
+		List<ChangeEvent<Customer>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Long id : ids) {
+				sequence = Math.max(sequence, remove(id, changes));
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Stores prepared copies with one lock acquisition and one log flush.
+	 *
+	 * @return the changes made
+	 */
+	List<ChangeEvent<Customer>> saveAll(List<Customer> copies) {
+		long sequence = 0;
+		List<ChangeEvent<Customer>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Customer copy : copies) {
+				sequence = store(copy, changes);
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Queues a prepared copy to save or a customer to delete on the writer
+	 * thread of this shard.
+	 */
+	CompletableFuture<Customer> submit(Customer entity, boolean delete) {
+		return writer.submit(entity, delete);
+	}
+
+	/**
+	 * Applies a batch of queued writes, called by the writer thread. A write
+	 * that fails, e.g. as it cannot be logged, fails alone; the others are
+	 * applied, made durable and announced.
+	 */
+	private void applyWrites(List<WriteBatcher.Write<Customer>> writes) {
+		long startNanos = System.nanoTime();
+		long sequence = 0;
+		List<ChangeEvent<Customer>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (WriteBatcher.Write<Customer> write : writes) {
+				try {
+					sequence = Math.max(sequence,
+							write.delete ? remove(write.entity.getId(), changes) : store(write.entity, changes));
+				} catch (RuntimeException ex) {
+					// not applied, store() and remove() log first
+					write.done.completeExceptionally(ex);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		committed(sequence, changes);
+		// the copies of queued saves were made by saveAsync
+		writeBatchMetrics.record(startNanos, writes.size(), changes.size(),
+				writes.stream().filter(write -> !write.delete).count());
+	}
+
+	/**
+	 * Applies the writes queued so far, stops the writer thread and closes
+	 * the log.
+	 */
+	void close() {
+		writer.close();
+		persistence.close();
+	}
+
+	/**
+	 * Takes the read lock, recording the wait if a writer holds it or waits
+	 * for it. Uncontended acquisitions are not timed.
+	 */
+	private void lockRead() {
+		if (!lock.isWriteLocked() && !lock.hasQueuedThreads()) {
+			lock.readLock().lock();
+			return;
+		}
+		long startNanos = System.nanoTime();
+		lock.readLock().lock();
+		readLockWaitMetrics.record(startNanos);
+	}
+
+	/**
+	 * Takes the write lock, recording the wait if others hold it.
+	 */
+	private void lockWrite() {
+		if (!lock.isWriteLocked() && lock.getReadLockCount() == 0 && !lock.hasQueuedThreads()) {
+			lock.writeLock().lock();
+			return;
+		}
+		long startNanos = System.nanoTime();
+		lock.writeLock().lock();
+		writeLockWaitMetrics.record(startNanos);
+	}
+
+	/**
+	 * @return the stored customer with the id, or null if there is none
+	 */
+	Customer get(long id) {
+		lockRead();
+		try {
+			return contacts.get(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if a customer with the id is stored
+	 */
+	boolean contains(long id) {
+		lockRead();
+		try {
+			return contacts.contains(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finishes a write once the write lock is released: waits until it is
+	 * durable, then notifies the listeners. The bulk writes call it in a
+	 * finally block, so if one of their entries fails, those applied before
+	 * it are made durable and announced all the same.
+	 */
+	private void committed(long sequence, List<ChangeEvent<Customer>> changes) {
+		persistence.sync(sequence);
+		checkpointIfNeeded();
+		compactIfNeeded();
+		if (!changes.isEmpty()) {
+			listeners.accept(Collections.unmodifiableList(changes));
+		}
+	}
+
+	/**
+	 * Stores versions replicated from a leader with their ids and versions.
+	 *
+	 * @param replace
+	 *            true to store every version, as for the snapshot of a leader
+	 *            that numbered its versions anew, false to skip versions not
+	 *            newer than the stored one
+	 * @return the changes made
+	 * @see CustomerService#replicate(List, boolean)
+	 */
+	List<ChangeEvent<Customer>> replicate(List<Customer> versions, boolean replace) {
+		long sequence = 0;
+		List<ChangeEvent<Customer>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Customer version : versions) {
+				Customer stored = contacts.get(version.getId());
+				if (!replace && stored != null && stored.getVersion() >= version.getVersion()) {
+					continue;
+				}
+				sequence = persistence.logSave(version.freeze());
+				nextId.accumulateAndGet(version.getId() + 1, Math::max);
+				lastVersion.accumulateAndGet(version.getVersion(), Math::max);
+				Customer previous = put(version);
+				changes.add(new ChangeEvent<>(previous == null ? ChangeEvent.Type.ADDED : ChangeEvent.Type.UPDATED,
+						version, replace));
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Stores new instances handed over by the caller, which already have their
+	 * identifiers, as they are.
+	 *
+	 * @see CustomerService#importAll(List)
+	 */
+	void importAll(List<Customer> entries) {
+		long sequence = 0;
+		List<ChangeEvent<Customer>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			// cheaper than checking every cached filter for every customer
+			filterCache.clear();
+			for (Customer entry : entries) {
+				sequence = store(entry, changes);
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+	}
+
+	/**
+	 * @return every stored Customer in no particular order
+	 */
+	List<Customer> snapshot() {
+		lockRead();
+		try {
+			return contacts.values();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores a prepared copy as the latest version. Callers hold the write
+	 * lock, so versions of a customer are stamped in the order they are
+	 * applied. The version is logged before it is stored, so one that cannot
+	 * be logged leaves the shard as it was.
+	 *
+	 * @return the log sequence number of the change
+	 */
+	private long store(Customer copy, List<ChangeEvent<Customer>> changes) {
+		copy.setVersion(lastVersion.incrementAndGet());
+		long sequence = persistence.logSave(copy.freeze());
+		Customer previous = put(copy);
+		changes.add(new ChangeEvent<>(previous == null ? ChangeEvent.Type.ADDED : ChangeEvent.Type.UPDATED, copy));
+		return sequence;
+	}
+
+	/**
+	 * Removes a customer. Callers hold the write lock.
+	 *
+	 * @return the log sequence number of the change, 0 if there was none
+	 */
+	private long remove(Long id, List<ChangeEvent<Customer>> changes) {
+		if (!contacts.contains(id)) {
+			return 0;
+		}
+		long sequence = persistence.logDelete(id);
+		changes.add(new ChangeEvent<>(ChangeEvent.Type.REMOVED, drop(id)));
+		return sequence;
+	}
+
+	/**
+	 * Loads the persisted customers of this shard, if the service has a
+	 * durable backend.
+	 */
+	void recover() {
+		lockWrite();
+		try {
+			long storedNextId = persistence.recover(customer -> {
+				put(customer.freeze());
+				nextId.accumulateAndGet(customer.getId() + 1, Math::max);
+				lastVersion.accumulateAndGet(customer.getVersion(), Math::max);
+			}, this::drop);
+			nextId.accumulateAndGet(storedNextId, Math::max);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores a frozen customer and updates the indexes.
+	 *
+	 * @return the replaced version, null if there was none
+	 */
+	private Customer put(Customer customer) {
+		Customer previous = contacts.get(customer.getId());
+		if (previous != null) {
+			cityIndex.remove(previous.getCity(), previous.getId());
+			postalCodeIndex.remove(previous.getPostalCode(), previous.getId());
+			for (SortColumn<?> column : sortColumns.values()) {
+				column.remove(previous);
+			}
+			aggregates.remove(previous);
+		}
+		contacts.put(customer);
+		String previousText = searchIndex.text(customer.getId());
+		searchIndex.add(customer);
+		filterCache.invalidate(previousText, searchIndex.text(customer.getId()));
+		cityIndex.add(customer.getCity(), customer.getId());
+		postalCodeIndex.add(customer.getPostalCode(), customer.getId());
+		for (SortColumn<?> column : sortColumns.values()) {
+			column.add(customer);
+		}
+		aggregates.add(customer);
+		return previous;
+	}
+
+	private Customer drop(Long id) {
+		Customer removed = contacts.remove(id);
+		if (removed != null) {
+			removedSinceCompaction++;
+			filterCache.invalidate(searchIndex.text(id), null);
+			searchIndex.remove(id);
+			cityIndex.remove(removed.getCity(), id);
+			postalCodeIndex.remove(removed.getPostalCode(), id);
+			for (SortColumn<?> column : sortColumns.values()) {
+				column.remove(removed);
+			}
+			aggregates.remove(removed);
+		}
+		return removed;
+	}
+
+	private void compactIfNeeded() {
+		// read without the lock, a stale count only delays the compaction
+		if (Compactor.isDue(removedSinceCompaction, contacts.size())) {
+			Compactor.submit(compactionQueued, name, this::compact);
+		}
+	}
+
+	/**
+	 * Shrinks the store and the indexes after a large delete, then writes a
+	 * checkpoint without the removed customers.
+	 */
+	void compact() {
+		lockWrite();
+		try {
+			contacts.trim();
+			searchIndex.trim();
+			cityIndex.trim();
+			postalCodeIndex.trim();
+			removedSinceCompaction = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		checkpoint();
+	}
+
+	private void checkpointIfNeeded() {
+		if (persistence.needsCheckpoint()) {
+			checkpoint();
+		}
+	}
+
+	private void checkpoint() {
+		// the read lock keeps writers out while the log is rotated
+		lockRead();
+		try {
+			persistence.checkpoint(contacts.values(), nextId.get());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
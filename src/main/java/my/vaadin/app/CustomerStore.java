@@ -0,0 +1,126 @@
+package my.vaadin.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where {@link CustomerService} keeps the current version of every customer.
+ * The service calls the modifying methods only while it holds its write lock
+ * and the reading ones while it holds at least its read lock, except for
+ * {@link #size()}, which must be safe to call without a lock.
+ */
+interface CustomerStore {
+
+	/**
+	 * System property selecting the store: {@code heap} (the default) keeps
+	 * the frozen Customer objects, {@code columnar} keeps the customers in
+	 * primitive columns and {@code offheap} additionally keeps their strings
+	 * outside the Java heap. See {@link ColumnarCustomerStore} for the memory
+	 * use of each.
+	 */
+	String STORE_PROPERTY = "crm.customerStore";
+
+	/**
+	 * @return the stored customer, frozen, or null if there is none
+	 */
+	Customer get(long id);
+
+	/**
+	 * Stores a frozen customer, replacing the stored one with the same id.
+	 *
+	 * @return true if a customer with that id was replaced
+	 */
+	boolean put(Customer customer);
+
+	/**
+	 * @return the removed customer, frozen, or null if there was none
+	 */
+	Customer remove(long id);
+
+	int size();
+
+	/**
+	 * @return true if a customer with the id is stored, without reading it
+	 */
+	default boolean contains(long id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Gives back the memory still held for removed customers, e.g. after a
+	 * large delete. Called while the service holds its write lock.
+	 */
+	default void trim() {
+	}
+
+	/**
+	 * @return true if every read creates a new Customer object, false if the
+	 *         stored objects are returned
+	 */
+	default boolean materializes() {
+		return false;
+	}
+
+	/**
+	 * @return every stored customer, frozen, in no particular order
+	 */
+	List<Customer> values();
+
+	/**
+	 * @return the store selected by {@link #STORE_PROPERTY}
+	 */
+	static CustomerStore fromSystemProperties() {
+		String store = System.getProperty(STORE_PROPERTY, "heap");
+		switch (store) {
+		case "heap":
+			return new Heap();
+		case "columnar":
+			return new ColumnarCustomerStore(false);
+		case "offheap":
+			return new ColumnarCustomerStore(true);
+		default:
+			throw new IllegalArgumentException("Unknown " + STORE_PROPERTY + ": " + store);
+		}
+	}
+
+	/**
+	 * Keeps the frozen Customer objects themselves, so reads allocate nothing.
+	 */
+	class Heap implements CustomerStore {
+
+		// replaced by trim(), volatile for size()
+		private volatile ConcurrentHashMap<Long, Customer> contacts = new ConcurrentHashMap<>();
+
+		@Override
+		public Customer get(long id) {
+			return contacts.get(id);
+		}
+
+		@Override
+		public boolean put(Customer customer) {
+			return contacts.put(customer.getId(), customer) != null;
+		}
+
+		@Override
+		public Customer remove(long id) {
+			return contacts.remove(id);
+		}
+
+		@Override
+		public int size() {
+			return contacts.size();
+		}
+
+		@Override
+		public List<Customer> values() {
+			return new ArrayList<>(contacts.values());
+		}
+
+		@Override
+		public void trim() {
+			// a concurrent hash map never shrinks its table
+			contacts = new ConcurrentHashMap<>(contacts);
+		}
+	}
+}
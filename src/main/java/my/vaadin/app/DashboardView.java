@@ -0,0 +1,136 @@
+package my.vaadin.app;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.shared.ui.datefield.DateResolution;
+import com.vaadin.ui.DateField;
+import com.vaadin.ui.Grid;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Customers per city and age, and how the meetings of a month are spread over the customers.
+ * The numbers come from the counts the services keep up to date with every change, so
+ * refreshing them takes the same time however many customers and meetings there are.
+ */
+public class DashboardView extends VerticalLayout {
+
+    // the first age of every band, the last band is open ended
+    private static final int[] AGE_BANDS = { 0, 18, 25, 35, 45, 55, 65 };
+    // the meetings per customer listed one by one, more are summed up
+    private static final int LISTED_MEETINGS = 5;
+
+    private Label customers = new Label();
+    private Grid<Row> cityGrid = new Grid<>();
+    private Grid<Row> ageGrid = new Grid<>();
+    private DateField month = new DateField("Meetings in");
+    private Grid<Row> meetingGrid = new Grid<>();
+
+    private transient CustomerService customerService = CustomerService.getInstance();
+    private transient MeetingService meetingService = MeetingService.getInstance();
+    private Customer customer;
+
+    /**
+     * A caption and its count.
+     */
+    private static class Row implements Serializable {
+
+        private final String caption;
+        private final String count;
+
+        Row(String caption, Object count) {
+            this.caption = caption;
+            this.count = String.valueOf(count);
+        }
+    }
+
+    public DashboardView() {
+        month.setResolution(DateResolution.MONTH);
+        month.setDateFormat("MM.yyyy");
+        month.setValue(LocalDate.now());
+        month.addValueChangeListener(e -> refresh());
+
+        cityGrid.addColumn(row -> row.caption).setCaption("City");
+        cityGrid.addColumn(row -> row.count).setCaption("Customers");
+        ageGrid.addColumn(row -> row.caption).setCaption("Age");
+        ageGrid.addColumn(row -> row.count).setCaption("Customers");
+        meetingGrid.addColumn(row -> row.caption).setCaption("Meetings");
+        meetingGrid.addColumn(row -> row.count).setCaption("Count");
+
+        VerticalLayout meetings = new VerticalLayout(month, meetingGrid);
+        meetings.setMargin(false);
+        HorizontalLayout grids = new HorizontalLayout(cityGrid, ageGrid, meetings);
+        addComponents(customers, grids);
+        setMargin(false);
+    }
+
+    /**
+     * Shows the meetings of the customer in the month too, or stops to if null.
+     */
+    public void setCustomer(Customer customer) {
+        this.customer = customer;
+        refresh();
+    }
+
+    /**
+     * Reads the numbers again.
+     */
+    public void refresh() {
+        if (!isVisible()) {
+            return;
+        }
+        customers.setValue(customerService.count() + " customers");
+
+        List<Row> cities = new ArrayList<>();
+        for (Map.Entry<String, Integer> city : customerService.countByCity().entrySet()) {
+            cities.add(new Row(city.getKey() == null ? "(none)" : city.getKey(), city.getValue()));
+        }
+        cityGrid.setItems(cities);
+
+        LocalDate today = LocalDate.now();
+        List<Row> ages = new ArrayList<>();
+        for (int i = 0; i < AGE_BANDS.length; i++) {
+            if (i + 1 < AGE_BANDS.length) {
+                ages.add(new Row(AGE_BANDS[i] + " - " + (AGE_BANDS[i + 1] - 1),
+                        customerService.countAged(AGE_BANDS[i], AGE_BANDS[i + 1], today)));
+            } else {
+                ages.add(new Row(AGE_BANDS[i] + "+", customerService.countAged(AGE_BANDS[i], 200, today)));
+            }
+        }
+        ages.add(new Row("(unknown)", customerService.countWithoutBirthDate()));
+        ageGrid.setItems(ages);
+
+        YearMonth shown = YearMonth.from(month.getValue() == null ? today : month.getValue());
+        MonthlyMeetings monthly = meetingService.getMonthlyMeetings(shown);
+        List<Row> rows = new ArrayList<>();
+        rows.add(new Row("Meetings", monthly.getMeetings()));
+        rows.add(new Row("Customers with meetings", monthly.getCustomers()));
+        rows.add(new Row("Meetings per customer", String.format("%.2f", monthly.getMeetingsPerCustomer())));
+        int listed = 0;
+        for (int i = 1; i <= LISTED_MEETINGS; i++) {
+            rows.add(new Row("Customers with " + i, monthly.getCustomersWith(i)));
+            listed += monthly.getCustomersWith(i);
+        }
+        rows.add(new Row("Customers with more", monthly.getCustomers() - listed));
+        rows.add(new Row("Most of a customer", monthly.getMostMeetingsPerCustomer()));
+        if (customer != null && customer.getId() != null) {
+            rows.add(new Row(customer.getFirstName() + " " + customer.getLastName(),
+                    meetingService.count(customer.getId(), shown)));
+        }
+        meetingGrid.setItems(rows);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        customerService = CustomerService.getInstance();
+        meetingService = MeetingService.getInstance();
+    }
+}
@@ -0,0 +1,109 @@
+package my.vaadin.app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Compact binary encoding of an entity, used wherever entities leave the heap,
+ * e.g. the write-ahead log and snapshots of {@link WriteAheadLog}.
+ *
+ * @param <T>
+ *            the entity type
+ */
+interface EntityCodec<T> {
+
+	void write(T entity, DataOutput out) throws IOException;
+
+	/**
+	 * @return a new, not frozen entity
+	 */
+	T read(DataInput in) throws IOException;
+
+	/**
+	 * Writes the string as its length in UTF-8 bytes plus one, 0 for null,
+	 * followed by the bytes. Unlike {@link DataOutput#writeUTF(String)} this
+	 * takes strings of any length.
+	 */
+	static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			writeLength(out, 0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeLength(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		int length = readLength(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a non negative int in seven bits per byte, the lowest first, with
+	 * the highest bit set in all but the last byte.
+	 */
+	static void writeLength(DataOutput out, int length) throws IOException {
+		while ((length & ~0x7F) != 0) {
+			out.writeByte(length & 0x7F | 0x80);
+			length >>>= 7;
+		}
+		out.writeByte(length);
+	}
+
+	static int readLength(DataInput in) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (length < 0) {
+					break;
+				}
+				return length;
+			}
+		}
+		throw new StreamCorruptedException("Malformed length");
+	}
+
+	static void writeId(DataOutput out, Long id) throws IOException {
+		out.writeLong(id == null ? -1 : id);
+	}
+
+	static Long readId(DataInput in) throws IOException {
+		long id = in.readLong();
+		return id < 0 ? null : id;
+	}
+
+	static void writeDate(DataOutput out, LocalDate value) throws IOException {
+		out.writeLong(value == null ? Long.MIN_VALUE : value.toEpochDay());
+	}
+
+	static LocalDate readDate(DataInput in) throws IOException {
+		long epochDay = in.readLong();
+		return epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+	}
+
+	static void writeDateTime(DataOutput out, LocalDateTime value) throws IOException {
+		writeDate(out, value == null ? null : value.toLocalDate());
+		if (value != null) {
+			out.writeLong(value.toLocalTime().toNanoOfDay());
+		}
+	}
+
+	static LocalDateTime readDateTime(DataInput in) throws IOException {
+		LocalDate date = readDate(in);
+		return date == null ? null : LocalDateTime.of(date, LocalTime.ofNanoOfDay(in.readLong()));
+	}
+}
@@ -0,0 +1,221 @@
+package my.vaadin.app;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ids of the customers matching recent filters, so that the count and
+ * page queries of a grid, and the same filter typed in many sessions, search
+ * the index once.
+ * <p>
+ * Filters are kept in least recently used order and evicted once the cached
+ * ids exceed a bound. A filter that extends a cached one, e.g. "joh" after
+ * "jo", matches a subset of it, which {@link CustomerService} narrows down
+ * instead of searching the index again. A write invalidates only the filters
+ * whose result it changes: those contained in exactly one of the old and the
+ * new text of the customer. The filters are indexed by their first three
+ * characters, fewer for shorter ones, so a write only checks those starting
+ * with characters that occur in one of the texts, not every cached filter;
+ * its cost grows with the length of the texts, not the size of the cache.
+ * <p>
+ * Thread safe. The service inserts results and invalidates while it holds
+ * its lock, so an inserted result is never older than the writes that have
+ * already invalidated the cache.
+ */
+class FilterCache {
+
+	/**
+	 * System property with the most ids cached over all filters, 0 disables
+	 * the cache. Each id takes 8 bytes.
+	 */
+	static final String SIZE_PROPERTY = "crm.filterCacheSize";
+
+	// the weight of a cached filter beyond its ids, in ids
+	private static final int ENTRY_WEIGHT = 16;
+	// the characters of a filter its start is made of, see start(String, int, int)
+	private static final int START_LENGTH = 3;
+
+	private final long maxWeight;
+	// filter in lower case -> the matching ids in ascending order
+	private final LinkedHashMap<String, long[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// the start of a filter -> the cached filters with that start
+	private final HashMap<Long, Set<String>> byStart = new HashMap<>();
+	private long weight;
+	private long hits;
+	private long narrowedHits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * @param maxWeight
+	 *            the most ids to cache over all filters
+	 */
+	FilterCache(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @param shares
+	 *            the amount of caches sharing the size, one per shard
+	 * @return a cache of its share of the size given by
+	 *         {@link #SIZE_PROPERTY}, 4M ids by default
+	 */
+	static FilterCache fromSystemProperties(int shares) {
+		return new FilterCache(Long.getLong(SIZE_PROPERTY, 1 << 22) / shares);
+	}
+
+	/**
+	 * @param filter
+	 *            the filter in lower case
+	 * @return the ids matching the filter in ascending order, which must not be
+	 *         modified, or null if the filter is not cached
+	 */
+	synchronized long[] get(String filter) {
+		long[] ids = entries.get(filter);
+		if (ids != null) {
+			hits++;
+		}
+		return ids;
+	}
+
+	/**
+	 * @param filter
+	 *            the filter in lower case
+	 * @return the ids matching the longest cached beginning of the filter, a
+	 *         superset of those matching the filter, or null if no beginning
+	 *         is cached
+	 */
+	synchronized long[] getPrefix(String filter) {
+		for (int length = filter.length() - 1; length > 0; length--) {
+			long[] ids = entries.get(filter.substring(0, length));
+			if (ids != null) {
+				return ids;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Caches the result of a filter, evicting the least recently used ones if
+	 * the cache is full.
+	 *
+	 * @param filter
+	 *            a non empty filter in lower case
+	 * @param narrowed
+	 *            true if the result was narrowed down from that of a
+	 *            {@link #getPrefix(String)}, false if it was searched
+	 */
+	synchronized void put(String filter, long[] ids, boolean narrowed) {
+		if (narrowed) {
+			narrowedHits++;
+		} else {
+			misses++;
+		}
+		long entryWeight = ENTRY_WEIGHT + ids.length;
+		if (entryWeight > maxWeight) {
+			return;
+		}
+		long[] previous = entries.put(filter, ids);
+		if (previous != null) {
+			weight -= ENTRY_WEIGHT + previous.length;
+		} else {
+			byStart.computeIfAbsent(start(filter), start -> new HashSet<>()).add(filter);
+		}
+		weight += entryWeight;
+		Iterator<Map.Entry<String, long[]>> eldest = entries.entrySet().iterator();
+		while (weight > maxWeight) {
+			Map.Entry<String, long[]> entry = eldest.next();
+			weight -= ENTRY_WEIGHT + entry.getValue().length;
+			unindex(entry.getKey());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops the filters whose result a changed customer changes.
+	 *
+	 * @param oldText
+	 *            the text filters matched before, in lower case, or null for
+	 *            a new customer
+	 * @param newText
+	 *            the text filters match now, in lower case, or null for a
+	 *            removed customer
+	 */
+	synchronized void invalidate(String oldText, String newText) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		// a filter contained in a text starts at one of its characters
+		Set<String> candidates = new HashSet<>();
+		addCandidates(oldText, candidates);
+		addCandidates(newText, candidates);
+		for (String filter : candidates) {
+			if ((oldText != null && oldText.contains(filter)) != (newText != null && newText.contains(filter))) {
+				weight -= ENTRY_WEIGHT + entries.remove(filter).length;
+				unindex(filter);
+				invalidations++;
+			}
+		}
+	}
+
+	private void addCandidates(String text, Set<String> candidates) {
+		if (text == null) {
+			return;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			for (int length = 1; length <= START_LENGTH && i + length <= text.length(); length++) {
+				Set<String> filters = byStart.get(start(text, i, length));
+				if (filters != null) {
+					candidates.addAll(filters);
+				}
+			}
+		}
+	}
+
+	private void unindex(String filter) {
+		Long start = start(filter);
+		Set<String> filters = byStart.get(start);
+		filters.remove(filter);
+		if (filters.isEmpty()) {
+			byStart.remove(start);
+		}
+	}
+
+	private static Long start(String filter) {
+		return start(filter, 0, Math.min(filter.length(), START_LENGTH));
+	}
+
+	/**
+	 * @return the characters from the offset packed into a long, 16 bits
+	 *         each, with their amount above them
+	 */
+	private static Long start(String text, int offset, int length) {
+		long start = length;
+		for (int i = offset; i < offset + length; i++) {
+			start = start << 16 | text.charAt(i);
+		}
+		return start;
+	}
+
+	/**
+	 * Drops all filters, e.g. before a bulk import would invalidate them one
+	 * customer at a time.
+	 */
+	synchronized void clear() {
+		invalidations += entries.size();
+		entries.clear();
+		byStart.clear();
+		weight = 0;
+	}
+
+	synchronized CacheStats stats() {
+		return new CacheStats(hits, narrowedHits, misses, evictions, invalidations, entries.size(),
+				weight - (long) ENTRY_WEIGHT * entries.size());
+	}
+}
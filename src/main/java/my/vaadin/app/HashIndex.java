@@ -0,0 +1,59 @@
+package my.vaadin.app;
+
+import java.util.HashMap;
+
+/**
+ * An in memory index from the exact value of a field to the ids of the
+ * entities having it, for equality predicates. Null values are not indexed.
+ * <p>
+ * Not thread safe.
+ */
+class HashIndex {
+
+	private static final LongHashSet NONE = new LongHashSet();
+
+	// not final, trim() replaces it by a copy of the right size
+	private HashMap<String, LongHashSet> ids = new HashMap<>();
+
+	void add(String value, long id) {
+		if (value == null) {
+			return;
+		}
+		LongHashSet valueIds = ids.get(value);
+		if (valueIds == null) {
+			valueIds = new LongHashSet();
+			ids.put(value, valueIds);
+		}
+		valueIds.add(id);
+	}
+
+	void remove(String value, long id) {
+		LongHashSet valueIds = value == null ? null : ids.get(value);
+		if (valueIds != null) {
+			valueIds.remove(id);
+			if (valueIds.isEmpty()) {
+				ids.remove(value);
+			}
+		}
+	}
+
+	/**
+	 * Shrinks the id sets and the map to their current size, e.g. after most
+	 * entities were removed.
+	 */
+	void trim() {
+		for (LongHashSet valueIds : ids.values()) {
+			valueIds.trim();
+		}
+		ids = new HashMap<>(ids);
+	}
+
+	/**
+	 * @return the ids of the entities with the value, which the caller must
+	 *         not modify
+	 */
+	LongHashSet get(String value) {
+		LongHashSet valueIds = ids.get(value);
+		return valueIds == null ? NONE : valueIds;
+	}
+}
@@ -0,0 +1,110 @@
+package my.vaadin.app;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Entity ids of time intervals ordered by start, for finding the intervals
+ * that overlap a window without looking at all of them.
+ * <p>
+ * An interval {@code [start, end)} overlaps the window {@code [from, to)} if
+ * it starts before {@code to} and ends after {@code from}. The intervals are
+ * kept in classes by duration, each a {@link SortedIndex} by start: the first
+ * class holds those up to {@value #SHORT_SECONDS} seconds, each further one
+ * those up to twice as long as the class before. One of a class overlapping
+ * the window starts at the earliest the longest of the class before
+ * {@code from}, so the overlapping ones are among the entries between these
+ * two positions. As the intervals of a class differ in duration by at most
+ * a factor of two, the entries that do not overlap start within half the
+ * longest duration before the window, whether there are a few multi-day
+ * meetings or many. A query thus takes O(log n) per class to find them, of
+ * which there are a few dozen at most.
+ * <p>
+ * Not thread safe.
+ */
+class IntervalIndex {
+
+	// a day; meetings are shorter, multi-day events rare
+	private static final long SHORT_SECONDS = 24 * 60 * 60;
+	// enough for any duration in seconds, see classOf(long)
+	private static final int CLASSES = 64;
+
+	// by duration class, created with its first interval
+	@SuppressWarnings("unchecked")
+	private final SortedIndex<Void>[] classes = new SortedIndex[CLASSES];
+	// the longest interval ever added to each class, so queries look back little
+	private final long[] longest = new long[CLASSES];
+
+	int size() {
+		int size = 0;
+		for (SortedIndex<Void> intervals : classes) {
+			if (intervals != null) {
+				size += intervals.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @param start
+	 *            the start of the interval in seconds, inclusive
+	 * @param end
+	 *            the end of the interval in seconds, exclusive
+	 */
+	void add(long start, long end, long id) {
+		long duration = end - start;
+		int durationClass = classOf(duration);
+		if (classes[durationClass] == null) {
+			classes[durationClass] = new SortedIndex<>((a, b) -> 0);
+		}
+		longest[durationClass] = Math.max(longest[durationClass], duration);
+		classes[durationClass].add(start, null, id);
+	}
+
+	/**
+	 * Removes an interval added with exactly this start and end.
+	 */
+	void remove(long start, long end, long id) {
+		SortedIndex<Void> intervals = classes[classOf(end - start)];
+		if (intervals != null) {
+			intervals.remove(start, null, id);
+		}
+	}
+
+	/**
+	 * Passes the id of every interval overlapping {@code [from, to)} to the
+	 * action, together with some that end before {@code from}, which the
+	 * caller has to skip. Shorter intervals come first, each class in start
+	 * order.
+	 */
+	void forEachCandidate(long from, long to, LongConsumer action) {
+		for (int i = 0; i < CLASSES; i++) {
+			SortedIndex<Void> intervals = classes[i];
+			if (intervals != null) {
+				intervals.forEach(intervals.position(from - longest[i]), intervals.position(to), false, action);
+			}
+		}
+	}
+
+	/**
+	 * Passes the id of every interval starting in {@code [from, to)} to the
+	 * action, shorter intervals first, each class in start order.
+	 */
+	void forEachStarting(long from, long to, LongConsumer action) {
+		for (SortedIndex<Void> intervals : classes) {
+			if (intervals != null) {
+				intervals.forEach(intervals.position(from), intervals.position(to), false, action);
+			}
+		}
+	}
+
+	/**
+	 * @return 0 for intervals up to a day, 1 for up to two days, 2 for up to
+	 *         four and so on
+	 */
+	private static int classOf(long duration) {
+		if (duration <= SHORT_SECONDS) {
+			return 0;
+		}
+		return Long.SIZE - Long.numberOfLeadingZeros((duration - 1) / SHORT_SECONDS);
+	}
+}
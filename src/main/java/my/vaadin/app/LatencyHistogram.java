@@ -0,0 +1,106 @@
+package my.vaadin.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds in buckets of logarithmic size, like
+ * HdrHistogram with about two significant digits: below 64 every value has a
+ * bucket of its own, above it each power of two is split into 32 buckets, so
+ * a percentile is off by at most 1/32 of its value. The buckets cover all
+ * positive longs in under 2000 counters.
+ * <p>
+ * Recording is one array increment without a lock; concurrent threads only
+ * meet on the same counter when they record similar durations. Reading while
+ * others record gives counts that may be off by the values in flight.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values below this have a bucket of their own
+	private static final int LINEAR = 2 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		// reading first keeps the common case free of a write
+		if (nanos > max.get()) {
+			max.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	/**
+	 * @return the recorded values
+	 */
+	long count() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile
+	 *            e.g. 0.99 for the 99th percentile
+	 * @return the largest value of the bucket holding the quantile, 0 if
+	 *         nothing was recorded
+	 */
+	long quantile(double quantile) {
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		max.set(0);
+	}
+
+	private static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		// the top bit is always set, the SUB_BUCKET_BITS below pick the bucket
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return LINEAR + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBound(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR) % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + subBucket) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,164 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A set of non negative longs in a single open addressing array, without the
+ * boxing and per entry objects of a {@code HashSet<Long>}. Used for the large
+ * id sets of the in memory indexes.
+ * <p>
+ * Not thread safe.
+ */
+@SuppressWarnings("serial")
+class LongHashSet implements Serializable {
+
+	private static final long EMPTY = -1;
+
+	private long[] table;
+	private int size;
+
+	LongHashSet() {
+		this(4);
+	}
+
+	LongHashSet(int expectedSize) {
+		table = new long[tableSizeFor(expectedSize)];
+		Arrays.fill(table, EMPTY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean contains(long value) {
+		int mask = table.length - 1;
+		for (int slot = slot(value, mask);; slot = (slot + 1) & mask) {
+			long current = table[slot];
+			if (current == value) {
+				return true;
+			}
+			if (current == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the value was not in the set yet
+	 */
+	boolean add(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Only non negative values are supported: " + value);
+		}
+		if ((size + 1) * 4L > table.length * 3L) {
+			resize(table.length * 2);
+		}
+		int mask = table.length - 1;
+		for (int slot = slot(value, mask);; slot = (slot + 1) & mask) {
+			long current = table[slot];
+			if (current == value) {
+				return false;
+			}
+			if (current == EMPTY) {
+				table[slot] = value;
+				size++;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the value was in the set
+	 */
+	boolean remove(long value) {
+		int mask = table.length - 1;
+		int slot = slot(value, mask);
+		while (table[slot] != value) {
+			if (table[slot] == EMPTY) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		// shift the following entries of the probe sequence back instead of
+		// leaving a tombstone
+		int gap = slot;
+		for (int next = (gap + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slot(table[next], mask);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				table[gap] = table[next];
+				gap = next;
+			}
+		}
+		table[gap] = EMPTY;
+		size--;
+		return true;
+	}
+
+	void forEach(LongConsumer action) {
+		for (long value : table) {
+			if (value != EMPTY) {
+				action.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * Shrinks the table to the current size, e.g. after most values were
+	 * removed; the table only grows otherwise.
+	 */
+	void trim() {
+		int length = tableSizeFor(size);
+		if (length < table.length) {
+			resize(length);
+		}
+	}
+
+	/**
+	 * @return the values in no particular order
+	 */
+	long[] toArray() {
+		long[] values = new long[size];
+		int count = 0;
+		for (long value : table) {
+			if (value != EMPTY) {
+				values[count++] = value;
+			}
+		}
+		return values;
+	}
+
+	private void resize(int newLength) {
+		long[] old = table;
+		table = new long[newLength];
+		Arrays.fill(table, EMPTY);
+		int mask = newLength - 1;
+		for (long value : old) {
+			if (value != EMPTY) {
+				int slot = slot(value, mask);
+				while (table[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = value;
+			}
+		}
+	}
+
+	private static int slot(long value, int mask) {
+		long hash = value * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int length = 4;
+		while (length * 3L < expectedSize * 4L + 4) {
+			length <<= 1;
+		}
+		return length;
+	}
+}
@@ -0,0 +1,162 @@
+package my.vaadin.app;
+
+import java.util.Arrays;
+
+/**
+ * A map from non negative longs to ints in two parallel open addressing
+ * arrays, without the boxing and per entry objects of a
+ * {@code HashMap<Long, Integer>}.
+ * <p>
+ * Not thread safe.
+ */
+class LongIntHashMap {
+
+	private static final long EMPTY = -1;
+
+	/**
+	 * Returned by {@link #get(long)} and {@link #remove(long)} for a missing
+	 * key.
+	 */
+	static final int NO_VALUE = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+
+	LongIntHashMap() {
+		this(4);
+	}
+
+	LongIntHashMap(int expectedSize) {
+		int length = tableSizeFor(expectedSize);
+		keys = new long[length];
+		values = new int[length];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value of the key, {@link #NO_VALUE} if there is none
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = slot(key, mask);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == key) {
+				return values[slot];
+			}
+			if (current == EMPTY) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * @return the previous value of the key, {@link #NO_VALUE} if there was
+	 *         none
+	 */
+	int put(long key, int value) {
+		if (key < 0) {
+			throw new IllegalArgumentException("Only non negative keys are supported: " + key);
+		}
+		if ((size + 1) * 4L > keys.length * 3L) {
+			resize(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		for (int slot = slot(key, mask);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			if (current == EMPTY) {
+				keys[slot] = key;
+				values[slot] = value;
+				size++;
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * @return the value the key had, {@link #NO_VALUE} if there was none
+	 */
+	int remove(long key) {
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) {
+				return NO_VALUE;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int removed = values[slot];
+		// same backward shift deletion as LongHashSet
+		int gap = slot;
+		for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slot(keys[next], mask);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		keys[gap] = EMPTY;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Shrinks the arrays to the current size, e.g. after most keys were
+	 * removed; the arrays only grow otherwise.
+	 */
+	void trim() {
+		int length = tableSizeFor(size);
+		if (length < keys.length) {
+			resize(length);
+		}
+	}
+
+	/**
+	 * @return the size of the arrays, for memory estimates
+	 */
+	int capacity() {
+		return keys.length;
+	}
+
+	private void resize(int newLength) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[newLength];
+		values = new int[newLength];
+		Arrays.fill(keys, EMPTY);
+		int mask = newLength - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(oldKeys[i], mask);
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int length = 4;
+		while (length * 3L < expectedSize * 4L + 4) {
+			length <<= 1;
+		}
+		return length;
+	}
+
+	private static int slot(long key, int mask) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
@@ -3,6 +3,11 @@ package my.vaadin.app;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 
+/**
+ * A meeting with a customer. The instances returned by {@link MeetingService}
+ * are frozen snapshots of a stored version and reject modification, use
+ * {@link #mutableCopy()} to edit one.
+ */
 public class Meeting implements Serializable, Cloneable {
 
     private Long id;
@@ -10,12 +15,15 @@ public class Meeting implements Serializable, Cloneable {
     private String location;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
+    private long version;
+    private boolean frozen;
 
     public Long getId() {
         return id;
     }
 
     public void setId(Long id) {
+        checkNotFrozen();
         this.id = id;
     }
 
@@ -24,6 +32,7 @@ public class Meeting implements Serializable, Cloneable {
     }
 
     public void setLocation(String location) {
+        checkNotFrozen();
         this.location = location;
     }
 
@@ -32,23 +41,72 @@ public class Meeting implements Serializable, Cloneable {
     }
 
     public void setStartTime(LocalDateTime startTime) {
+        checkNotFrozen();
         this.startTime = startTime;
     }
 
     public LocalDateTime getEndTime() { return endTime; }
 
     public void setEndTime(LocalDateTime endTime) {
+        checkNotFrozen();
         this.endTime = endTime;
     }
 
     public Long getCustomerId() { return customerId; }
 
-    public void setCustomerId(Long customerId) { this.customerId = customerId; }
+    public void setCustomerId(Long customerId) { checkNotFrozen(); this.customerId = customerId; }
 
     public boolean isPersisted() {
         return id != null;
     }
 
+    /**
+     * @return the version the service stamped on this meeting when it was
+     *         saved, 0 for a meeting that was never saved
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        checkNotFrozen();
+        this.version = version;
+    }
+
+    /**
+     * @return true if this is a read-only snapshot handed out by the service
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Makes this instance read-only, after which it can be shared between
+     * readers without copying.
+     */
+    Meeting freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * @return an editable copy of this meeting
+     */
+    public Meeting mutableCopy() {
+        try {
+            return clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException(
+                    "Meeting " + id + " is a read-only snapshot, edit a mutableCopy() instead");
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -65,8 +123,22 @@ public class Meeting implements Serializable, Cloneable {
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return id == null ? super.hashCode() : id.hashCode();
+    }
+
+    /**
+     * Serializes this meeting compactly, see {@link SerializedEntity}.
+     */
+    private Object writeReplace() {
+        return new SerializedEntity(this);
+    }
+
     @Override
     public Meeting clone() throws CloneNotSupportedException {
-        return (Meeting) super.clone();
+        Meeting copy = (Meeting) super.clone();
+        copy.frozen = false;
+        return copy;
     }
 }
@@ -0,0 +1,138 @@
+package my.vaadin.app;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The counts of the dashboard over the meetings of one shard: the meetings of
+ * every customer in every month, by start time, and per month how many
+ * customers have how many meetings in it. {@link MeetingShard} adds every
+ * version it stores and removes the version it replaces or drops, so a moved
+ * or rescheduled meeting leaves the counts of its old customer and month.
+ * All meetings of a customer are in the same shard, so the shards count
+ * disjoint customers.
+ * <p>
+ * Meetings without a customer or start time, or starting before
+ * {@link #FIRST_MONTH} or 4096 months after it, are not counted.
+ * <p>
+ * Guarded by the lock of the shard.
+ */
+class MeetingAggregates {
+
+	static final YearMonth FIRST_MONTH = YearMonth.of(1900, 1);
+
+	// the months of a customer in its keys: customerId * MONTHS + month
+	private static final int MONTHS = 1 << 12;
+
+	private final LongIntHashMap customerMonths = new LongIntHashMap();
+	private final HashMap<YearMonth, MonthCounts> months = new HashMap<>();
+
+	/**
+	 * The meetings of one month and the customers by their meetings in it.
+	 */
+	private static final class MonthCounts {
+
+		private int meetings;
+		private int customers;
+		// the customers with 1, 2, ... meetings at index 1, 2, ...
+		private int[] customersByMeetings = new int[8];
+
+		void move(int from, int to) {
+			if (from > 0) {
+				customersByMeetings[from]--;
+			} else {
+				customers++;
+			}
+			if (to > 0) {
+				if (to >= customersByMeetings.length) {
+					customersByMeetings = Arrays.copyOf(customersByMeetings, 2 * to);
+				}
+				customersByMeetings[to]++;
+			} else {
+				customers--;
+			}
+			meetings += to - from;
+		}
+	}
+
+	void add(Meeting meeting) {
+		long key = key(meeting);
+		if (key < 0) {
+			return;
+		}
+		int count = customerMonths.get(key);
+		if (count == LongIntHashMap.NO_VALUE) {
+			count = 0;
+		}
+		customerMonths.put(key, count + 1);
+		months.computeIfAbsent(YearMonth.from(meeting.getStartTime()), month -> new MonthCounts()).move(count,
+				count + 1);
+	}
+
+	void remove(Meeting meeting) {
+		long key = key(meeting);
+		if (key < 0) {
+			return;
+		}
+		int count = customerMonths.get(key);
+		if (count == 1) {
+			customerMonths.remove(key);
+		} else {
+			customerMonths.put(key, count - 1);
+		}
+		YearMonth month = YearMonth.from(meeting.getStartTime());
+		MonthCounts counts = months.get(month);
+		counts.move(count, count - 1);
+		if (counts.meetings == 0) {
+			months.remove(month);
+		}
+	}
+
+	/**
+	 * @return the meetings of the customer starting in the month
+	 */
+	int count(long customerId, YearMonth month) {
+		long key = key(customerId, month);
+		if (key < 0) {
+			return 0;
+		}
+		int count = customerMonths.get(key);
+		return count == LongIntHashMap.NO_VALUE ? 0 : count;
+	}
+
+	/**
+	 * Adds the counts of the month to those of the other shards.
+	 */
+	MonthlyMeetings addTo(MonthlyMeetings total) {
+		MonthCounts counts = months.get(total.getMonth());
+		return counts == null ? total : total.plus(counts.meetings, counts.customers, counts.customersByMeetings);
+	}
+
+	/**
+	 * Shrinks the map after large deletes.
+	 */
+	void trim() {
+		customerMonths.trim();
+	}
+
+	private static long key(Meeting meeting) {
+		if (meeting.getCustomerId() == null || meeting.getStartTime() == null) {
+			return -1;
+		}
+		return key(meeting.getCustomerId(), YearMonth.from(meeting.getStartTime()));
+	}
+
+	/**
+	 * @return the key of the customer and month, negative if they are not
+	 *         counted
+	 */
+	private static long key(long customerId, YearMonth month) {
+		long index = FIRST_MONTH.until(month, ChronoUnit.MONTHS);
+		if (customerId < 0 || index < 0 || index >= MONTHS || customerId > Long.MAX_VALUE / MONTHS - 1) {
+			return -1;
+		}
+		return customerId * MONTHS + index;
+	}
+}
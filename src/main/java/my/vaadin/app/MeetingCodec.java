@@ -0,0 +1,33 @@
+package my.vaadin.app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of {@link Meeting}.
+ */
+class MeetingCodec implements EntityCodec<Meeting> {
+
+	@Override
+	public void write(Meeting meeting, DataOutput out) throws IOException {
+		EntityCodec.writeId(out, meeting.getId());
+		out.writeLong(meeting.getVersion());
+		EntityCodec.writeId(out, meeting.getCustomerId());
+		EntityCodec.writeString(out, meeting.getLocation());
+		EntityCodec.writeDateTime(out, meeting.getStartTime());
+		EntityCodec.writeDateTime(out, meeting.getEndTime());
+	}
+
+	@Override
+	public Meeting read(DataInput in) throws IOException {
+		Meeting meeting = new Meeting();
+		meeting.setId(EntityCodec.readId(in));
+		meeting.setVersion(in.readLong());
+		meeting.setCustomerId(EntityCodec.readId(in));
+		meeting.setLocation(EntityCodec.readString(in));
+		meeting.setStartTime(EntityCodec.readDateTime(in));
+		meeting.setEndTime(EntityCodec.readDateTime(in));
+		return meeting;
+	}
+}
@@ -0,0 +1,28 @@
+package my.vaadin.app;
+
+import java.util.List;
+
+/**
+ * Thrown when a saved Meeting overlaps others at its location while
+ * {@link MeetingService#setRejectConflicts(boolean)} is on.
+ */
+@SuppressWarnings("serial")
+public class MeetingConflictException extends RuntimeException {
+
+	private final List<Meeting> conflicts;
+
+	MeetingConflictException(Meeting meeting, List<Meeting> conflicts) {
+		super(meeting.getLocation() + " is taken from " + conflicts.get(0).getStartTime() + " to "
+				+ conflicts.get(0).getEndTime()
+				+ (conflicts.size() > 1 ? " and by " + (conflicts.size() - 1) + " more meetings" : ""));
+		this.conflicts = conflicts;
+	}
+
+	/**
+	 * @return frozen snapshots of the meetings overlapping the rejected one,
+	 *         the earliest start time first
+	 */
+	public List<Meeting> getConflicts() {
+		return conflicts;
+	}
+}
@@ -0,0 +1,37 @@
+package my.vaadin.app;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * CSV columns of {@link Meeting}.
+ */
+class MeetingCsvFormat implements CsvFormat<Meeting> {
+
+	@Override
+	public String[] header() {
+		return new String[] { "id", "customerId", "location", "startTime", "endTime" };
+	}
+
+	@Override
+	public String[] format(Meeting meeting) {
+		return new String[] { CsvFormat.toString(meeting.getId()), CsvFormat.toString(meeting.getCustomerId()),
+				meeting.getLocation(), CsvFormat.toString(meeting.getStartTime()),
+				CsvFormat.toString(meeting.getEndTime()) };
+	}
+
+	@Override
+	public Meeting parse(List<String> fields) {
+		Meeting meeting = new Meeting();
+		String id = CsvFormat.emptyToNull(fields.get(0));
+		meeting.setId(id == null ? null : Long.valueOf(id));
+		String customerId = CsvFormat.emptyToNull(fields.get(1));
+		meeting.setCustomerId(customerId == null ? null : Long.valueOf(customerId));
+		meeting.setLocation(CsvFormat.emptyToNull(fields.get(2)));
+		String startTime = CsvFormat.emptyToNull(fields.get(3));
+		meeting.setStartTime(startTime == null ? null : LocalDateTime.parse(startTime));
+		String endTime = CsvFormat.emptyToNull(fields.get(4));
+		meeting.setEndTime(endTime == null ? null : LocalDateTime.parse(endTime));
+		return meeting;
+	}
+}
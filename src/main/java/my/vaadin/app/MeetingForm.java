@@ -5,6 +5,11 @@ import com.vaadin.event.ShortcutAction.KeyCode;
 import com.vaadin.ui.*;
 import com.vaadin.ui.themes.ValoTheme;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 public class MeetingForm extends FormLayout {
 
     private TextField location = new TextField("Location");
@@ -14,7 +19,7 @@ public class MeetingForm extends FormLayout {
     private Button save = new Button("Save");
     private Button delete = new Button("Delete");
 
-    private MeetingService service = MeetingService.getInstance();
+    private transient MeetingService service = MeetingService.getInstance();
     private Meeting meeting;
     private MyUI myUI;
     private Binder<Meeting> binder = new Binder<>(Meeting.class);
@@ -38,26 +43,44 @@ public class MeetingForm extends FormLayout {
     }
 
     public void setMeeting(Meeting meeting) {
-        this.meeting = meeting;
-        binder.setBean(meeting);
+        // rows from the service are read-only snapshots, edit a copy of them
+        this.meeting = meeting.mutableCopy();
+        binder.setBean(this.meeting);
 
         // Show delete button for only customers already in the database
-        delete.setVisible(meeting.isPersisted());
+        delete.setVisible(this.meeting.isPersisted() && !service.isReadOnly());
+        save.setVisible(!service.isReadOnly());
         setVisible(true);
         location.selectAll();
     }
 
     private void delete() {
-        Long customerId = meeting.getCustomerId();
-        service.delete(meeting);
-        myUI.updateMeetingList(customerId);
-        setVisible(false);
+        finish(service.deleteAsync(meeting), "Deleting failed");
     }
 
     private void save() {
-        service.save(meeting);
-        myUI.updateMeetingList(meeting.getCustomerId());
-        setVisible(false);
+        // queued so that concurrent sessions share one lock acquisition and log flush
+        finish(service.saveAsync(meeting), "Saving failed");
+    }
+
+    private void finish(CompletableFuture<Meeting> write, String failed) {
+        // the session stays unlocked while the write waits for the disk
+        Meeting written = meeting;
+        AsyncQueries.whenDone(getUI(), write, (result, failure) -> {
+            Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            if (cause instanceof MeetingConflictException) {
+                // keep the form open so the time or location can be changed
+                Notification.show(cause.getMessage(), Notification.Type.WARNING_MESSAGE);
+            } else if (cause != null) {
+                Notification.show(failed, String.valueOf(cause.getMessage()), Notification.Type.ERROR_MESSAGE);
+            } else if (meeting == written) {
+                setVisible(false);
+            }
+        });
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        service = MeetingService.getInstance();
+    }
 }
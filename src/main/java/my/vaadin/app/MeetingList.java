@@ -0,0 +1,77 @@
+package my.vaadin.app;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * The meetings the meeting grid of a session shows. It is a plain list of
+ * them, except that it is serialized as their ids only: the meetings are
+ * stored by {@link MeetingService} anyway, so deserializing reads them from
+ * there again, in their current version, and leaves out those deleted in the
+ * meantime.
+ */
+@SuppressWarnings("serial")
+final class MeetingList extends AbstractList<Meeting> implements RandomAccess, Serializable {
+
+	private transient ArrayList<Meeting> meetings = new ArrayList<>();
+
+	@Override
+	public Meeting get(int index) {
+		return meetings.get(index);
+	}
+
+	@Override
+	public int size() {
+		return meetings.size();
+	}
+
+	@Override
+	public Meeting set(int index, Meeting meeting) {
+		return meetings.set(index, meeting);
+	}
+
+	@Override
+	public void add(int index, Meeting meeting) {
+		meetings.add(index, meeting);
+		modCount++;
+	}
+
+	@Override
+	public Meeting remove(int index) {
+		modCount++;
+		return meetings.remove(index);
+	}
+
+	@Override
+	public void clear() {
+		meetings.clear();
+		modCount++;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(meetings.size());
+		for (Meeting meeting : meetings) {
+			EntityCodec.writeId(out, meeting.getId());
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		MeetingService service = MeetingService.getInstance();
+		int size = in.readInt();
+		meetings = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Long id = EntityCodec.readId(in);
+			Meeting meeting = id == null ? null : service.get(id);
+			if (meeting != null) {
+				meetings.add(meeting);
+			}
+		}
+	}
+}
@@ -1,8 +1,19 @@
 package my.vaadin.app;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.*;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,87 +21,766 @@ import java.util.logging.Logger;
  * An in memory dummy "database" for the example purposes. In a typical Java app
  * this class would be replaced by e.g. EJB or a Spring based service class.
  * <p>
+ * The meetings are split into {@link MeetingShard shards} by the id of their
+ * customer, the same way {@link CustomerService} splits the customers, so the
+ * meetings of a customer are found on a single shard. Time range queries run
+ * on all shards in parallel and merge their results.
+ * <p>
+ * The meetings of a deleted customer are deleted with it, see
+ * {@link #cascadeDeletesOf(CustomerService)}.
+ * <p>
  * In demos/tutorials/examples, get a reference to this service class with
  * {@link MeetingService#getInstance()}.
  */
-public class MeetingService {
+public class MeetingService implements AutoCloseable {
+
+	/**
+	 * System property that turns on {@link #setRejectConflicts(boolean)} from
+	 * the start, e.g. {@code -Dcrm.rejectMeetingConflicts=true}.
+	 */
+	public static final String REJECT_CONFLICTS_PROPERTY = "crm.rejectMeetingConflicts";
 
-	private static MeetingService instance;
 	private static final Logger LOGGER = Logger.getLogger(MeetingService.class.getName());
 
-	private final HashMap<Long, Meeting> meetings = new HashMap<>();
-	private long nextId = 0;
+	private final MeetingShard[] shards;
+	// the queries of the shards
+	private final ExecutorService queries;
+	private final AtomicLong nextId = new AtomicLong();
+	private final AtomicLong lastVersion = new AtomicLong();
+	private final CopyOnWriteArrayList<ChangeListener<Meeting>> listeners = new CopyOnWriteArrayList<>();
+	private final ServiceMetrics metrics = new ServiceMetrics("MeetingService", "findAll", "findByTime", "save",
+			"delete", "writeBatch", "readLockWait", "writeLockWait");
+	private final OperationMetrics findAllMetrics = metrics.get("findAll");
+	private final OperationMetrics findByTimeMetrics = metrics.get("findByTime");
+	private final OperationMetrics saveMetrics = metrics.get("save");
+	private final OperationMetrics deleteMetrics = metrics.get("delete");
+	private volatile boolean rejectConflicts = Boolean.getBoolean(REJECT_CONFLICTS_PROPERTY);
+	private volatile boolean readOnly;
+	// customers removed since the last sweep for orphaned meetings
+	private final AtomicInteger removedCustomers = new AtomicInteger();
+	private final AtomicBoolean sweepQueued = new AtomicBoolean();
+	// a meeting may conflict with meetings on every shard, so checked saves
+	// are serialized on this
+	private final MeetingShard.Conflicts conflicts = new MeetingShard.Conflicts() {
+
+		@Override
+		public boolean rejected() {
+			return rejectConflicts;
+		}
+
+		@Override
+		public MeetingConflictException check(Meeting meeting) {
+			List<Meeting> found = findConflicts(meeting);
+			return found.isEmpty() ? null : new MeetingConflictException(meeting, found);
+		}
+	};
+
+	/**
+	 * Creates an empty instance of its own with a single shard, for
+	 * benchmarks and tools; the application uses {@link #getInstance()}.
+	 */
+	MeetingService(PersistenceBackend<Meeting> persistence) {
+		this(1, shard -> persistence);
+	}
 
-	private MeetingService() {
+	/**
+	 * @param shardCount
+	 *            the amount of shards
+	 * @param persistence
+	 *            the backend of each shard
+	 */
+	MeetingService(int shardCount, IntFunction<PersistenceBackend<Meeting>> persistence) {
+		queries = Shards.executor("meeting-query", shardCount);
+		shards = new MeetingShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new MeetingShard(Shards.name("meeting-writer", i, shardCount), persistence.apply(i), nextId,
+					lastVersion, this::changed, conflicts, metrics);
+		}
 	}
 
 	/**
 	 * @return a reference to an example facade for Meeting objects.
 	 */
 	public static MeetingService getInstance() {
-		if (instance == null) {
-			instance = new MeetingService();
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Holds the shared instance, created with the first call of
+	 * {@link #getInstance()}. It needs the shared {@link CustomerService} to
+	 * delete the meetings of deleted customers, or on a follower to receive
+	 * the changes of the leader, so that is created first.
+	 */
+	private static class InstanceHolder {
+
+		private static final MeetingService INSTANCE = createInstance();
+
+		private static MeetingService createInstance() {
+			int shards = Shards.fromSystemProperties();
+			Shards.checkPersistedCount("meetings", shards);
+			MeetingService service = new MeetingService(shards,
+					shard -> ReplicationLeader.log(
+							PersistenceBackend.fromSystemProperties(Shards.name("meetings", shard, shards),
+									new MeetingCodec()),
+							ReplicationLeader.MEETING_SAVED, ReplicationLeader.MEETING_DELETED));
+			service.recover();
+			if (ReplicationFollower.isConfigured()) {
+				// the leader ships the meetings it deletes with a customer
+				ReplicationFollower.start(CustomerService.getInstance(), service);
+			} else {
+				service.cascadeDeletesOf(CustomerService.getInstance());
+			}
+			service.metrics.register();
+			return service;
 		}
-		return instance;
 	}
 
 	/**
-	 * @return all available Meeting objects for the given customer.
+	 * @return frozen snapshots of all available Meeting objects for the given
+	 *         customer, the latest start time first.
 	 */
+	public List<Meeting> findAll(Long customerId) {
+		long startNanos = System.nanoTime();
+		List<Meeting> found = shards[shardOf(customerId)].findAll(customerId);
+		findAllMetrics.record(startNanos, found.size(), found.size(), 0);
+		return found;
+	}
 
-	public synchronized List<Meeting> findAll(Long customerId) {
-		ArrayList<Meeting> arrayList = new ArrayList<>();
+	/**
+	 * Counts the meetings of a customer starting in a month, from counts kept
+	 * up to date with every change rather than by reading the meetings.
+	 *
+	 * @return the meetings of the customer starting in the month
+	 */
+	public int count(Long customerId, YearMonth month) {
+		return customerId == null ? 0 : shards[shardOf(customerId)].count(customerId, month);
+	}
 
-		for (Meeting meeting : meetings.values()) {
-			try {
-				if (customerId == meeting.getCustomerId()) {
-					arrayList.add(meeting.clone());
-				}
-			} catch (CloneNotSupportedException ex) {
-				Logger.getLogger(CustomerService.class.getName()).log(Level.SEVERE, null, ex);
+	/**
+	 * Counts the meetings starting in a month and how they are spread over
+	 * the customers, from counts kept up to date with every change: the time
+	 * taken depends on the amount of shards, not of meetings.
+	 */
+	public MonthlyMeetings getMonthlyMeetings(YearMonth month) {
+		MonthlyMeetings total = new MonthlyMeetings(month);
+		for (MeetingShard shard : shards) {
+			total = shard.addMonthlyMeetings(total);
+		}
+		return total;
+	}
+
+	/**
+	 * @return a frozen snapshot of the meeting with the id, or null if there
+	 *         is none
+	 */
+	Meeting get(long id) {
+		int shard = shardHolding(id);
+		return shard < 0 ? null : shards[shard].get(id);
+	}
+
+	/**
+	 * Finds the meetings taking place at some point of a window, e.g. the
+	 * visible part of a calendar. Meetings without a start or end time, or
+	 * ending before they start, are never found by time.
+	 *
+	 * @param from
+	 *            the start of the window, inclusive
+	 * @param to
+	 *            the end of the window, exclusive
+	 * @return frozen snapshots of the meetings ending after {@code from} and
+	 *         starting before {@code to}, the earliest start time first
+	 */
+	public List<Meeting> findOverlapping(LocalDateTime from, LocalDateTime to) {
+		long startNanos = System.nanoTime();
+		long[][] scanned = new long[shards.length][1];
+		List<Meeting> found = merge(
+				Shards.scatter(queries, shards.length, i -> shards[i].findOverlapping(from, to, scanned[i])));
+		findByTimeMetrics.record(startNanos, sum(scanned), found.size(), 0);
+		return found;
+	}
+
+	/**
+	 * @param from
+	 *            the earliest start time, inclusive
+	 * @param to
+	 *            the latest start time, exclusive
+	 * @return frozen snapshots of the meetings starting in the window, the
+	 *         earliest start time first
+	 */
+	public List<Meeting> findStartingBetween(LocalDateTime from, LocalDateTime to) {
+		long startNanos = System.nanoTime();
+		List<Meeting> found = merge(Shards.scatter(queries, shards.length, i -> shards[i].findStartingBetween(from, to)));
+		findByTimeMetrics.record(startNanos, found.size(), found.size(), 0);
+		return found;
+	}
+
+	/**
+	 * @return frozen snapshots of the other meetings at the location of the
+	 *         given one that overlap it, the earliest start time first; none
+	 *         if it has no location or time
+	 */
+	public List<Meeting> findConflicts(Meeting meeting) {
+		// cheap enough not to hand over to other threads, and called while
+		// checked saves are serialized
+		List<List<Meeting>> found = new ArrayList<>(shards.length);
+		for (MeetingShard shard : shards) {
+			found.add(shard.findConflicts(meeting));
+		}
+		return merge(found);
+	}
+
+	/**
+	 * Finds when a location is taken within a window. Overlapping and
+	 * adjoining meetings form one busy period.
+	 *
+	 * @return the busy periods, cut to the window, the earliest first
+	 */
+	public List<TimeSlot> findBusy(String location, LocalDateTime from, LocalDateTime to) {
+		List<TimeSlot> busy = new ArrayList<>();
+		LocalDateTime start = null;
+		LocalDateTime end = null;
+		for (Meeting meeting : findAtLocation(location, from, to)) {
+			if (end != null && meeting.getStartTime().isAfter(end)) {
+				busy.add(new TimeSlot(start, end));
+				start = null;
+			}
+			if (start == null) {
+				start = meeting.getStartTime().isBefore(from) ? from : meeting.getStartTime();
+				end = meeting.getEndTime();
+			} else if (meeting.getEndTime().isAfter(end)) {
+				end = meeting.getEndTime();
 			}
 		}
+		if (start != null) {
+			busy.add(new TimeSlot(start, end.isAfter(to) ? to : end));
+		}
+		return busy;
+	}
 
-		Collections.sort(arrayList, new Comparator<Meeting>() {
+	/**
+	 * Finds when a location is free within a window, the gaps between the
+	 * periods of {@link #findBusy(String, LocalDateTime, LocalDateTime)}.
+	 *
+	 * @return the free periods, the earliest first
+	 */
+	public List<TimeSlot> findFree(String location, LocalDateTime from, LocalDateTime to) {
+		List<TimeSlot> free = new ArrayList<>();
+		LocalDateTime start = from;
+		for (TimeSlot busy : findBusy(location, from, to)) {
+			if (busy.getStart().isAfter(start)) {
+				free.add(new TimeSlot(start, busy.getStart()));
+			}
+			start = busy.getEnd();
+		}
+		if (to.isAfter(start)) {
+			free.add(new TimeSlot(start, to));
+		}
+		return free;
+	}
+
+	private List<Meeting> findAtLocation(String location, LocalDateTime from, LocalDateTime to) {
+		long startNanos = System.nanoTime();
+		long[][] scanned = new long[shards.length][1];
+		List<Meeting> found = merge(
+				Shards.scatter(queries, shards.length, i -> shards[i].findAtLocation(location, from, to, scanned[i])));
+		findByTimeMetrics.record(startNanos, sum(scanned), found.size(), 0);
+		return found;
+	}
+
+	private static List<Meeting> merge(List<List<Meeting>> found) {
+		return Shards.merge(found, MeetingShard.EARLIEST_FIRST, 0, Integer.MAX_VALUE);
+	}
 
-			@Override
-			public int compare(Meeting o1, Meeting o2) {
-				return (int) (o2.getId() - o1.getId());
+	private static long sum(long[][] counts) {
+		long sum = 0;
+		for (long[] count : counts) {
+			sum += count[0];
+		}
+		return sum;
+	}
+
+	/**
+	 * Turns rejecting saves of meetings that overlap others at the same
+	 * location on or off. While on, {@link #save(Meeting)} and
+	 * {@link #saveAll(Collection)} throw and the future of
+	 * {@link #saveAsync(Meeting)} fails with a
+	 * {@link MeetingConflictException}. Bulk imports are not checked. Checked
+	 * saves are stored one at a time.
+	 */
+	public void setRejectConflicts(boolean rejectConflicts) {
+		this.rejectConflicts = rejectConflicts;
+	}
+
+	public boolean isRejectConflicts() {
+		return rejectConflicts;
+	}
+
+	/**
+	 * Deletes a Meeting from a system
+	 *
+	 * @param value
+	 *            the Meeting to be deleted
+	 */
+	public void delete(Meeting value) {
+		deleteAll(Collections.singletonList(value));
+	}
+
+	/**
+	 * Deletes Meetings from the system with one lock acquisition and one log
+	 * flush per shard.
+	 *
+	 * @param values
+	 *            the Meetings to be deleted
+	 */
+	public void deleteAll(Collection<Meeting> values) {
+		checkWritable();
+		long startNanos = System.nanoTime();
+		List<List<Long>> ids = byShard();
+		for (Meeting value : values) {
+			int shard = shardHolding(value.getId());
+			if (shard >= 0) {
+				ids.get(shard).add(value.getId());
+			}
+		}
+		int changes = 0;
+		for (int i = 0; i < shards.length; i++) {
+			if (!ids.get(i).isEmpty()) {
+				changes += shards[i].deleteAll(ids.get(i)).size();
+			}
+		}
+		deleteMetrics.record(startNanos, values.size(), changes, 0);
+	}
+
+	/**
+	 * Deletes all Meetings of customers, finding them through the index by
+	 * customer, with one lock acquisition and one log flush per shard.
+	 *
+	 * @param customerIds
+	 *            the ids of the customers
+	 */
+	public void deleteAllOf(Collection<Long> customerIds) {
+		checkWritable();
+		long startNanos = System.nanoTime();
+		List<List<Long>> ids = byShard();
+		for (Long customerId : customerIds) {
+			ids.get(shardOf(customerId)).add(customerId);
+		}
+		int changes = 0;
+		for (int i = 0; i < shards.length; i++) {
+			if (!ids.get(i).isEmpty()) {
+				changes += shards[i].deleteAllOf(ids.get(i)).size();
+			}
+		}
+		deleteMetrics.record(startNanos, customerIds.size(), changes, 0);
+	}
+
+	/**
+	 * Deletes the meetings of every customer removed from the customer
+	 * service from now on, and those of customers removed before.
+	 * <p>
+	 * The two services log to files of their own, so a delete is not atomic
+	 * across them: the customer is removed first and durably, then its
+	 * meetings, before {@link CustomerService#delete(Customer)} returns or
+	 * the future of {@link CustomerService#deleteAsync(Customer)} completes.
+	 * Meetings left behind by a crash in between, or saved for a customer
+	 * while it was deleted, have no customer; they are swept now and again
+	 * after every large delete.
+	 */
+	void cascadeDeletesOf(CustomerService customers) {
+		customers.addChangeListener(changes -> {
+			List<Long> removed = new ArrayList<>();
+			for (ChangeEvent<Customer> change : changes) {
+				if (change.getType() == ChangeEvent.Type.REMOVED) {
+					removed.add(change.getEntity().getId());
+				}
+			}
+			if (removed.isEmpty()) {
+				return;
+			}
+			deleteAllOf(removed);
+			if (Compactor.isDue(removedCustomers.addAndGet(removed.size()), (int) customers.count())) {
+				removedCustomers.set(0);
+				Compactor.submit(sweepQueued, "meetings of removed customers",
+						() -> removeOrphans(customers::contains));
 			}
 		});
-		return arrayList;
+		int orphans = removeOrphans(customers::contains);
+		if (orphans > 0) {
+			LOGGER.log(Level.INFO, "Deleted {0} meetings of removed customers", orphans);
+		}
 	}
 
 	/**
-	 * Deletes a Meeting from a system
+	 * Deletes the meetings whose customer does not exist. Meetings without a
+	 * customer are kept.
+	 *
+	 * @return the amount of meetings deleted
+	 */
+	int removeOrphans(LongPredicate customerExists) {
+		int removed = 0;
+		for (MeetingShard shard : shards) {
+			List<Long> orphaned = new ArrayList<>();
+			for (Long customerId : shard.customerIds()) {
+				if (customerId != null && !customerExists.test(customerId)) {
+					orphaned.add(customerId);
+				}
+			}
+			if (!orphaned.isEmpty()) {
+				removed += shard.deleteAllOf(orphaned).size();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Queues a Meeting for deletion together with the writes of other
+	 * threads.
 	 *
 	 * @param value
 	 *            the Meeting to be deleted
+	 * @return a future completed once the deletion is durable
 	 */
-	public synchronized void delete(Meeting value) {
-		meetings.remove(value.getId());
+	public CompletableFuture<Meeting> deleteAsync(Meeting value) {
+		checkWritable();
+		int shard = shardHolding(value.getId());
+		return shards[shard >= 0 ? shard : shardOf(value.getCustomerId())].submit(value, true);
 	}
 
 	/**
 	 * Persists or updates Meeting in the system. Also assigns an identifier
 	 * for new Meeting instances.
+	 * <p>
+	 * The given instance is not stored itself; a frozen copy of it becomes the
+	 * new version, so snapshots handed out earlier keep their old state.
 	 *
 	 * @param entry
 	 */
-	public synchronized void save(Meeting entry) {
+	public void save(Meeting entry) {
 		if (entry == null) {
 			LOGGER.log(Level.SEVERE,
 					"Meeting is null. Are you sure you have connected your form to the application as described in tutorial chapter 7?");
 			return;
 		}
-		if (entry.getId() == null) {
-			entry.setId(nextId++);
+		saveAll(Collections.singletonList(entry));
+	}
+
+	/**
+	 * Persists or updates Meetings with one lock acquisition and one log
+	 * flush per shard. Also assigns identifiers for new Meeting instances. A
+	 * Meeting moved to a customer of another shard is deleted from its old
+	 * shard first, so listeners see it removed and added.
+	 * <p>
+	 * If conflicts are rejected, the Meetings are saved one by one in order up
+	 * to the first one overlapping a saved Meeting, including those saved
+	 * before it in this call.
+	 *
+	 * @param entries
+	 *            the Meetings to be saved
+	 * @throws MeetingConflictException
+	 *             if a Meeting overlaps another at its location and conflicts
+	 *             are rejected
+	 */
+	public void saveAll(Collection<Meeting> entries) {
+		checkWritable();
+		long startNanos = System.nanoTime();
+		List<Meeting> copies = new ArrayList<>(entries.size());
+		for (Meeting entry : entries) {
+			copies.add(prepare(entry));
 		}
+		int[] changes = { 0 };
 		try {
-			entry = (Meeting) entry.clone();
-		} catch (Exception ex) {
-			throw new RuntimeException(ex);
+			store(copies, changes);
+		} finally {
+			saveMetrics.record(startNanos, 0, changes[0], copies.size());
+		}
+	}
+
+	/**
+	 * Stores prepared copies, see {@link #saveAll(Collection)}.
+	 *
+	 * @param changes
+	 *            counts the changes made
+	 */
+	private void store(List<Meeting> copies, int[] changes) {
+		if (rejectConflicts) {
+			for (Meeting copy : copies) {
+				synchronized (conflicts) {
+					MeetingConflictException conflict = conflicts.check(copy);
+					if (conflict != null) {
+						throw conflict;
+					}
+					changes[0] += removeMoved(Collections.singletonList(copy));
+					changes[0] += shards[shardOf(copy.getCustomerId())].saveAll(Collections.singletonList(copy))
+							.size();
+				}
+			}
+			return;
+		}
+		changes[0] += removeMoved(copies);
+		List<List<Meeting>> parts = byShard();
+		for (Meeting copy : copies) {
+			parts.get(shardOf(copy.getCustomerId())).add(copy);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (!parts.get(i).isEmpty()) {
+				changes[0] += shards[i].saveAll(parts.get(i)).size();
+			}
+		}
+	}
+
+	/**
+	 * Queues a Meeting for saving together with the writes of other threads
+	 * to its shard, which then share one lock acquisition and one log flush.
+	 * The identifier of a new Meeting is assigned right away. A Meeting moved
+	 * to a customer of another shard is saved right away instead.
+	 *
+	 * @param entry
+	 *            the Meeting to be saved
+	 * @return a future completed with the saved version once it is durable
+	 */
+	public CompletableFuture<Meeting> saveAsync(Meeting entry) {
+		checkWritable();
+		Meeting copy = prepare(entry);
+		int shard = shardOf(copy.getCustomerId());
+		int holding = shardHolding(copy.getId());
+		if (holding < 0 || holding == shard) {
+			return shards[shard].submit(copy, false);
+		}
+		CompletableFuture<Meeting> saved = new CompletableFuture<>();
+		try {
+			store(Collections.singletonList(copy), new int[1]);
+			saved.complete(copy);
+		} catch (RuntimeException ex) {
+			saved.completeExceptionally(ex);
+		}
+		return saved;
+	}
+
+	/**
+	 * Deletes the Meetings among the copies that are held by a shard other
+	 * than the one of their customer.
+	 *
+	 * @return the amount of meetings deleted
+	 */
+	private int removeMoved(List<Meeting> copies) {
+		if (shards.length == 1) {
+			return 0;
+		}
+		List<List<Long>> moved = byShard();
+		boolean any = false;
+		for (Meeting copy : copies) {
+			int holding = shardHolding(copy.getId());
+			if (holding >= 0 && holding != shardOf(copy.getCustomerId())) {
+				moved.get(holding).add(copy.getId());
+				any = true;
+			}
+		}
+		int removed = 0;
+		for (int i = 0; any && i < shards.length; i++) {
+			if (!moved.get(i).isEmpty()) {
+				removed += shards[i].deleteAll(moved.get(i)).size();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the latency and row counts of the operations of this service
+	 */
+	ServiceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers a listener notified of every change after it was applied and
+	 * made durable.
+	 */
+	public void addChangeListener(ChangeListener<Meeting> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeChangeListener(ChangeListener<Meeting> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Notifies the listeners of the durable changes of a shard.
+	 */
+	private void changed(List<ChangeEvent<Meeting>> changes) {
+		for (ChangeListener<Meeting> listener : listeners) {
+			try {
+				listener.changed(changes);
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "A change listener failed", ex);
+			}
+		}
+	}
+
+	/**
+	 * Bulk insert path for new instances handed over by the caller, e.g. rows
+	 * parsed by {@link CsvTransfer}. They are stored as they are instead of
+	 * copied and must not be used by the caller afterwards. Instances with an
+	 * identifier replace the stored Meeting with that identifier.
+	 */
+	void importAll(List<Meeting> entries) {
+		checkWritable();
+		List<List<Meeting>> parts = byShard();
+		for (Meeting entry : entries) {
+			if (entry.getId() == null) {
+				entry.setId(nextId.getAndIncrement());
+			} else {
+				nextId.accumulateAndGet(entry.getId() + 1, Math::max);
+			}
+			parts.get(shardOf(entry.getCustomerId())).add(entry);
+		}
+		removeMoved(entries);
+		Shards.scatter(queries, shards.length, i -> {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].importAll(parts.get(i));
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Applies meeting versions replicated from the leader, keeping their ids
+	 * and versions, without checking for conflicts.
+	 *
+	 * @param replace
+	 *            true to store every version, as for the snapshot of a
+	 *            restarted leader whose versions are not comparable to the
+	 *            stored ones, false to only replace older versions
+	 * @see ReplicationFollower
+	 */
+	void replicate(List<Meeting> versions, boolean replace) {
+		// the leader may split its shards differently
+		removeMoved(versions);
+		List<List<Meeting>> parts = byShard();
+		for (Meeting version : versions) {
+			parts.get(shardOf(version.getCustomerId())).add(version);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].replicate(parts.get(i), replace);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the meetings the leader deleted.
+	 *
+	 * @see ReplicationFollower
+	 */
+	void replicateDeletes(Collection<Long> ids) {
+		List<List<Long>> parts = byShard();
+		for (Long id : ids) {
+			int shard = shardHolding(id);
+			if (shard >= 0) {
+				parts.get(shard).add(id);
+			}
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (!parts.get(i).isEmpty()) {
+				shards[i].deleteAll(parts.get(i));
+			}
 		}
-		meetings.put(entry.getId(), entry);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return true if this service only applies the changes a follower
+	 *         replicates from its leader and rejects writes of its own
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Applies the writes queued so far, then stops the writer thread of every
+	 * shard and closes its log. Writes submitted afterwards fail, queries run
+	 * on the calling thread. For the instances benchmarks and tools create;
+	 * the shared one lives as long as the application.
+	 */
+	@Override
+	public void close() {
+		for (MeetingShard shard : shards) {
+			shard.close();
+		}
+		queries.shutdown();
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new IllegalStateException("Meetings are replicated from the leader, save them there");
+		}
+	}
+
+	/**
+	 * @return every stored Meeting in no particular order
+	 */
+	List<Meeting> snapshot() {
+		List<Meeting> meetings = new ArrayList<>();
+		for (MeetingShard shard : shards) {
+			meetings.addAll(shard.snapshot());
+		}
+		return meetings;
+	}
+
+	/**
+	 * @return the copy of the entry that becomes its next version
+	 */
+	private Meeting prepare(Meeting entry) {
+		if (entry.getId() == null) {
+			entry.setId(nextId.getAndIncrement());
+		}
+		return entry.mutableCopy();
+	}
+
+	/**
+	 * @return the shard of the meetings of a customer; meetings without a
+	 *         customer are kept on the first
+	 */
+	private int shardOf(Long customerId) {
+		return customerId == null ? 0 : Shards.of(customerId, shards.length);
+	}
+
+	/**
+	 * @return the shard holding the meeting with the id, or -1 if none does
+	 */
+	private int shardHolding(Long id) {
+		if (id == null) {
+			return -1;
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (shards[i].contains(id)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return an empty list for each shard
+	 */
+	private <T> List<List<T>> byShard() {
+		List<List<T>> parts = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			parts.add(new ArrayList<>());
+		}
+		return parts;
+	}
+
+	/**
+	 * Loads the persisted meetings of all shards, if the service has a
+	 * durable backend.
+	 */
+	private void recover() {
+		Shards.scatter(queries, shards.length, i -> {
+			shards[i].recover();
+			return null;
+		});
+	}
+}
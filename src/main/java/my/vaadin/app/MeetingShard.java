@@ -0,0 +1,674 @@
+package my.vaadin.app;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The meetings of the customers of one shard of {@link MeetingService} with
+ * their indexes, lock, log and writer thread. Ids and versions come from
+ * counters all shards of the service share.
+ */
+class MeetingShard {
+
+	// the default order of the meeting Grid
+	private static final Comparator<Meeting> LATEST_FIRST = Comparator
+			.comparing(Meeting::getStartTime, Comparator.nullsLast(Comparator.<LocalDateTime> reverseOrder()))
+			.thenComparing(Meeting::getId, Comparator.reverseOrder());
+	// the order of time range queries
+	static final Comparator<Meeting> EARLIEST_FIRST = Comparator.comparing(Meeting::getStartTime)
+			.thenComparing(Meeting::getId);
+
+	// replaced by compact(), volatile for contains()
+	private volatile ConcurrentHashMap<Long, Meeting> meetings = new ConcurrentHashMap<>();
+	// customerId -> that customer's meetings, latest start time first
+	private HashMap<Long, TreeSet<Meeting>> meetingsByCustomer = new HashMap<>();
+	// meetings with a start and a later end time by their time, all and per location
+	private final IntervalIndex timeIndex = new IntervalIndex();
+	private final HashMap<String, IntervalIndex> timeIndexByLocation = new HashMap<>();
+	private final MeetingAggregates aggregates = new MeetingAggregates();
+	private final AtomicLong nextId;
+	private final AtomicLong lastVersion;
+	// guards the maps and indexes above; the meeting lists and time queries of
+	// many sessions share the read lock, conflict checks and writes hold the
+	// write lock
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final PersistenceBackend<Meeting> persistence;
+	// notifies the listeners of the service
+	private final Consumer<List<ChangeEvent<Meeting>>> listeners;
+	private final Conflicts conflicts;
+	private final WriteBatcher<Meeting> writer;
+	private final OperationMetrics writeBatchMetrics;
+	private final OperationMetrics readLockWaitMetrics;
+	private final OperationMetrics writeLockWaitMetrics;
+	private final String name;
+	// meetings removed since the last compaction, guarded by the write lock
+	private int removedSinceCompaction;
+	private final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+	/**
+	 * How the service rejects meetings overlapping others at their location,
+	 * which may be on any shard.
+	 */
+	interface Conflicts {
+
+		/**
+		 * @return true if conflicting meetings are rejected
+		 */
+		boolean rejected();
+
+		/**
+		 * Called while holding the monitor of this object and no lock of a
+		 * shard. The monitor is held until the checked meeting is stored, so
+		 * two meetings checked at the same time cannot both get in.
+		 *
+		 * @return the exception rejecting the meeting, or null if it has no
+		 *         conflicts
+		 */
+		MeetingConflictException check(Meeting meeting);
+	}
+
+	/**
+	 * @param writerName
+	 *            the name of the writer thread
+	 * @param nextId
+	 *            the next id to assign, shared by all shards
+	 * @param lastVersion
+	 *            the last version stamped, shared by all shards
+	 * @param metrics
+	 *            the metrics of the service, with writeBatch, readLockWait and
+	 *            writeLockWait operations
+	 */
+	MeetingShard(String writerName, PersistenceBackend<Meeting> persistence, AtomicLong nextId,
+			AtomicLong lastVersion, Consumer<List<ChangeEvent<Meeting>>> listeners, Conflicts conflicts,
+			ServiceMetrics metrics) {
+		this.persistence = persistence;
+		this.nextId = nextId;
+		this.lastVersion = lastVersion;
+		this.listeners = listeners;
+		this.conflicts = conflicts;
+		this.name = writerName;
+		this.writer = new WriteBatcher<>(writerName, this::applyWrites, 1000);
+		this.writeBatchMetrics = metrics.get("writeBatch");
+		this.readLockWaitMetrics = metrics.get("readLockWait");
+		this.writeLockWaitMetrics = metrics.get("writeLockWait");
+	}
+
+	/**
+	 * @return frozen snapshots of the meetings of a customer of this shard,
+	 *         the latest start time first
+	 */
+	List<Meeting> findAll(Long customerId) {
+		lockRead();
+		try {
+			TreeSet<Meeting> customerMeetings = meetingsByCustomer.get(customerId);
+			return customerMeetings == null ? new ArrayList<>() : new ArrayList<>(customerMeetings);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see MeetingService#count(Long, YearMonth)
+	 */
+	int count(long customerId, YearMonth month) {
+		lockRead();
+		try {
+			return aggregates.count(customerId, month);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the counts of the customers of this shard to those of the others.
+	 *
+	 * @see MeetingService#getMonthlyMeetings(YearMonth)
+	 */
+	MonthlyMeetings addMonthlyMeetings(MonthlyMeetings total) {
+		lockRead();
+		try {
+			return aggregates.addTo(total);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param scanned
+	 *            counts the candidates looked at
+	 * @return the meetings overlapping the window, the earliest start time
+	 *         first
+	 * @see MeetingService#findOverlapping(LocalDateTime, LocalDateTime)
+	 */
+	List<Meeting> findOverlapping(LocalDateTime from, LocalDateTime to, long[] scanned) {
+		lockRead();
+		try {
+			return overlapping(timeIndex, seconds(from), seconds(to), null, scanned);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the meetings starting in the window, the earliest start time
+	 *         first
+	 */
+	List<Meeting> findStartingBetween(LocalDateTime from, LocalDateTime to) {
+		List<Meeting> found = new ArrayList<>();
+		lockRead();
+		try {
+			timeIndex.forEachStarting(seconds(from), seconds(to), id -> found.add(meetings.get(id)));
+		} finally {
+			lock.readLock().unlock();
+		}
+		found.sort(EARLIEST_FIRST);
+		return found;
+	}
+
+	/**
+	 * @return the other meetings of this shard at the location of the given
+	 *         one that overlap it, the earliest start time first
+	 */
+	List<Meeting> findConflicts(Meeting meeting) {
+		lockRead();
+		try {
+			IntervalIndex index = timeIndexByLocation.get(meeting.getLocation());
+			if (index == null || !hasTime(meeting)) {
+				return new ArrayList<>();
+			}
+			return overlapping(index, seconds(meeting.getStartTime()), seconds(meeting.getEndTime()),
+					meeting.getId(), new long[1]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the meetings at a location overlapping the window, the earliest
+	 *         start time first
+	 */
+	List<Meeting> findAtLocation(String location, LocalDateTime from, LocalDateTime to, long[] scanned) {
+		lockRead();
+		try {
+			IntervalIndex index = timeIndexByLocation.get(location);
+			return index == null ? new ArrayList<>() : overlapping(index, seconds(from), seconds(to), null, scanned);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the stored meeting with the id, or null if this shard holds
+	 *         none; safe to call without a lock
+	 */
+	Meeting get(long id) {
+		return meetings.get(id);
+	}
+
+	/**
+	 * @return true if this shard holds a meeting with the id; safe to call
+	 *         without a lock
+	 */
+	boolean contains(long id) {
+		return meetings.containsKey(id);
+	}
+
+	/**
+	 * Deletes meetings with one lock acquisition and one log flush.
+	 *
+	 * @return the changes made
+	 */
+	List<ChangeEvent<Meeting>> deleteAll(Collection<Long> ids) {
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Long id : ids) {
+				sequence = Math.max(sequence, remove(id, changes));
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Deletes the meetings of customers with one lock acquisition and one log
+	 * flush, finding them through the index by customer.
+	 *
+	 * @return the changes made
+	 */
+	List<ChangeEvent<Meeting>> deleteAllOf(Collection<Long> customerIds) {
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Long customerId : customerIds) {
+				TreeSet<Meeting> customerMeetings = meetingsByCustomer.get(customerId);
+				if (customerMeetings == null) {
+					continue;
+				}
+				for (Meeting meeting : new ArrayList<>(customerMeetings)) {
+					sequence = Math.max(sequence, remove(meeting.getId(), changes));
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * @return the ids of the customers of this shard that have meetings
+	 */
+	List<Long> customerIds() {
+		lockRead();
+		try {
+			return new ArrayList<>(meetingsByCustomer.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores prepared copies with one lock acquisition and one log flush,
+	 * without checking them for conflicts.
+	 *
+	 * @return the changes made
+	 */
+	List<ChangeEvent<Meeting>> saveAll(List<Meeting> copies) {
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Meeting copy : copies) {
+				sequence = store(copy, changes);
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Stores versions replicated from a leader with their ids and versions,
+	 * without checking for conflicts.
+	 *
+	 * @param replace
+	 *            true to store every version, as for the snapshot of a leader
+	 *            that numbered its versions anew, false to skip versions not
+	 *            newer than the stored one
+	 * @return the changes made
+	 * @see MeetingService#replicate(List, boolean)
+	 */
+	List<ChangeEvent<Meeting>> replicate(List<Meeting> versions, boolean replace) {
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Meeting version : versions) {
+				Meeting stored = meetings.get(version.getId());
+				if (!replace && stored != null && stored.getVersion() >= version.getVersion()) {
+					continue;
+				}
+				sequence = persistence.logSave(version.freeze());
+				nextId.accumulateAndGet(version.getId() + 1, Math::max);
+				lastVersion.accumulateAndGet(version.getVersion(), Math::max);
+				Meeting previous = put(version);
+				changes.add(new ChangeEvent<>(previous == null ? ChangeEvent.Type.ADDED : ChangeEvent.Type.UPDATED,
+						version, replace));
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Queues a prepared copy to save or a meeting to delete on the writer
+	 * thread of this shard.
+	 */
+	CompletableFuture<Meeting> submit(Meeting entity, boolean delete) {
+		return writer.submit(entity, delete);
+	}
+
+	/**
+	 * Applies a batch of queued writes, called by the writer thread. While
+	 * conflicts are rejected, every save is checked and stored on its own,
+	 * the log is still flushed once. A write that fails, e.g. as it cannot be
+	 * logged, fails alone; the others are applied, made durable and announced.
+	 */
+	private void applyWrites(List<WriteBatcher.Write<Meeting>> writes) {
+		long startNanos = System.nanoTime();
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		if (conflicts.rejected()) {
+			for (WriteBatcher.Write<Meeting> write : writes) {
+				synchronized (conflicts) {
+					MeetingConflictException conflict = write.delete ? null : conflicts.check(write.entity);
+					if (conflict != null) {
+						// fails this write alone, the others of the batch go on
+						write.done.completeExceptionally(conflict);
+						continue;
+					}
+					lockWrite();
+					try {
+						sequence = Math.max(sequence, apply(write, changes));
+					} finally {
+						lock.writeLock().unlock();
+					}
+				}
+			}
+		} else {
+			lockWrite();
+			try {
+				for (WriteBatcher.Write<Meeting> write : writes) {
+					sequence = Math.max(sequence, apply(write, changes));
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		committed(sequence, changes);
+		// the copies of queued saves were made by saveAsync
+		writeBatchMetrics.record(startNanos, writes.size(), changes.size(),
+				writes.stream().filter(write -> !write.delete).count());
+	}
+
+	/**
+	 * Applies a queued write, or fails its future if it cannot be applied.
+	 * Callers hold the write lock.
+	 *
+	 * @return the log sequence number of the change, 0 if there was none
+	 */
+	private long apply(WriteBatcher.Write<Meeting> write, List<ChangeEvent<Meeting>> changes) {
+		try {
+			return write.delete ? remove(write.entity.getId(), changes) : store(write.entity, changes);
+		} catch (RuntimeException ex) {
+			// not applied, store() and remove() log first
+			write.done.completeExceptionally(ex);
+			return 0;
+		}
+	}
+
+	/**
+	 * Applies the writes queued so far, stops the writer thread and closes
+	 * the log.
+	 */
+	void close() {
+		writer.close();
+		persistence.close();
+	}
+
+	/**
+	 * Takes the read lock, recording the wait if a writer holds it or waits
+	 * for it. Uncontended acquisitions are not timed.
+	 */
+	private void lockRead() {
+		if (!lock.isWriteLocked() && !lock.hasQueuedThreads()) {
+			lock.readLock().lock();
+			return;
+		}
+		long startNanos = System.nanoTime();
+		lock.readLock().lock();
+		readLockWaitMetrics.record(startNanos);
+	}
+
+	/**
+	 * Takes the write lock, recording the wait if others hold it.
+	 */
+	private void lockWrite() {
+		if (!lock.isWriteLocked() && lock.getReadLockCount() == 0 && !lock.hasQueuedThreads()) {
+			lock.writeLock().lock();
+			return;
+		}
+		long startNanos = System.nanoTime();
+		lock.writeLock().lock();
+		writeLockWaitMetrics.record(startNanos);
+	}
+
+	/**
+	 * Finishes a write once the write lock is released: waits until it is
+	 * durable, then notifies the listeners. The bulk writes call it in a
+	 * finally block, so if one of their entries fails, those applied before
+	 * it are made durable and announced all the same.
+	 */
+	private void committed(long sequence, List<ChangeEvent<Meeting>> changes) {
+		persistence.sync(sequence);
+		checkpointIfNeeded();
+		compactIfNeeded();
+		if (!changes.isEmpty()) {
+			listeners.accept(Collections.unmodifiableList(changes));
+		}
+	}
+
+	/**
+	 * Stores new instances handed over by the caller, which already have their
+	 * identifiers, as they are.
+	 *
+	 * @see MeetingService#importAll(List)
+	 */
+	void importAll(List<Meeting> entries) {
+		long sequence = 0;
+		List<ChangeEvent<Meeting>> changes = new ArrayList<>();
+		lockWrite();
+		try {
+			for (Meeting entry : entries) {
+				sequence = store(entry, changes);
+			}
+		} finally {
+			lock.writeLock().unlock();
+			committed(sequence, changes);
+		}
+	}
+
+	/**
+	 * @return every stored Meeting in no particular order
+	 */
+	List<Meeting> snapshot() {
+		lockRead();
+		try {
+			return new ArrayList<>(meetings.values());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Collects the meetings of an index overlapping {@code [from, to)}.
+	 * Callers hold the lock.
+	 *
+	 * @param exceptId
+	 *            the id of a meeting to leave out, or null
+	 * @param scanned
+	 *            counts the candidates looked at
+	 */
+	private List<Meeting> overlapping(IntervalIndex index, long from, long to, Long exceptId, long[] scanned) {
+		List<Meeting> found = new ArrayList<>();
+		index.forEachCandidate(from, to, id -> {
+			scanned[0]++;
+			Meeting meeting = meetings.get(id);
+			if (seconds(meeting.getEndTime()) > from && (exceptId == null || id != exceptId)) {
+				found.add(meeting);
+			}
+		});
+		found.sort(EARLIEST_FIRST);
+		return found;
+	}
+
+	private static boolean hasTime(Meeting meeting) {
+		return meeting.getStartTime() != null && meeting.getEndTime() != null
+				&& meeting.getEndTime().isAfter(meeting.getStartTime());
+	}
+
+	/**
+	 * @return the time as seconds, the wall-clock times of meetings are all
+	 *         mapped with the same offset
+	 */
+	private static long seconds(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	/**
+	 * Stores a prepared copy as the latest version. Callers hold the write
+	 * lock, so versions of a meeting are stamped in the order they are
+	 * applied. The version is logged before it is stored, so one that cannot
+	 * be logged leaves the shard as it was.
+	 *
+	 * @return the log sequence number of the change
+	 */
+	private long store(Meeting copy, List<ChangeEvent<Meeting>> changes) {
+		copy.setVersion(lastVersion.incrementAndGet());
+		long sequence = persistence.logSave(copy.freeze());
+		Meeting previous = put(copy);
+		changes.add(new ChangeEvent<>(previous == null ? ChangeEvent.Type.ADDED : ChangeEvent.Type.UPDATED, copy));
+		return sequence;
+	}
+
+	/**
+	 * Removes a Meeting. Callers hold the write lock.
+	 *
+	 * @return the log sequence number of the change, 0 if there was none
+	 */
+	private long remove(Long id, List<ChangeEvent<Meeting>> changes) {
+		if (!meetings.containsKey(id)) {
+			return 0;
+		}
+		long sequence = persistence.logDelete(id);
+		changes.add(new ChangeEvent<>(ChangeEvent.Type.REMOVED, drop(id)));
+		return sequence;
+	}
+
+	/**
+	 * Loads the persisted meetings of this shard, if the service has a durable
+	 * backend.
+	 */
+	void recover() {
+		lockWrite();
+		try {
+			long storedNextId = persistence.recover(meeting -> {
+				put(meeting.freeze());
+				nextId.accumulateAndGet(meeting.getId() + 1, Math::max);
+				lastVersion.accumulateAndGet(meeting.getVersion(), Math::max);
+			}, this::drop);
+			nextId.accumulateAndGet(storedNextId, Math::max);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void compactIfNeeded() {
+		// read without the lock, a stale count only delays the compaction
+		if (Compactor.isDue(removedSinceCompaction, meetings.size())) {
+			Compactor.submit(compactionQueued, name, this::compact);
+		}
+	}
+
+	/**
+	 * Shrinks the maps after a large delete, then writes a checkpoint without
+	 * the removed meetings.
+	 */
+	void compact() {
+		lockWrite();
+		try {
+			// hash maps never shrink their tables
+			meetings = new ConcurrentHashMap<>(meetings);
+			meetingsByCustomer = new HashMap<>(meetingsByCustomer);
+			aggregates.trim();
+			removedSinceCompaction = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		checkpoint();
+	}
+
+	private void checkpointIfNeeded() {
+		if (persistence.needsCheckpoint()) {
+			checkpoint();
+		}
+	}
+
+	private void checkpoint() {
+		// the read lock keeps writers out while the log is rotated
+		lockRead();
+		try {
+			persistence.checkpoint(new ArrayList<>(meetings.values()), nextId.get());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Meeting put(Meeting meeting) {
+		Meeting previous = meetings.put(meeting.getId(), meeting);
+		if (previous != null) {
+			unindex(previous);
+		}
+		TreeSet<Meeting> customerMeetings = meetingsByCustomer.get(meeting.getCustomerId());
+		if (customerMeetings == null) {
+			customerMeetings = new TreeSet<>(LATEST_FIRST);
+			meetingsByCustomer.put(meeting.getCustomerId(), customerMeetings);
+		}
+		customerMeetings.add(meeting);
+		aggregates.add(meeting);
+		if (hasTime(meeting)) {
+			long start = seconds(meeting.getStartTime());
+			long end = seconds(meeting.getEndTime());
+			timeIndex.add(start, end, meeting.getId());
+			if (meeting.getLocation() != null) {
+				timeIndexByLocation.computeIfAbsent(meeting.getLocation(), location -> new IntervalIndex()).add(start,
+						end, meeting.getId());
+			}
+		}
+		return previous;
+	}
+
+	private Meeting drop(Long id) {
+		Meeting removed = meetings.remove(id);
+		if (removed != null) {
+			removedSinceCompaction++;
+			unindex(removed);
+		}
+		return removed;
+	}
+
+	private void unindex(Meeting meeting) {
+		aggregates.remove(meeting);
+		TreeSet<Meeting> customerMeetings = meetingsByCustomer.get(meeting.getCustomerId());
+		if (customerMeetings != null) {
+			customerMeetings.remove(meeting);
+			if (customerMeetings.isEmpty()) {
+				meetingsByCustomer.remove(meeting.getCustomerId());
+			}
+		}
+		if (hasTime(meeting)) {
+			long start = seconds(meeting.getStartTime());
+			long end = seconds(meeting.getEndTime());
+			timeIndex.remove(start, end, meeting.getId());
+			IntervalIndex locationIndex = timeIndexByLocation.get(meeting.getLocation());
+			if (locationIndex != null) {
+				locationIndex.remove(start, end, meeting.getId());
+				if (locationIndex.size() == 0) {
+					timeIndexByLocation.remove(meeting.getLocation());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+import java.time.YearMonth;
+
+/**
+ * The meetings starting in one month: how many there are, with how many
+ * customers, and how many customers have how many of them.
+ *
+ * @see MeetingService#getMonthlyMeetings(YearMonth)
+ */
+@SuppressWarnings("serial")
+public class MonthlyMeetings implements Serializable {
+
+	private final YearMonth month;
+	private final int meetings;
+	private final int customers;
+	// the customers with 1, 2, ... meetings at index 1, 2, ...
+	private final int[] customersByMeetings;
+
+	MonthlyMeetings(YearMonth month) {
+		this(month, 0, 0, new int[1]);
+	}
+
+	private MonthlyMeetings(YearMonth month, int meetings, int customers, int[] customersByMeetings) {
+		this.month = month;
+		this.meetings = meetings;
+		this.customers = customers;
+		this.customersByMeetings = customersByMeetings;
+	}
+
+	/**
+	 * @return these counts plus those of other customers
+	 */
+	MonthlyMeetings plus(int otherMeetings, int otherCustomers, int[] otherCustomersByMeetings) {
+		int[] sum = new int[Math.max(customersByMeetings.length, otherCustomersByMeetings.length)];
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] = (i < customersByMeetings.length ? customersByMeetings[i] : 0)
+					+ (i < otherCustomersByMeetings.length ? otherCustomersByMeetings[i] : 0);
+		}
+		return new MonthlyMeetings(month, meetings + otherMeetings, customers + otherCustomers, sum);
+	}
+
+	public YearMonth getMonth() {
+		return month;
+	}
+
+	/**
+	 * @return the meetings starting in the month
+	 */
+	public int getMeetings() {
+		return meetings;
+	}
+
+	/**
+	 * @return the customers with at least one meeting in the month
+	 */
+	public int getCustomers() {
+		return customers;
+	}
+
+	/**
+	 * @return the mean meetings of the customers with meetings in the month
+	 */
+	public double getMeetingsPerCustomer() {
+		return customers == 0 ? 0 : (double) meetings / customers;
+	}
+
+	/**
+	 * @return the most meetings a customer has in the month
+	 */
+	public int getMostMeetingsPerCustomer() {
+		for (int i = customersByMeetings.length - 1; i > 0; i--) {
+			if (customersByMeetings[i] > 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the customers with exactly the given amount of meetings, at
+	 *         least one, in the month
+	 */
+	public int getCustomersWith(int meetingCount) {
+		return meetingCount > 0 && meetingCount < customersByMeetings.length ? customersByMeetings[meetingCount] : 0;
+	}
+
+	@Override
+	public String toString() {
+		return month + ": " + meetings + " meetings with " + customers + " customers";
+	}
+}
@@ -1,14 +1,31 @@
 package my.vaadin.app;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import com.vaadin.annotations.Push;
 import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.VaadinServletConfiguration;
+import com.vaadin.data.provider.ConfigurableFilterDataProvider;
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.GridSortOrder;
+import com.vaadin.data.provider.QuerySortOrder;
 import com.vaadin.server.FontAwesome;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
 import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.communication.PushConnection;
 import com.vaadin.shared.data.sort.SortDirection;
 import com.vaadin.shared.ui.ValueChangeMode;
 import com.vaadin.ui.Button;
@@ -26,23 +43,70 @@ import com.vaadin.ui.themes.ValoTheme;
  * <p>
  * The UI is initialized using {@link #init(VaadinRequest)}. This method is intended to be 
  * overridden to add component to the user interface and initialize non-component functionality.
+ * <p>
+ * The forms and the meeting grid are only created once a customer is added or selected, as
+ * many sessions only ever search. In lean mode, see {@link #LEAN_SESSIONS_PROPERTY}, the grids
+ * reference rows shared by all sessions and the meetings are fetched as the grid shows them.
+ * <p>
+ * Searches run off the session lock through {@link AsyncQueries}: a new filter is searched in
+ * the background and the grid shows its first page once it is ready, a filter typed before the
+ * search of the last one finished cancels it. The forms close once their write is done, which
+ * they do not wait for holding the lock either.
+ * <p>
+ * The UI is serializable with its session: the services, listeners and running searches are
+ * left out and attached again when it is read, the meetings shown are written as their ids, see
+ * {@link MeetingList}, and the rows themselves in the encoding of {@link SerializedEntity}.
  */
 @Theme("mytheme")
+@Push
 public class MyUI extends UI {
 
-    private CustomerService customerService = CustomerService.getInstance();
-    private MeetingService meetingService = MeetingService.getInstance();
+    /**
+     * System property that starts every session in lean mode, e.g. {@code -Dcrm.leanSessions=true}:
+     * the grids hold the rows of a {@link RowCache} shared by all sessions instead of copies of
+     * their own, and the meeting grid keeps only the ids of the meetings it shows instead of a list
+     * of them.
+     */
+    static final String LEAN_SESSIONS_PROPERTY = "crm.leanSessions";
+
+    private static final boolean LEAN_SESSIONS = Boolean.getBoolean(LEAN_SESSIONS_PROPERTY);
+    // the rows searched with a new filter, enough for the first fetch of the grid
+    private static final int PREFETCHED_ROWS = 100;
+
+    private transient CustomerService customerService = CustomerService.getInstance();
+    private transient MeetingService meetingService = MeetingService.getInstance();
+    private VerticalLayout layout = new VerticalLayout();
     private Grid<Customer> customerGrid = new Grid<>(Customer.class);
-    private Grid<Meeting> meetingGrid = new Grid<>(Meeting.class);
+    private ConfigurableFilterDataProvider<Customer, Void, String> customerDataProvider;
+    private HorizontalLayout mainCustomerLayout;
     private TextField customerFilterText = new TextField();
-    private CustomerForm customerForm = new CustomerForm(this);
-    private MeetingForm meetingForm = new MeetingForm(this);
+    // created on first use, see customerForm() and showMeetings(Long)
+    private CustomerForm customerForm;
+    private MeetingForm meetingForm;
+    // created on first use, see dashboard()
+    private DashboardView dashboard;
+    private Button addMeetingBtn;
+    private Grid<Meeting> meetingGrid;
+    private DataProvider<Meeting, ?> meetingDataProvider;
+    // the meetings shown, null in lean mode
+    private MeetingList meetings;
+    // the ids of the meetings shown in lean mode
+    private LongHashSet meetingIds = new LongHashSet();
     private Long customerId;
+    // the last search submitted, the results of earlier ones are dropped
+    private transient Future<?> customerQuery;
+    private int customerQueryGeneration;
+    private boolean customerQueryPending;
+    // the first page of the last search, until the grid fetches it
+    private transient CustomerPage customerPage;
+    private transient Future<?> meetingQuery;
+    private int meetingQueryGeneration;
+    private boolean meetingQueryPending;
+    private transient ChangeListener<Customer> customerListener;
+    private transient ChangeListener<Meeting> meetingListener;
 
     @Override
     protected void init(VaadinRequest vaadinRequest) {
-        final VerticalLayout layout = new VerticalLayout();
-
         /**** customer ****/
         /** filter **/
 
@@ -63,21 +127,206 @@ public class MyUI extends UI {
         Button addCustomerBtn = new Button("Add new customer");
         addCustomerBtn.addClickListener(e -> {
             customerGrid.asSingleSelect().clear();
-            customerForm.setCustomer(new Customer());
+            customerForm().setCustomer(new Customer());
         });
 
-        HorizontalLayout customerToolbarLayout = new HorizontalLayout(customerFiltering, addCustomerBtn);
+        // a follower only shows what it replicates from the leader
+        addCustomerBtn.setVisible(!customerService.isReadOnly());
+
+        /** dashboard button **/
+        Button dashboardBtn = new Button("Dashboard");
+        dashboardBtn.addClickListener(e -> {
+            boolean show = dashboard == null || !dashboard.isVisible();
+            dashboard().setVisible(show);
+            dashboard.setCustomer(customerGrid.asSingleSelect().getValue());
+        });
+
+        HorizontalLayout customerToolbarLayout = new HorizontalLayout(customerFiltering, addCustomerBtn, dashboardBtn);
 
         customerGrid.setColumns("firstName", "lastName", "birthDate", "email");
 
-        HorizontalLayout mainCustomerLayout = new HorizontalLayout(customerGrid, customerForm);
+        mainCustomerLayout = new HorizontalLayout(customerGrid);
         mainCustomerLayout.setSizeFull();
         customerGrid.setSizeFull();
         mainCustomerLayout.setExpandRatio(customerGrid, 1);
 
-        /**** meeting ****/
+        layout.addComponents(customerToolbarLayout, mainCustomerLayout);
+
+        // let the Grid fetch only the visible window of Customers from customerService,
+        // sorted by the service's indexes; only the first sort order is pushed down
+        customerDataProvider = DataProvider.<Customer, String>fromFilteringCallbacks(
+                query -> {
+                    String filter = query.getFilter().orElse(null);
+                    QuerySortOrder order = query.getSortOrders().isEmpty() ? null : query.getSortOrders().get(0);
+                    CustomerPage page = customerPage;
+                    int end = (int) Math.min((long) query.getOffset() + query.getLimit(), Integer.MAX_VALUE);
+                    if (page != null && page.answers(filter, order)
+                            && (end <= page.rows.size() || page.rows.size() == page.count)) {
+                        // served once, the page would otherwise keep its rows in the session
+                        customerPage = null;
+                        return shared(page.rows.subList(Math.min(query.getOffset(), page.rows.size()),
+                                Math.min(end, page.rows.size())));
+                    }
+                    return shared(findCustomers(filter, order, query.getOffset(), query.getLimit()));
+                },
+                query -> {
+                    String filter = query.getFilter().orElse(null);
+                    CustomerPage page = customerPage;
+                    if (page != null && page.filter.equals(filter)) {
+                        return page.count;
+                    }
+                    return customerService.count(filter);
+                })
+                .withConfigurableFilter();
+        customerGrid.setDataProvider(customerDataProvider);
+        updateCustomerList();
+        listen();
+        SessionFootprint.register(this);
+
+        setContent(layout);
+
+        customerGrid.asSingleSelect().addValueChangeListener(event -> {
+            if (event.getValue() == null) {
+                if (customerForm != null) {
+                    customerForm.setVisible(false);
+                }
+                if (meetingGrid != null) {
+                    meetingForm.setVisible(false);
+                    addMeetingBtn.setVisible(false);
+                    meetingGrid.setVisible(false);
+                }
+            } else {
+                customerForm().setCustomer(event.getValue());
+                showMeetings(event.getValue().getId());
+            }
+            if (dashboard != null) {
+                dashboard.setCustomer(event.getValue());
+            }
+        });
+    }
+
+    public void updateCustomerList() {
+        String filter = customerFilterText.getValue();
+        // the first sort order the grid passes to the data provider
+        List<GridSortOrder<Customer>> sortOrders = customerGrid.getSortOrder();
+        QuerySortOrder order = sortOrders.isEmpty() ? null
+                : sortOrders.get(0).getSorted().getSortOrder(sortOrders.get(0).getDirection()).findFirst()
+                        .orElse(null);
+        if (customerQuery != null) {
+            customerQuery.cancel(true);
+        }
+        int generation = ++customerQueryGeneration;
+        customerQueryPending = true;
+        // the search also fills the filter cache, so the later fetches of the grid only page
+        customerQuery = AsyncQueries.submit(this, () -> {
+            int count = customerService.count(filter);
+            if (AsyncQueries.isCancelled()) {
+                return null;
+            }
+            return new CustomerPage(filter, order, count, findCustomers(filter, order, 0, PREFETCHED_ROWS));
+        }, page -> {
+            if (generation != customerQueryGeneration) {
+                return;
+            }
+            customerQueryPending = false;
+            customerPage = page;
+            // setting the filter also refreshes the currently fetched window
+            customerDataProvider.setFilter(filter);
+        });
+    }
+
+    public void updateMeetingList(Long customerId) {
+        if (meetings == null) {
+            // the grid fetches the meetings of the customer again
+            meetingDataProvider.refreshAll();
+            return;
+        }
+        if (meetingQuery != null) {
+            meetingQuery.cancel(true);
+        }
+        int generation = ++meetingQueryGeneration;
+        meetingQueryPending = true;
+        meetingQuery = AsyncQueries.submit(this, () -> meetingService.findAll(customerId), found -> {
+            if (generation != meetingQueryGeneration) {
+                return;
+            }
+            meetingQueryPending = false;
+            meetings.clear();
+            meetings.addAll(found);
+            meetingDataProvider.refreshAll();
+        });
+    }
+
+    @Override
+    public void detach() {
+        if (customerQuery != null) {
+            customerQuery.cancel(true);
+        }
+        if (meetingQuery != null) {
+            meetingQuery.cancel(true);
+        }
+        customerService.removeChangeListener(customerListener);
+        meetingService.removeChangeListener(meetingListener);
+        SessionFootprint.unregister(this);
+        super.detach();
+    }
+
+    private void listen() {
+        // the services notify from their writer threads, so every change is applied through access()
+        customerListener = changes -> access(() -> applyCustomerChanges(changes));
+        meetingListener = changes -> access(() -> applyMeetingChanges(changes));
+        customerService.addChangeListener(customerListener);
+        meetingService.addChangeListener(meetingListener);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        customerService = CustomerService.getInstance();
+        meetingService = MeetingService.getInstance();
+        // the searches running when the session was written are gone; the grid keeps
+        // the filter it had until the next one
+        customerQueryPending = false;
+        if (meetingQueryPending) {
+            meetingQueryPending = false;
+            meetings.clear();
+            meetings.addAll(meetingService.findAll(customerId));
+        }
+        listen();
+        SessionFootprint.register(this);
+    }
+
+    private CustomerForm customerForm() {
+        if (customerForm == null) {
+            customerForm = new CustomerForm(this);
+            customerForm.setVisible(false);
+            mainCustomerLayout.addComponent(customerForm);
+        }
+        return customerForm;
+    }
+
+    private DashboardView dashboard() {
+        if (dashboard == null) {
+            dashboard = new DashboardView();
+            dashboard.setVisible(false);
+            // below the toolbar
+            layout.addComponent(dashboard, 1);
+        }
+        return dashboard;
+    }
+
+    private void showMeetings(Long customerId) {
+        this.customerId = customerId;
+        if (meetingGrid == null) {
+            createMeetings();
+        }
+        updateMeetingList(customerId);
+        addMeetingBtn.setVisible(!meetingService.isReadOnly());
+        meetingGrid.setVisible(true);
+    }
+
+    private void createMeetings() {
         /** add new meeting button **/
-        Button addMeetingBtn = new Button("Add new meeting");
+        addMeetingBtn = new Button("Add new meeting");
         addMeetingBtn.addClickListener(e -> {
             Meeting newMeeting = new Meeting();
             newMeeting.setCustomerId(customerId);
@@ -85,40 +334,42 @@ public class MyUI extends UI {
             meetingForm.setMeeting(newMeeting);
         });
 
+        meetingGrid = new Grid<>(Meeting.class);
+        if (LEAN_SESSIONS) {
+            meetingDataProvider = DataProvider.fromCallbacks(
+                    query -> {
+                        Stream<Meeting> rows = meetingService.findAll(customerId).stream()
+                                .map(SharedRows.MEETINGS::intern);
+                        Comparator<Meeting> order = query.getInMemorySorting();
+                        return (order == null ? rows : rows.sorted(order))
+                                .skip(query.getOffset()).limit(query.getLimit());
+                    },
+                    query -> {
+                        // a customer has few meetings, reading them is cheaper than keeping them
+                        List<Meeting> found = meetingService.findAll(customerId);
+                        meetingIds = new LongHashSet(found.size());
+                        for (Meeting meeting : found) {
+                            meetingIds.add(meeting.getId());
+                        }
+                        return found.size();
+                    });
+        } else {
+            meetings = new MeetingList();
+            meetingDataProvider = DataProvider.ofCollection(meetings);
+        }
+        meetingGrid.setDataProvider(meetingDataProvider);
         meetingGrid.setColumns("location", "startTime", "endTime");
         meetingGrid.sort("startTime", SortDirection.DESCENDING);
 
+        meetingForm = new MeetingForm(this);
+        meetingForm.setVisible(false);
+
         HorizontalLayout mainMeetingLayout = new HorizontalLayout(meetingGrid, meetingForm);
         mainMeetingLayout.setSizeFull();
         meetingGrid.setSizeFull();
         mainMeetingLayout.setExpandRatio(meetingGrid, 1);
 
-        layout.addComponents(customerToolbarLayout, mainCustomerLayout, addMeetingBtn, mainMeetingLayout);
-
-        // fetch list of Customers from customerService and assign it to Grid
-        updateCustomerList();
-
-        setContent(layout);
-
-        customerForm.setVisible(false);
-        meetingForm.setVisible(false);
-        addMeetingBtn.setVisible(false);
-        meetingGrid.setVisible(false);
-
-        customerGrid.asSingleSelect().addValueChangeListener(event -> {
-            if (event.getValue() == null) {
-                customerForm.setVisible(false);
-                meetingForm.setVisible(false);
-                addMeetingBtn.setVisible(false);
-                meetingGrid.setVisible(false);
-            } else {
-                customerId = event.getValue().getId();
-                customerForm.setCustomer(event.getValue());
-                updateMeetingList(event.getValue().getId());
-                addMeetingBtn.setVisible(true);
-                meetingGrid.setVisible(true);
-            }
-        });
+        layout.addComponents(addMeetingBtn, mainMeetingLayout);
 
         meetingGrid.asSingleSelect().addValueChangeListener(event -> {
             if (event.getValue() == null) {
@@ -129,18 +380,191 @@ public class MyUI extends UI {
         });
     }
 
-    public void updateCustomerList() {
-        List<Customer> customers = customerService.findAll(customerFilterText.getValue());
-        customerGrid.setItems(customers);
+    private List<Customer> findCustomers(String filter, QuerySortOrder order, int offset, int limit) {
+        if (order == null) {
+            return customerService.findAll(filter, offset, limit);
+        }
+        return customerService.findAll(filter, order.getSorted(), order.getDirection() == SortDirection.DESCENDING,
+                offset, limit);
     }
 
-    public void updateMeetingList(Long customerId) {
-        List<Meeting> meetings = meetingService.findAll(customerId);
-        meetingGrid.setItems(meetings);
+    /**
+     * @return the rows of a page, in lean mode the shared instances of them
+     */
+    private static Stream<Customer> shared(List<Customer> page) {
+        return LEAN_SESSIONS ? page.stream().map(SharedRows.CUSTOMERS::intern) : page.stream();
+    }
+
+    private void applyCustomerChanges(List<ChangeEvent<Customer>> changes) {
+        if (dashboard != null) {
+            // cheap to read, see DashboardView
+            dashboard.refresh();
+        }
+        customerPage = null;
+        if (customerQueryPending) {
+            // the search may have read before the changes
+            updateCustomerList();
+            return;
+        }
+        boolean reorderable = !customerFilterText.isEmpty() || !customerGrid.getSortOrder().isEmpty();
+        for (ChangeEvent<Customer> change : changes) {
+            // added and removed rows shift the window, as may an edit that
+            // changes whether a row matches the filter or where it sorts
+            if (change.getType() != ChangeEvent.Type.UPDATED || reorderable) {
+                if (customerFilterText.isEmpty()) {
+                    // a page of the unfiltered order is read from an index
+                    customerDataProvider.refreshAll();
+                } else {
+                    updateCustomerList();
+                }
+                return;
+            }
+        }
+        for (ChangeEvent<Customer> change : changes) {
+            customerDataProvider.refreshItem(LEAN_SESSIONS ? SharedRows.CUSTOMERS.intern(change.getEntity())
+                    : change.getEntity());
+        }
+    }
+
+    private void applyMeetingChanges(List<ChangeEvent<Meeting>> changes) {
+        if (dashboard != null) {
+            dashboard.refresh();
+        }
+        if (customerId == null || meetingGrid == null) {
+            return;
+        }
+        if (meetings == null) {
+            for (ChangeEvent<Meeting> change : changes) {
+                Meeting meeting = change.getEntity();
+                // the event only has the new customer of a moved meeting, the
+                // ids tell whether it was shown
+                if (customerId.equals(meeting.getCustomerId()) || meetingIds.contains(meeting.getId())) {
+                    meetingDataProvider.refreshAll();
+                    return;
+                }
+            }
+            return;
+        }
+        if (meetingQueryPending) {
+            // the query may have read before the changes
+            updateMeetingList(customerId);
+            return;
+        }
+        for (ChangeEvent<Meeting> change : changes) {
+            Meeting meeting = change.getEntity();
+            int index = meetings.indexOf(meeting);
+            boolean shown = change.getType() != ChangeEvent.Type.REMOVED
+                    && customerId.equals(meeting.getCustomerId());
+            if (shown && index >= 0) {
+                meetings.set(index, meeting);
+                meetingDataProvider.refreshItem(meeting);
+            } else if (shown) {
+                meetings.add(meeting);
+                meetingDataProvider.refreshAll();
+            } else if (index >= 0) {
+                meetings.remove(index);
+                meetingDataProvider.refreshAll();
+            }
+        }
+    }
+
+    /**
+     * @return true for the objects a UI references that other sessions share, which
+     *         {@link SessionFootprint} does not count
+     */
+    static boolean isShared(Object object) {
+        if (object instanceof VaadinSession || object instanceof VaadinService || object instanceof PushConnection
+                || object instanceof CustomerService || object instanceof MeetingService
+                || object instanceof RowCache) {
+            return true;
+        }
+        // rows are shared if they are the cached or, for stores that do not
+        // materialize, the stored instance
+        if (object instanceof Customer && ((Customer) object).isFrozen()) {
+            Customer customer = (Customer) object;
+            return LEAN_SESSIONS && SharedRows.CUSTOMERS.isCached(customer)
+                    || CustomerService.getInstance().get(customer.getId()) == customer;
+        }
+        if (object instanceof Meeting && ((Meeting) object).isFrozen()) {
+            Meeting meeting = (Meeting) object;
+            return LEAN_SESSIONS && SharedRows.MEETINGS.isCached(meeting)
+                    || MeetingService.getInstance().get(meeting.getId()) == meeting;
+        }
+        return false;
+    }
+
+    /**
+     * The first rows and the count of a search.
+     */
+    private static class CustomerPage {
+
+        private final String filter;
+        private final QuerySortOrder order;
+        private final int count;
+        private final List<Customer> rows;
+
+        CustomerPage(String filter, QuerySortOrder order, int count, List<Customer> rows) {
+            this.filter = filter;
+            this.order = order;
+            this.count = count;
+            this.rows = rows;
+        }
+
+        boolean answers(String filter, QuerySortOrder order) {
+            if (!this.filter.equals(filter)) {
+                return false;
+            }
+            if (this.order == null || order == null) {
+                return this.order == order;
+            }
+            return this.order.getSorted().equals(order.getSorted())
+                    && this.order.getDirection() == order.getDirection();
+        }
+    }
+
+    /**
+     * The rows shown by the grids of lean sessions, created with the first of them.
+     */
+    private static class SharedRows {
+
+        private static final RowCache<Customer> CUSTOMERS = RowCache.fromSystemProperties(Customer::getId,
+                Customer::getVersion);
+        private static final RowCache<Meeting> MEETINGS = RowCache.fromSystemProperties(Meeting::getId,
+                Meeting::getVersion);
+
+        static {
+            CustomerService.getInstance().addChangeListener(CUSTOMERS);
+            MeetingService.getInstance().addChangeListener(MEETINGS);
+        }
     }
 
     @WebServlet(urlPatterns = "/*", name = "MyUIServlet", asyncSupported = true)
     @VaadinServletConfiguration(ui = MyUI.class, productionMode = false)
     public static class MyUIServlet extends VaadinServlet {
     }
+
+    /**
+     * Prints the latency histograms and row counts of the services as plain
+     * text, one operation per line, the same values their MBeans show.
+     */
+    @WebServlet(urlPatterns = "/metrics", name = "MetricsServlet")
+    public static class MetricsServlet extends HttpServlet {
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setContentType("text/plain; charset=UTF-8");
+            PrintWriter out = response.getWriter();
+            CustomerService.getInstance().getMetrics().print(out);
+            MeetingService.getInstance().getMetrics().print(out);
+            SessionFootprint.print(out, MyUI::isShared);
+            ReplicationLeader leader = ReplicationLeader.get();
+            if (leader != null) {
+                leader.print(out);
+            }
+            ReplicationFollower follower = ReplicationFollower.get();
+            if (follower != null) {
+                follower.print(out);
+            }
+        }
+    }
 }
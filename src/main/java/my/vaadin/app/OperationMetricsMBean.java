@@ -0,0 +1,40 @@
+package my.vaadin.app;
+
+/**
+ * The JMX view of the metrics of one service operation, registered as
+ * {@code my.vaadin.app:type=<service>,name=<operation>}. Durations are in
+ * microseconds and counted since the start or the last {@link #reset()}.
+ */
+public interface OperationMetricsMBean {
+
+	long getCalls();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP99Micros();
+
+	double getP999Micros();
+
+	double getMaxMicros();
+
+	/**
+	 * @return the entities looked at, e.g. candidates checked against a
+	 *         filter
+	 */
+	long getRowsScanned();
+
+	/**
+	 * @return the entities returned or written
+	 */
+	long getRowsReturned();
+
+	/**
+	 * @return the entity objects created, copies of saved entities and
+	 *         customers materialized from a columnar store
+	 */
+	long getCopies();
+
+	void reset();
+}
@@ -0,0 +1,105 @@
+package my.vaadin.app;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Splits a scan over array positions into segments run in parallel on the
+ * query threads of a service, see {@link Shards#scatter(Executor, int,
+ * java.util.function.IntFunction)}. Scans of fewer positions than
+ * {@link #THRESHOLD_PROPERTY}, or with a single thread, stay on the calling
+ * thread, where handing out the segments would cost more than it saves.
+ * <p>
+ * The segments only read; the caller holds the lock that keeps writers out
+ * for the whole scan.
+ */
+final class ParallelScan {
+
+	/**
+	 * System property with the least positions scanned in parallel, 16384 by
+	 * default.
+	 */
+	static final String THRESHOLD_PROPERTY = "crm.parallelScanThreshold";
+
+	private static final int THRESHOLD = Integer.getInteger(THRESHOLD_PROPERTY, 1 << 14);
+	// segments per worker, so a worker that is late does not hold up the rest
+	private static final int SEGMENTS_PER_THREAD = 4;
+	// at least 1, for thresholds below SEGMENTS_PER_THREAD
+	private static final int MIN_SEGMENT_SIZE = Math.max(1, THRESHOLD / SEGMENTS_PER_THREAD);
+
+	private final Executor executor;
+	private final int threads;
+
+	/**
+	 * @param executor
+	 *            the query threads of the service
+	 * @param threads
+	 *            the amount of them
+	 */
+	ParallelScan(Executor executor, int threads) {
+		this.executor = executor;
+		this.threads = threads;
+	}
+
+	/**
+	 * Scans one segment of positions.
+	 */
+	interface Segment<R> {
+
+		/**
+		 * @param from
+		 *            the first position, inclusive
+		 * @param to
+		 *            the last position, exclusive
+		 */
+		R scan(int from, int to);
+	}
+
+	/**
+	 * Scans the positions 0 to size - 1.
+	 *
+	 * @return the results of the segments in position order, a single one if
+	 *         the scan stayed sequential
+	 */
+	<R> List<R> scan(int size, Segment<R> segment) {
+		if (size < THRESHOLD || threads < 2) {
+			return Collections.singletonList(segment.scan(0, size));
+		}
+		// at least one, for an empty scan with a threshold of 0 or less
+		int segments = Math.max(1, Math.min(threads * SEGMENTS_PER_THREAD, size / MIN_SEGMENT_SIZE));
+		return Shards.scatter(executor, segments,
+				i -> segment.scan((int) ((long) size * i / segments), (int) ((long) size * (i + 1) / segments)));
+	}
+
+	/**
+	 * @return the ids of all the sorted segments in one sorted array
+	 */
+	static long[] merge(List<long[]> sorted) {
+		if (sorted.size() == 1) {
+			return sorted.get(0);
+		}
+		// pairwise, so every id is copied log2(segments) times
+		List<long[]> merged = sorted;
+		while (merged.size() > 1) {
+			List<long[]> pairs = merged;
+			merged = IntStream.range(0, (pairs.size() + 1) / 2)
+					.mapToObj(i -> 2 * i + 1 == pairs.size() ? pairs.get(2 * i)
+							: merge(pairs.get(2 * i), pairs.get(2 * i + 1)))
+					.collect(Collectors.toList());
+		}
+		return merged.get(0);
+	}
+
+	private static long[] merge(long[] first, long[] second) {
+		long[] merged = new long[first.length + second.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < merged.length; k++) {
+			merged[k] = j == second.length || (i < first.length && first[i] <= second[j]) ? first[i++] : second[j++];
+		}
+		return merged;
+	}
+}
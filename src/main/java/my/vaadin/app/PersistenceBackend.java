@@ -0,0 +1,150 @@
+package my.vaadin.app;
+
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Where a service makes its changes durable. The service logs every change
+ * while it holds its write lock, so the log order is the order the changes
+ * were applied in, and calls {@link #sync(long)} after releasing the lock so
+ * that concurrent writers can share one flush.
+ *
+ * @param <T>
+ *            the entity type
+ */
+interface PersistenceBackend<T> {
+
+	/**
+	 * System property naming the directory the services persist their data
+	 * in. Without it the services keep everything in memory only.
+	 */
+	String DATA_DIRECTORY_PROPERTY = "crm.dataDirectory";
+
+	/**
+	 * System property for the amount of logged changes after which the log is
+	 * replaced by a snapshot.
+	 */
+	String CHECKPOINT_INTERVAL_PROPERTY = "crm.checkpointInterval";
+
+	/**
+	 * Replays the persisted state, oldest change first.
+	 *
+	 * @param saved
+	 *            receives every saved entity version
+	 * @param deleted
+	 *            receives the id of every deleted entity
+	 * @return the id counter stored with the latest checkpoint, 0 if there is
+	 *         none
+	 */
+	long recover(Consumer<T> saved, Consumer<Long> deleted);
+
+	/**
+	 * Logs a saved entity version.
+	 *
+	 * @return the sequence number to pass to {@link #sync(long)}
+	 */
+	long logSave(T entity);
+
+	/**
+	 * Logs a deleted entity.
+	 *
+	 * @return the sequence number to pass to {@link #sync(long)}
+	 */
+	long logDelete(Long id);
+
+	/**
+	 * Blocks until the change with the given sequence number, and all before
+	 * it, are durable.
+	 */
+	void sync(long sequence);
+
+	/**
+	 * @return true if enough changes were logged since the last checkpoint to
+	 *         make writing a new one worthwhile
+	 */
+	boolean needsCheckpoint();
+
+	/**
+	 * Replaces the logged history with a snapshot of the given state. Must be
+	 * called while the service excludes writers, so that the state matches
+	 * the log exactly; the snapshot itself may be written in the background.
+	 *
+	 * @param entities
+	 *            every stored entity, must not be modified afterwards
+	 * @param nextId
+	 *            the current id counter of the service
+	 */
+	void checkpoint(Collection<T> entities, long nextId);
+
+	/**
+	 * Makes everything logged durable and releases the files and threads of
+	 * this backend. Nothing is logged afterwards.
+	 */
+	default void close() {
+	}
+
+	/**
+	 * @param name
+	 *            the name of the persisted data, used as the file name prefix
+	 * @param codec
+	 *            encoding of the persisted entities
+	 * @return a {@link WriteAheadLog} in the configured data directory, or an
+	 *         in memory backend when none is configured
+	 */
+	static <T> PersistenceBackend<T> fromSystemProperties(String name, EntityCodec<T> codec) {
+		String dataDirectory = System.getProperty(DATA_DIRECTORY_PROPERTY);
+		if (dataDirectory == null || dataDirectory.isEmpty()) {
+			return inMemory();
+		}
+		return new WriteAheadLog<>(Paths.get(dataDirectory), name, codec,
+				Integer.getInteger(CHECKPOINT_INTERVAL_PROPERTY, 100000));
+	}
+
+	/**
+	 * @return a backend that keeps nothing, for a purely in memory service
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> PersistenceBackend<T> inMemory() {
+		return (PersistenceBackend<T>) InMemory.INSTANCE;
+	}
+
+	/**
+	 * The backend of a purely in memory service.
+	 */
+	class InMemory implements PersistenceBackend<Object> {
+
+		private static final InMemory INSTANCE = new InMemory();
+
+		private InMemory() {
+		}
+
+		@Override
+		public long recover(Consumer<Object> saved, Consumer<Long> deleted) {
+			return 0;
+		}
+
+		@Override
+		public long logSave(Object entity) {
+			return 0;
+		}
+
+		@Override
+		public long logDelete(Long id) {
+			return 0;
+		}
+
+		@Override
+		public void sync(long sequence) {
+		}
+
+		@Override
+		public boolean needsCheckpoint() {
+			return false;
+		}
+
+		@Override
+		public void checkpoint(Collection<Object> entities, long nextId) {
+		}
+	}
+}
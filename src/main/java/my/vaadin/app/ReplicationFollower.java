@@ -0,0 +1,274 @@
+package my.vaadin.app;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replicates the customers and meetings of a {@link ReplicationLeader} into
+ * the services of this node, which then serve reads locally and reject
+ * writes. The follower applies the changes of the leader in the order the
+ * leader logged them, with the ids and versions of the leader, and notifies
+ * the listeners of the services like any other change, so the grids of its
+ * sessions follow the leader.
+ * <p>
+ * After a lost connection the follower connects again and starts over with
+ * a snapshot of the leader, which replaces the local state: local entities
+ * the snapshot does not contain are deleted. A leader that restarted without
+ * its log numbers its versions anew, so the snapshot of a new epoch of the
+ * leader replaces every local version, not only the older ones.
+ * <p>
+ * The lag is the time since the leader logged the last change the follower
+ * applied, or since its last heartbeat if the follower has applied
+ * everything; it grows while the connection is lost. It compares the clocks
+ * of two nodes, which is exact on one machine.
+ */
+final class ReplicationFollower {
+
+	/**
+	 * System property with the host and port of the leader, e.g.
+	 * {@code -Dcrm.replicateFrom=localhost:7000}, which makes this node a
+	 * follower.
+	 */
+	static final String LEADER_PROPERTY = "crm.replicateFrom";
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicationFollower.class.getName());
+	// changes applied with one lock acquisition per shard
+	private static final int BATCH_SIZE = 1000;
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	private static final long RECONNECT_MILLIS = 1000;
+
+	private static volatile ReplicationFollower instance;
+
+	private final String leader;
+	private final CustomerService customers;
+	private final MeetingService meetings;
+	private final CustomerCodec customerCodec = new CustomerCodec();
+	private final MeetingCodec meetingCodec = new MeetingCodec();
+	// the changes of the same type read but not applied yet
+	private final List<Object> batch = new ArrayList<>();
+	private byte batchType;
+	private long batchSequence;
+	private long batchMillis;
+	// the epoch of the leader of the last complete snapshot, if any
+	private Long epoch;
+	private long snapshotEpoch;
+	private boolean replaceAll;
+	// the ids in the snapshot being received
+	private LongHashSet snapshotCustomers;
+	private LongHashSet snapshotMeetings;
+	private volatile boolean connected;
+	private volatile long appliedSequence;
+	private volatile long leaderSequence;
+	private volatile long appliedMillis = System.currentTimeMillis();
+
+	private ReplicationFollower(String leader, CustomerService customers, MeetingService meetings) {
+		this.leader = leader;
+		this.customers = customers;
+		this.meetings = meetings;
+	}
+
+	/**
+	 * @return true if {@link #LEADER_PROPERTY} makes this node a follower
+	 */
+	static boolean isConfigured() {
+		String leader = System.getProperty(LEADER_PROPERTY);
+		return leader != null && !leader.isEmpty();
+	}
+
+	/**
+	 * Makes the services read only and starts replicating into them from the
+	 * leader given by {@link #LEADER_PROPERTY}.
+	 */
+	static void start(CustomerService customers, MeetingService meetings) {
+		ReplicationFollower follower = new ReplicationFollower(System.getProperty(LEADER_PROPERTY), customers,
+				meetings);
+		customers.setReadOnly(true);
+		meetings.setReadOnly(true);
+		Thread thread = new Thread(follower::follow, "replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+		instance = follower;
+	}
+
+	/**
+	 * @return the follower of this node, or null if it is not one
+	 */
+	static ReplicationFollower get() {
+		return instance;
+	}
+
+	/**
+	 * Prints whether the follower is connected and how far behind the leader
+	 * it is.
+	 */
+	void print(PrintWriter out) {
+		out.println("replication.follower leader=" + leader + " connected=" + connected + " applied="
+				+ appliedSequence + " lagChanges=" + Math.max(0, leaderSequence - appliedSequence) + " lagMillis="
+				+ getLagMillis());
+	}
+
+	/**
+	 * @return the milliseconds since the leader logged the last change
+	 *         applied here, or sent its last heartbeat
+	 */
+	long getLagMillis() {
+		return Math.max(0, System.currentTimeMillis() - appliedMillis);
+	}
+
+	private void follow() {
+		int colon = leader.lastIndexOf(':');
+		InetSocketAddress address = new InetSocketAddress(leader.substring(0, colon),
+				Integer.parseInt(leader.substring(colon + 1)));
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+				connected = true;
+				LOGGER.log(Level.INFO, "Connected to leader {0}", leader);
+				read(new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16)));
+			} catch (IOException | RuntimeException ex) {
+				LOGGER.log(connected ? Level.WARNING : Level.FINE, "Lost the connection to leader " + leader, ex);
+			} finally {
+				connected = false;
+				batch.clear();
+			}
+			try {
+				Thread.sleep(RECONNECT_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	private void read(DataInputStream in) throws IOException {
+		while (true) {
+			byte type = in.readByte();
+			long sequence = in.readLong();
+			long timeMillis = in.readLong();
+			if (type == ReplicationLeader.SNAPSHOT_STARTED) {
+				// the numbers start over when the leader restarts
+				leaderSequence = sequence;
+				appliedSequence = 0;
+			} else {
+				leaderSequence = Math.max(leaderSequence, sequence);
+			}
+			switch (type) {
+			case ReplicationLeader.SNAPSHOT_STARTED:
+				apply();
+				snapshotEpoch = in.readLong();
+				replaceAll = epoch == null || epoch != snapshotEpoch;
+				snapshotCustomers = new LongHashSet();
+				snapshotMeetings = new LongHashSet();
+				break;
+			case ReplicationLeader.SNAPSHOT_CUSTOMER:
+				Customer customer = customerCodec.read(in);
+				snapshotCustomers.add(customer.getId());
+				add(type, sequence, timeMillis, customer);
+				break;
+			case ReplicationLeader.SNAPSHOT_MEETING:
+				Meeting meeting = meetingCodec.read(in);
+				snapshotMeetings.add(meeting.getId());
+				add(type, sequence, timeMillis, meeting);
+				break;
+			case ReplicationLeader.SNAPSHOT_FINISHED:
+				apply();
+				finishSnapshot(sequence, timeMillis);
+				break;
+			case ReplicationLeader.CUSTOMER_SAVED:
+				add(type, sequence, timeMillis, customerCodec.read(in));
+				break;
+			case ReplicationLeader.MEETING_SAVED:
+				add(type, sequence, timeMillis, meetingCodec.read(in));
+				break;
+			case ReplicationLeader.CUSTOMER_DELETED:
+			case ReplicationLeader.MEETING_DELETED:
+				add(type, sequence, timeMillis, in.readLong());
+				break;
+			case ReplicationLeader.HEARTBEAT:
+				apply();
+				appliedMillis = timeMillis;
+				break;
+			default:
+				throw new IOException("Unknown record type " + type);
+			}
+			// apply what arrived together, but do not wait for more
+			if (batch.size() >= BATCH_SIZE || in.available() == 0) {
+				apply();
+			}
+		}
+	}
+
+	private void add(byte type, long sequence, long timeMillis, Object value) {
+		if (type != batchType) {
+			apply();
+			batchType = type;
+		}
+		batch.add(value);
+		batchSequence = sequence;
+		batchMillis = timeMillis;
+	}
+
+	/**
+	 * Applies the changes read so far.
+	 */
+	@SuppressWarnings("unchecked")
+	private void apply() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		switch (batchType) {
+		case ReplicationLeader.SNAPSHOT_CUSTOMER:
+		case ReplicationLeader.CUSTOMER_SAVED:
+			customers.replicate((List<Customer>) (List<?>) batch,
+					replaceAll && batchType == ReplicationLeader.SNAPSHOT_CUSTOMER);
+			break;
+		case ReplicationLeader.SNAPSHOT_MEETING:
+		case ReplicationLeader.MEETING_SAVED:
+			meetings.replicate((List<Meeting>) (List<?>) batch,
+					replaceAll && batchType == ReplicationLeader.SNAPSHOT_MEETING);
+			break;
+		case ReplicationLeader.CUSTOMER_DELETED:
+			customers.replicateDeletes((List<Long>) (List<?>) batch);
+			break;
+		default:
+			meetings.replicateDeletes((List<Long>) (List<?>) batch);
+		}
+		batch.clear();
+		appliedSequence = Math.max(appliedSequence, batchSequence);
+		appliedMillis = batchMillis;
+	}
+
+	/**
+	 * Deletes the local entities the snapshot of the leader did not contain.
+	 */
+	private void finishSnapshot(long sequence, long timeMillis) {
+		List<Long> deletedCustomers = new ArrayList<>();
+		for (Customer customer : customers.snapshot()) {
+			if (!snapshotCustomers.contains(customer.getId())) {
+				deletedCustomers.add(customer.getId());
+			}
+		}
+		List<Long> deletedMeetings = new ArrayList<>();
+		for (Meeting meeting : meetings.snapshot()) {
+			if (!snapshotMeetings.contains(meeting.getId())) {
+				deletedMeetings.add(meeting.getId());
+			}
+		}
+		customers.replicateDeletes(deletedCustomers);
+		meetings.replicateDeletes(deletedMeetings);
+		LOGGER.log(Level.INFO, "Replicated a snapshot of {0} customers and {1} meetings from leader {2}",
+				new Object[] { snapshotCustomers.size(), snapshotMeetings.size(), leader });
+		snapshotCustomers = null;
+		snapshotMeetings = null;
+		epoch = snapshotEpoch;
+		appliedSequence = Math.max(appliedSequence, sequence);
+		appliedMillis = timeMillis;
+	}
+}
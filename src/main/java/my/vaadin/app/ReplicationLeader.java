@@ -0,0 +1,346 @@
+package my.vaadin.app;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ships the log of the services to the {@link ReplicationFollower followers}
+ * of this node, so that every node serves the same customers and meetings.
+ * <p>
+ * The services log every change while they hold the write lock of its shard,
+ * see {@link PersistenceBackend}; {@link #log(PersistenceBackend, byte, byte)}
+ * wraps their backends so that each logged save and delete is also numbered
+ * and queued for every follower, in the order the changes were applied. A
+ * follower that connects first receives a snapshot of all customers and
+ * meetings, then the changes logged since it connected, then a heartbeat
+ * whenever nothing was logged for a second. The changes are shipped before
+ * the leader has flushed them, so a follower may apply a change the leader
+ * loses in a crash; it catches up with a new snapshot once it reconnects to
+ * the restarted leader.
+ * <p>
+ * A follower falling more than {@link #QUEUE_PROPERTY} changes behind is
+ * disconnected, it reconnects and starts over with a snapshot.
+ * <p>
+ * The stream is a sequence of records: a type byte, the number of the change
+ * and the time the leader logged it in milliseconds, then the encoded entity
+ * of a saved entity or the id of a deleted one. The start of a snapshot
+ * carries the epoch of the leader, which changes when it restarts: the ids
+ * and versions of a leader are only comparable within one epoch.
+ */
+final class ReplicationLeader {
+
+	/**
+	 * System property with the port this node accepts followers on, which
+	 * makes it a leader.
+	 */
+	static final String PORT_PROPERTY = "crm.replicationPort";
+
+	/**
+	 * System property with the most changes queued for a follower, 65536 by
+	 * default.
+	 */
+	static final String QUEUE_PROPERTY = "crm.replicationQueue";
+
+	static final byte SNAPSHOT_STARTED = 1;
+	static final byte SNAPSHOT_CUSTOMER = 2;
+	static final byte SNAPSHOT_MEETING = 3;
+	static final byte SNAPSHOT_FINISHED = 4;
+	static final byte CUSTOMER_SAVED = 5;
+	static final byte CUSTOMER_DELETED = 6;
+	static final byte MEETING_SAVED = 7;
+	static final byte MEETING_DELETED = 8;
+	static final byte HEARTBEAT = 9;
+
+	private static final Logger LOGGER = Logger.getLogger(ReplicationLeader.class.getName());
+	private static final long HEARTBEAT_MILLIS = 1000;
+
+	private final int port;
+	private final int queueSize;
+	private final long epoch = ThreadLocalRandom.current().nextLong();
+	private final AtomicLong sequence = new AtomicLong();
+	private final List<Follower> followers = new CopyOnWriteArrayList<>();
+
+	private ReplicationLeader(int port, int queueSize) {
+		this.port = port;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @return the leader of this node, or null if {@link #PORT_PROPERTY} is
+	 *         not set
+	 */
+	static ReplicationLeader get() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Starts accepting followers on first use.
+	 */
+	private static class InstanceHolder {
+
+		private static final ReplicationLeader INSTANCE = createInstance();
+
+		private static ReplicationLeader createInstance() {
+			Integer port = Integer.getInteger(PORT_PROPERTY);
+			if (port == null) {
+				return null;
+			}
+			ReplicationLeader leader = new ReplicationLeader(port, Integer.getInteger(QUEUE_PROPERTY, 1 << 16));
+			leader.start();
+			return leader;
+		}
+	}
+
+	/**
+	 * @param saved
+	 *            the record type of a saved entity
+	 * @param deleted
+	 *            the record type of a deleted entity
+	 * @return a backend that also ships the changes it logs if this node is a
+	 *         leader, otherwise the given one
+	 */
+	static <T> PersistenceBackend<T> log(PersistenceBackend<T> persistence, byte saved, byte deleted) {
+		ReplicationLeader leader = get();
+		return leader == null ? persistence : new ShippingLog<>(persistence, leader, saved, deleted);
+	}
+
+	private void start() {
+		ServerSocket server;
+		try {
+			server = new ServerSocket();
+			server.bind(new InetSocketAddress(port));
+		} catch (IOException ex) {
+			throw new IllegalStateException("Cannot accept followers on port " + port, ex);
+		}
+		Thread acceptor = new Thread(() -> accept(server), "replication-leader");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		LOGGER.log(Level.INFO, "Accepting followers on port {0}", port);
+	}
+
+	private void accept(ServerSocket server) {
+		while (true) {
+			try {
+				Socket socket = server.accept();
+				Follower follower = new Follower(socket);
+				Thread sender = new Thread(follower::send, "replication-" + socket.getRemoteSocketAddress());
+				sender.setDaemon(true);
+				sender.start();
+			} catch (IOException ex) {
+				LOGGER.log(Level.WARNING, "Accepting a follower failed", ex);
+			}
+		}
+	}
+
+	/**
+	 * Numbers a logged change and queues it for every follower. Called while
+	 * the shard of the change holds its write lock, so it must not block.
+	 */
+	private void publish(byte type, Object value) {
+		long number = sequence.incrementAndGet();
+		if (followers.isEmpty()) {
+			return;
+		}
+		Record record = new Record(type, number, System.currentTimeMillis(), value);
+		for (Follower follower : followers) {
+			follower.offer(record);
+		}
+	}
+
+	/**
+	 * Prints the amount of followers and how far behind each of them is.
+	 */
+	void print(PrintWriter out) {
+		out.println("replication.leader port=" + port + " sequence=" + sequence.get() + " followers="
+				+ followers.size());
+		for (Follower follower : followers) {
+			out.println("replication.follower " + follower.address + " queued=" + follower.queue.size() + " sent="
+					+ follower.sent);
+		}
+	}
+
+	/**
+	 * A logged change.
+	 */
+	private static final class Record {
+
+		private final byte type;
+		private final long sequence;
+		private final long timeMillis;
+		// a frozen entity or the id of a deleted one
+		private final Object value;
+
+		Record(byte type, long sequence, long timeMillis, Object value) {
+			this.type = type;
+			this.sequence = sequence;
+			this.timeMillis = timeMillis;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A connected follower and the changes queued for it.
+	 */
+	private final class Follower {
+
+		private final Socket socket;
+		private final String address;
+		private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(queueSize);
+		private final CustomerCodec customerCodec = new CustomerCodec();
+		private final MeetingCodec meetingCodec = new MeetingCodec();
+		private volatile boolean overflowed;
+		private volatile long sent;
+
+		Follower(Socket socket) {
+			this.socket = socket;
+			this.address = String.valueOf(socket.getRemoteSocketAddress());
+		}
+
+		void offer(Record record) {
+			if (!queue.offer(record) && !overflowed) {
+				overflowed = true;
+				followers.remove(this);
+			}
+		}
+
+		void send() {
+			try (Socket connection = socket) {
+				connection.setTcpNoDelay(true);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(connection.getOutputStream(), 1 << 16));
+				// queued from now on, so the snapshot taken after misses
+				// nothing; changes both in it and queued are applied twice,
+				// which ends in the same state
+				followers.add(this);
+				long snapshotSequence = sequence.get();
+				LOGGER.log(Level.INFO, "Follower {0} connected, sending a snapshot", address);
+				long snapshotMillis = System.currentTimeMillis();
+				write(out, SNAPSHOT_STARTED, snapshotSequence, snapshotMillis);
+				out.writeLong(epoch);
+				for (Customer customer : CustomerService.getInstance().snapshot()) {
+					write(out, SNAPSHOT_CUSTOMER, snapshotSequence, snapshotMillis);
+					customerCodec.write(customer, out);
+				}
+				for (Meeting meeting : MeetingService.getInstance().snapshot()) {
+					write(out, SNAPSHOT_MEETING, snapshotSequence, snapshotMillis);
+					meetingCodec.write(meeting, out);
+				}
+				write(out, SNAPSHOT_FINISHED, snapshotSequence, snapshotMillis);
+				out.flush();
+				while (!overflowed) {
+					Record record = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+					if (record == null) {
+						write(out, HEARTBEAT, sequence.get(), System.currentTimeMillis());
+					}
+					// everything queued goes out with one flush
+					for (; record != null; record = queue.poll()) {
+						write(out, record);
+					}
+					out.flush();
+				}
+				LOGGER.log(Level.WARNING, "Follower {0} fell more than {1} changes behind, disconnected",
+						new Object[] { address, queueSize });
+			} catch (IOException | RuntimeException ex) {
+				LOGGER.log(Level.INFO, "Follower " + address + " disconnected", ex);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				followers.remove(this);
+			}
+		}
+
+		private void write(DataOutputStream out, byte type, long number, long timeMillis) throws IOException {
+			out.writeByte(type);
+			out.writeLong(number);
+			out.writeLong(timeMillis);
+		}
+
+		private void write(DataOutputStream out, Record record) throws IOException {
+			write(out, record.type, record.sequence, record.timeMillis);
+			switch (record.type) {
+			case CUSTOMER_SAVED:
+				customerCodec.write((Customer) record.value, out);
+				break;
+			case MEETING_SAVED:
+				meetingCodec.write((Meeting) record.value, out);
+				break;
+			default:
+				out.writeLong((Long) record.value);
+			}
+			sent++;
+		}
+	}
+
+	/**
+	 * Logs to the backend of a shard and ships what it logged.
+	 */
+	private static final class ShippingLog<T> implements PersistenceBackend<T> {
+
+		private final PersistenceBackend<T> persistence;
+		private final ReplicationLeader leader;
+		private final byte saved;
+		private final byte deleted;
+
+		ShippingLog(PersistenceBackend<T> persistence, ReplicationLeader leader, byte saved, byte deleted) {
+			this.persistence = persistence;
+			this.leader = leader;
+			this.saved = saved;
+			this.deleted = deleted;
+		}
+
+		@Override
+		public long recover(Consumer<T> savedEntity, Consumer<Long> deletedId) {
+			return persistence.recover(savedEntity, deletedId);
+		}
+
+		@Override
+		public long logSave(T entity) {
+			long logged = persistence.logSave(entity);
+			leader.publish(saved, entity);
+			return logged;
+		}
+
+		@Override
+		public long logDelete(Long id) {
+			long logged = persistence.logDelete(id);
+			leader.publish(deleted, id);
+			return logged;
+		}
+
+		@Override
+		public void sync(long sequence) {
+			persistence.sync(sequence);
+		}
+
+		@Override
+		public boolean needsCheckpoint() {
+			return persistence.needsCheckpoint();
+		}
+
+		@Override
+		public void checkpoint(Collection<T> entities, long nextId) {
+			persistence.checkpoint(entities, nextId);
+		}
+
+		@Override
+		public void close() {
+			persistence.close();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package my.vaadin.app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * The rows the grids of all sessions show, one frozen snapshot per id, so
+ * that sessions in lean mode reference a shared row instead of holding a
+ * copy of their own. Rows are added as the grids fetch them and kept in least
+ * recently used order up to a bound; a session still showing an evicted row
+ * keeps it alive, so the bound only limits the sharing, never what a grid
+ * shows.
+ * <p>
+ * Registered as a {@link ChangeListener} the cache replaces updated rows and
+ * drops removed ones. A row is only ever replaced by a later version of it,
+ * so a page fetched before an update cannot bring back the old row. The
+ * exception are the {@link ChangeEvent#isReplacement() replacements} from
+ * the snapshot of a restarted leader, whose versions start over: they
+ * replace every cached row, so none of the previous leader stays. A page
+ * fetched before a removal, or before such a snapshot, may add an outdated
+ * row again, which then stays until it is evicted.
+ * <p>
+ * Thread safe.
+ */
+class RowCache<T> implements ChangeListener<T> {
+
+	/**
+	 * System property with the most rows cached of each entity, 0 disables
+	 * the cache.
+	 */
+	static final String SIZE_PROPERTY = "crm.rowCacheSize";
+
+	private final ToLongFunction<T> id;
+	private final ToLongFunction<T> version;
+	private final int maxRows;
+	private final LinkedHashMap<Long, T> rows = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param id
+	 *            the id of a row
+	 * @param version
+	 *            the version of a row
+	 * @param maxRows
+	 *            the most rows to cache
+	 */
+	RowCache(ToLongFunction<T> id, ToLongFunction<T> version, int maxRows) {
+		this.id = id;
+		this.version = version;
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * @return a cache of the size given by {@link #SIZE_PROPERTY}, 16384 rows
+	 *         by default
+	 */
+	static <T> RowCache<T> fromSystemProperties(ToLongFunction<T> id, ToLongFunction<T> version) {
+		return new RowCache<>(id, version, Integer.getInteger(SIZE_PROPERTY, 1 << 14));
+	}
+
+	/**
+	 * @param row
+	 *            a frozen snapshot read from a service
+	 * @return the cached row with the same id if it is at least as recent,
+	 *         otherwise the given row, which is cached in its place
+	 */
+	synchronized T intern(T row) {
+		if (maxRows == 0) {
+			return row;
+		}
+		Long key = id.applyAsLong(row);
+		T cached = rows.get(key);
+		if (cached != null && version.applyAsLong(cached) >= version.applyAsLong(row)) {
+			return cached;
+		}
+		rows.put(key, row);
+		Iterator<T> eldest = rows.values().iterator();
+		while (rows.size() > maxRows) {
+			eldest.next();
+			eldest.remove();
+		}
+		return row;
+	}
+
+	/**
+	 * @return true if the row is the instance cached for its id
+	 */
+	synchronized boolean isCached(T row) {
+		return rows.get(id.applyAsLong(row)) == row;
+	}
+
+	synchronized int size() {
+		return rows.size();
+	}
+
+	@Override
+	public synchronized void changed(List<ChangeEvent<T>> changes) {
+		for (ChangeEvent<T> change : changes) {
+			T row = change.getEntity();
+			Long key = id.applyAsLong(row);
+			if (change.getType() == ChangeEvent.Type.REMOVED) {
+				rows.remove(key);
+				continue;
+			}
+			T cached = rows.get(key);
+			// rows nobody has fetched yet are left for the grids to add
+			if (cached != null
+					&& (change.isReplacement() || version.applyAsLong(cached) < version.applyAsLong(row))) {
+				rows.put(key, row);
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package my.vaadin.app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * The serialized form of a {@link Customer} or {@link Meeting}, e.g. in a
+ * session written to disk or sent to another node. Default serialization
+ * writes the class descriptions of the entity, Long, LocalDate and
+ * LocalDateTime with the first of them in a stream, and every id and date as
+ * an object of its own. This writes one small object per entity instead: a
+ * bit per id or date that is null, the ids, version and dates as variable
+ * length numbers, which take a few bytes each for the values they have, and
+ * the strings as by {@link EntityCodec#writeString(DataOutput, String)}, of
+ * any length.
+ * <p>
+ * Unlike {@link EntityCodec}, whose fixed length encoding the logs keep for
+ * good, this encoding only has to be read by the same version of the
+ * application, as sessions are.
+ * <p>
+ * Deserializing returns an entity equal to the written one, frozen if that
+ * was, so read-only snapshots stay read-only.
+ */
+final class SerializedEntity implements Externalizable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int CUSTOMER = 1;
+	private static final int MEETING = 2;
+	private static final int FROZEN = 4;
+
+	private Object entity;
+
+	/**
+	 * For deserialization only.
+	 */
+	public SerializedEntity() {
+	}
+
+	SerializedEntity(Customer customer) {
+		entity = customer;
+	}
+
+	SerializedEntity(Meeting meeting) {
+		entity = meeting;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		if (entity instanceof Customer) {
+			writeCustomer((Customer) entity, out);
+		} else {
+			writeMeeting((Meeting) entity, out);
+		}
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		int type = in.readUnsignedByte();
+		if ((type & ~FROZEN) == CUSTOMER) {
+			Customer customer = readCustomer(in);
+			entity = (type & FROZEN) != 0 ? customer.freeze() : customer;
+		} else if ((type & ~FROZEN) == MEETING) {
+			Meeting meeting = readMeeting(in);
+			entity = (type & FROZEN) != 0 ? meeting.freeze() : meeting;
+		} else {
+			throw new InvalidObjectException("Unknown entity type " + type);
+		}
+	}
+
+	private Object readResolve() {
+		return entity;
+	}
+
+	private static void writeCustomer(Customer customer, DataOutput out) throws IOException {
+		out.writeByte(customer.isFrozen() ? CUSTOMER | FROZEN : CUSTOMER);
+		out.writeByte(nulls(customer.getId(), customer.getBirthDate()));
+		if (customer.getId() != null) {
+			writeVarLong(out, customer.getId());
+		}
+		writeVarLong(out, customer.getVersion());
+		EntityCodec.writeString(out, customer.getFirstName());
+		EntityCodec.writeString(out, customer.getLastName());
+		if (customer.getBirthDate() != null) {
+			writeVarLong(out, customer.getBirthDate().toEpochDay());
+		}
+		EntityCodec.writeString(out, customer.getEmail());
+		EntityCodec.writeString(out, customer.getAddress());
+		EntityCodec.writeString(out, customer.getCity());
+		EntityCodec.writeString(out, customer.getPostalCode());
+	}
+
+	private static Customer readCustomer(DataInput in) throws IOException {
+		int nulls = in.readUnsignedByte();
+		Customer customer = new Customer();
+		customer.setId(isNull(nulls, 0) ? null : readVarLong(in));
+		customer.setVersion(readVarLong(in));
+		customer.setFirstName(EntityCodec.readString(in));
+		customer.setLastName(EntityCodec.readString(in));
+		customer.setBirthDate(isNull(nulls, 1) ? null : LocalDate.ofEpochDay(readVarLong(in)));
+		customer.setEmail(EntityCodec.readString(in));
+		customer.setAddress(EntityCodec.readString(in));
+		customer.setCity(EntityCodec.readString(in));
+		customer.setPostalCode(EntityCodec.readString(in));
+		return customer;
+	}
+
+	private static void writeMeeting(Meeting meeting, DataOutput out) throws IOException {
+		out.writeByte(meeting.isFrozen() ? MEETING | FROZEN : MEETING);
+		out.writeByte(nulls(meeting.getId(), meeting.getCustomerId(), meeting.getStartTime(), meeting.getEndTime()));
+		if (meeting.getId() != null) {
+			writeVarLong(out, meeting.getId());
+		}
+		writeVarLong(out, meeting.getVersion());
+		if (meeting.getCustomerId() != null) {
+			writeVarLong(out, meeting.getCustomerId());
+		}
+		EntityCodec.writeString(out, meeting.getLocation());
+		writeDateTime(out, meeting.getStartTime());
+		writeDateTime(out, meeting.getEndTime());
+	}
+
+	private static Meeting readMeeting(DataInput in) throws IOException {
+		int nulls = in.readUnsignedByte();
+		Meeting meeting = new Meeting();
+		meeting.setId(isNull(nulls, 0) ? null : readVarLong(in));
+		meeting.setVersion(readVarLong(in));
+		meeting.setCustomerId(isNull(nulls, 1) ? null : readVarLong(in));
+		meeting.setLocation(EntityCodec.readString(in));
+		meeting.setStartTime(isNull(nulls, 2) ? null : readDateTime(in));
+		meeting.setEndTime(isNull(nulls, 3) ? null : readDateTime(in));
+		return meeting;
+	}
+
+	/**
+	 * @return a bit per value, the first value in the lowest, set if the
+	 *         value is null
+	 */
+	private static int nulls(Object... values) {
+		int nulls = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == null) {
+				nulls |= 1 << i;
+			}
+		}
+		return nulls;
+	}
+
+	private static boolean isNull(int nulls, int field) {
+		return (nulls & 1 << field) != 0;
+	}
+
+	/**
+	 * Writes a non null date and time as the day, the second of the day and
+	 * the nanoseconds, the last being a single zero byte for the usual whole
+	 * seconds.
+	 */
+	private static void writeDateTime(DataOutput out, LocalDateTime value) throws IOException {
+		if (value != null) {
+			writeVarLong(out, value.toLocalDate().toEpochDay());
+			writeVarLong(out, value.toLocalTime().toSecondOfDay());
+			writeVarLong(out, value.getNano());
+		}
+	}
+
+	private static LocalDateTime readDateTime(DataInput in) throws IOException {
+		LocalDate date = LocalDate.ofEpochDay(readVarLong(in));
+		int second = (int) readVarLong(in);
+		return LocalDateTime.of(date, LocalTime.ofSecondOfDay(second).withNano((int) readVarLong(in)));
+	}
+
+	/**
+	 * Writes seven bits per byte, the lowest first, with the highest bit set
+	 * in all but the last byte. Negative values, e.g. days before 1970, are
+	 * zigzag encoded to stay short.
+	 */
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		long zigzag = value << 1 ^ value >> 63;
+		while ((zigzag & ~0x7FL) != 0) {
+			out.writeByte((int) zigzag & 0x7F | 0x80);
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0;; shift += 7) {
+			if (shift > 63) {
+				throw new InvalidObjectException("Malformed variable length number");
+			}
+			int b = in.readUnsignedByte();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return zigzag >>> 1 ^ -(zigzag & 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package my.vaadin.app;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The operation metrics of one service instance. Every instance records; the
+ * shared instances of the application register theirs as MBeans, and the
+ * metrics servlet of {@link MyUI} prints them.
+ */
+class ServiceMetrics {
+
+	private static final Logger LOGGER = Logger.getLogger(ServiceMetrics.class.getName());
+
+	private final String service;
+	private final Map<String, OperationMetrics> operations = new LinkedHashMap<>();
+	// extra lines for the servlet, e.g. cache statistics
+	private final Map<String, Supplier<Object>> gauges = new LinkedHashMap<>();
+
+	/**
+	 * @param service
+	 *            the name of the service, the JMX type
+	 * @param operations
+	 *            the names of the operations the service records
+	 */
+	ServiceMetrics(String service, String... operations) {
+		this.service = service;
+		for (String operation : operations) {
+			this.operations.put(operation, new OperationMetrics(operation));
+		}
+	}
+
+	OperationMetrics get(String operation) {
+		OperationMetrics metrics = operations.get(operation);
+		if (metrics == null) {
+			throw new IllegalArgumentException(service + " does not record " + operation);
+		}
+		return metrics;
+	}
+
+	Collection<OperationMetrics> operations() {
+		return operations.values();
+	}
+
+	/**
+	 * Adds a value printed by {@link #print(PrintWriter)}, called while the
+	 * service is constructed.
+	 */
+	void addGauge(String name, Supplier<Object> value) {
+		gauges.put(name, value);
+	}
+
+	/**
+	 * Registers the operations as MBeans. A failing registration is logged,
+	 * not thrown, as the service works without it.
+	 */
+	void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationMetrics metrics : operations.values()) {
+			try {
+				server.registerMBean(metrics,
+						new ObjectName("my.vaadin.app:type=" + service + ",name=" + metrics.getName()));
+			} catch (JMException ex) {
+				LOGGER.log(Level.WARNING, "Could not register the metrics of " + service, ex);
+			}
+		}
+	}
+
+	/**
+	 * Prints one line per operation and gauge, prefixed with the service.
+	 */
+	void print(PrintWriter out) {
+		for (OperationMetrics metrics : operations.values()) {
+			out.println(service + "." + metrics);
+		}
+		for (Map.Entry<String, Supplier<Object>> gauge : gauges.entrySet()) {
+			out.println(service + "." + gauge.getKey() + " " + gauge.getValue().get());
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package my.vaadin.app;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Estimates the heap each open UI holds on its own, for planning how many
+ * sessions a server takes. The estimate walks the objects reachable from a
+ * sampled UI, under the lock of its session, and adds up their sizes as laid
+ * out by a 64 bit JVM with compressed references. Objects shared with other
+ * sessions, such as the services, the session itself and the rows of the
+ * shared caches, are not counted.
+ * <p>
+ * Fields of JDK classes that a newer JVM does not open to reflection are
+ * not walked; their collections and maps are walked through their public
+ * methods, with a fixed size per element for the internals that are left
+ * out.
+ */
+final class SessionFootprint {
+
+	// the UIs sampled by one print, walking thousands would hold up the servlet
+	private static final int SAMPLED_UIS = 16;
+	private static final int HEADER_BYTES = 12;
+	private static final int ARRAY_HEADER_BYTES = 16;
+	private static final int REFERENCE_BYTES = 4;
+	// a hash map node and its table slot
+	private static final int MAP_ENTRY_BYTES = 40;
+	private static final int COLLECTION_ELEMENT_BYTES = 8;
+
+	private static final Set<UI> UIS = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+	private static final ClassValue<Layout> LAYOUTS = new ClassValue<Layout>() {
+
+		@Override
+		protected Layout computeValue(Class<?> type) {
+			return new Layout(type);
+		}
+	};
+
+	private SessionFootprint() {
+	}
+
+	static void register(UI ui) {
+		UIS.add(ui);
+	}
+
+	static void unregister(UI ui) {
+		UIS.remove(ui);
+	}
+
+	/**
+	 * Prints the amount of open UIs and the mean and largest estimate of a
+	 * sample of them.
+	 *
+	 * @param shared
+	 *            true for the objects not to count
+	 */
+	static void print(PrintWriter out, Predicate<Object> shared) {
+		List<UI> uis;
+		synchronized (UIS) {
+			uis = new ArrayList<>(UIS);
+		}
+		long total = 0;
+		long max = 0;
+		int sampled = 0;
+		int samples = Math.min(uis.size(), SAMPLED_UIS);
+		for (int i = 0; i < samples; i++) {
+			UI ui = uis.get((int) ((long) uis.size() * i / samples));
+			long[] bytes = { -1 };
+			try {
+				ui.accessSynchronously(() -> bytes[0] = estimate(ui, shared));
+			} catch (UIDetachedException ex) {
+				// closed since the copy
+			}
+			if (bytes[0] >= 0) {
+				total += bytes[0];
+				max = Math.max(max, bytes[0]);
+				sampled++;
+			}
+		}
+		out.println("sessions.uis " + uis.size());
+		out.println("sessions.bytesPerUi sampled=" + sampled + " mean=" + (sampled == 0 ? 0 : total / sampled)
+				+ " max=" + max);
+	}
+
+	/**
+	 * @param shared
+	 *            true for the objects not to count, which are not walked
+	 *            either
+	 * @return the estimated bytes of the objects reachable from root
+	 */
+	static long estimate(Object root, Predicate<Object> shared) {
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		pending.add(root);
+		long bytes = 0;
+		while (!pending.isEmpty()) {
+			Object object = pending.poll();
+			if (seen.add(object) && !isShared(object, shared)) {
+				bytes += visit(object, pending);
+			}
+		}
+		return bytes;
+	}
+
+	private static boolean isShared(Object object, Predicate<Object> shared) {
+		return object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+				|| object instanceof Enum || shared.test(object);
+	}
+
+	/**
+	 * Adds the objects an object references to pending.
+	 *
+	 * @return the bytes of the object itself
+	 */
+	private static long visit(Object object, ArrayDeque<Object> pending) {
+		Class<?> type = object.getClass();
+		if (type.isArray()) {
+			int length = Array.getLength(object);
+			Class<?> component = type.getComponentType();
+			if (!component.isPrimitive()) {
+				for (Object element : (Object[]) object) {
+					if (element != null) {
+						pending.add(element);
+					}
+				}
+			}
+			return align(ARRAY_HEADER_BYTES + (long) length * size(component));
+		}
+		if (object instanceof String) {
+			// two bytes a character as on Java 8, newer JVMs need one for latin
+			// text
+			return align(HEADER_BYTES + 3 * 4) + align(ARRAY_HEADER_BYTES + 2L * ((String) object).length());
+		}
+		Layout layout = LAYOUTS.get(type);
+		long bytes = layout.bytes;
+		for (Field field : layout.references) {
+			try {
+				Object value = field.get(object);
+				if (value != null) {
+					pending.add(value);
+				}
+			} catch (IllegalAccessException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		if (layout.closed) {
+			try {
+				if (object instanceof Collection) {
+					Collection<?> elements = (Collection<?>) object;
+					for (Object element : elements) {
+						if (element != null) {
+							pending.add(element);
+						}
+					}
+					bytes += (long) COLLECTION_ELEMENT_BYTES * elements.size();
+				} else if (object instanceof Map) {
+					Map<?, ?> map = (Map<?, ?>) object;
+					for (Map.Entry<?, ?> entry : map.entrySet()) {
+						if (entry.getKey() != null) {
+							pending.add(entry.getKey());
+						}
+						if (entry.getValue() != null) {
+							pending.add(entry.getValue());
+						}
+					}
+					bytes += (long) MAP_ENTRY_BYTES * map.size();
+				}
+			} catch (RuntimeException ex) {
+				// e.g. a view that cannot be iterated, only its own size counts
+			}
+		}
+		return bytes;
+	}
+
+	private static int size(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		if (type == byte.class || type == boolean.class) {
+			return 1;
+		}
+		return REFERENCE_BYTES;
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * The size of the instances of a class and their reference fields that
+	 * can be read.
+	 */
+	private static final class Layout {
+
+		private final long bytes;
+		private final List<Field> references = new ArrayList<>();
+		// true if some reference fields cannot be read
+		private boolean closed;
+
+		Layout(Class<?> type) {
+			long fields = 0;
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					fields += size(field.getType());
+					if (field.getType().isPrimitive()) {
+						continue;
+					}
+					try {
+						field.setAccessible(true);
+						references.add(field);
+					} catch (RuntimeException ex) {
+						// not opened to reflection by a module of a newer JVM
+						closed = true;
+					}
+				}
+			}
+			bytes = align(HEADER_BYTES + fields);
+		}
+	}
+}
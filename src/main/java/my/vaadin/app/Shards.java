@@ -0,0 +1,235 @@
+package my.vaadin.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How the services split their entities into shards: customers by their id,
+ * meetings by the id of their customer, so that the meetings of a customer
+ * are on the shard of the customer. Every shard has a lock, a log and a
+ * writer thread of its own, so writes to different shards do not wait for
+ * each other.
+ * <p>
+ * The queries of the shards run on threads of their service rather than on
+ * the common fork-join pool, which the default async stages of
+ * CompletableFuture and every parallel stream of the container share: a
+ * query waiting for the lock of a shard would hold up their work.
+ */
+final class Shards {
+
+	/**
+	 * System property with the amount of shards of each service, 1 by
+	 * default. Changing it for an existing data directory needs an export and
+	 * import through {@link CsvTransfer}, as every shard logs to files of its
+	 * own; the services refuse to start on files of another count, see
+	 * {@link #checkPersistedCount(String, int)}.
+	 */
+	static final String COUNT_PROPERTY = "crm.shards";
+
+	private Shards() {
+	}
+
+	/**
+	 * @return the shard count given by {@link #COUNT_PROPERTY}
+	 */
+	static int fromSystemProperties() {
+		int count = Integer.getInteger(COUNT_PROPERTY, 1);
+		if (count < 1) {
+			throw new IllegalArgumentException(COUNT_PROPERTY + " must be at least 1: " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the shard of a customer id
+	 */
+	static int of(long key, int count) {
+		return (int) Math.floorMod(key, (long) count);
+	}
+
+	/**
+	 * @return the name of the persisted data of a shard; a single shard keeps
+	 *         the name of the unsharded data
+	 */
+	static String name(String name, int shard, int count) {
+		return count == 1 ? name : name + "-" + shard + "-of-" + count;
+	}
+
+	/**
+	 * Fails if the data directory, see
+	 * {@link PersistenceBackend#DATA_DIRECTORY_PROPERTY}, holds files of the
+	 * given data split into another amount of shards. The shards would not
+	 * read them and start empty next to them.
+	 *
+	 * @param name
+	 *            the name of the persisted data, without a shard
+	 * @throws IllegalStateException
+	 *             if there are files of another shard count
+	 */
+	static void checkPersistedCount(String name, int count) {
+		String dataDirectory = System.getProperty(PersistenceBackend.DATA_DIRECTORY_PROPERTY);
+		if (dataDirectory == null || dataDirectory.isEmpty() || !Files.isDirectory(Paths.get(dataDirectory))) {
+			return;
+		}
+		// the log segments and snapshots of WriteAheadLog, see name(...)
+		Pattern files = Pattern
+				.compile(Pattern.quote(name) + "(?:-\\d+-of-(\\d+))?(?:-\\d{10}\\.log|\\.snapshot(?:\\.tmp)?)");
+		try (DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(dataDirectory), name + "*")) {
+			for (Path file : directory) {
+				Matcher matcher = files.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					int persisted = matcher.group(1) == null ? 1 : Integer.parseInt(matcher.group(1));
+					if (persisted != count) {
+						throw new IllegalStateException(dataDirectory + " holds " + name + " written with "
+								+ COUNT_PROPERTY + "=" + persisted + ", e.g. " + file.getFileName() + ", but "
+								+ COUNT_PROPERTY + " is " + count + "; start with " + COUNT_PROPERTY + "=" + persisted
+								+ ", or export and import them through " + CsvTransfer.class.getSimpleName()
+								+ " to change the count");
+					}
+				}
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * @param threads
+	 *            the most queries of shards to run at the same time besides
+	 *            those of the calling threads
+	 * @return the threads a service runs the queries of its shards on, see
+	 *         {@link #scatter(Executor, int, IntFunction)}; daemons, as the
+	 *         shared services are never closed
+	 */
+	static ExecutorService executor(String name, int threads) {
+		AtomicInteger created = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + created.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Runs a query on every shard, in parallel on the threads of the service
+	 * if there is more than one. The calling thread and the threads of the
+	 * executor take the shards one at a time, so the caller only ever waits
+	 * for queries that are already running: not for a thread of an executor
+	 * busy with the queries of other callers, nor of one that is shut down. A
+	 * query may thus scatter again on the same executor.
+	 *
+	 * @param query
+	 *            the query of the shard with the given index
+	 * @return the results in shard order
+	 */
+	static <R> List<R> scatter(Executor executor, int count, IntFunction<R> query) {
+		if (count == 1) {
+			return Collections.singletonList(query.apply(0));
+		}
+		AtomicInteger next = new AtomicInteger();
+		AtomicReferenceArray<R> results = new AtomicReferenceArray<>(count);
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(count);
+		Runnable worker = () -> {
+			for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+				try {
+					results.set(i, query.apply(i));
+				} catch (RuntimeException ex) {
+					failure.compareAndSet(null, ex);
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		try {
+			for (int i = 1; i < count; i++) {
+				executor.execute(worker);
+			}
+		} catch (RejectedExecutionException ex) {
+			// closed, the calling thread runs the rest
+		}
+		worker.run();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException ex) {
+				// a cancelled query, the shards finish theirs soon
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		List<R> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(results.get(i));
+		}
+		return list;
+	}
+
+	/**
+	 * Merges lists sorted in the same order, reading only as far as the
+	 * wanted positions.
+	 *
+	 * @param start
+	 *            the first position of the merged order to return
+	 * @param end
+	 *            the position after the last one to return
+	 */
+	static <T> List<T> merge(List<List<T>> sorted, Comparator<? super T> order, int start, int end) {
+		if (sorted.size() == 1) {
+			List<T> only = sorted.get(0);
+			return new ArrayList<>(only.subList(Math.min(start, only.size()), Math.min(end, only.size())));
+		}
+		// a cursor is the list index in the high and the position in the low
+		// 32 bits, ordered by the element it points at
+		PriorityQueue<long[]> cursors = new PriorityQueue<>(sorted.size(),
+				(first, second) -> order.compare(element(sorted, first[0]), element(sorted, second[0])));
+		for (int i = 0; i < sorted.size(); i++) {
+			if (!sorted.get(i).isEmpty()) {
+				cursors.add(new long[] { (long) i << 32 });
+			}
+		}
+		List<T> merged = new ArrayList<>(Math.max(0, Math.min(end - start, 1024)));
+		for (int position = 0; position < end && !cursors.isEmpty(); position++) {
+			long[] cursor = cursors.poll();
+			if (position >= start) {
+				merged.add(element(sorted, cursor[0]));
+			}
+			cursor[0]++;
+			if ((int) cursor[0] < sorted.get((int) (cursor[0] >>> 32)).size()) {
+				cursors.add(cursor);
+			}
+		}
+		return merged;
+	}
+
+	private static <T> T element(List<List<T>> sorted, long cursor) {
+		return sorted.get((int) (cursor >>> 32)).get((int) cursor);
+	}
+}
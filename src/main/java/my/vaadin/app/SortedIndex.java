@@ -0,0 +1,377 @@
+package my.vaadin.app;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Entity ids ordered by a sort key, with ties ordered by id, so that a page of
+ * a sorted query is read from the index instead of sorting all entities per
+ * query.
+ * <p>
+ * The entries are kept in sorted blocks of up to {@value #BLOCK_SIZE}, a B+
+ * tree of height two. The size and the last entry of every block are kept in
+ * arrays of their own, so finding the block of an entry is a binary search
+ * and finding the block of a position a scan over block sizes, neither of
+ * which touches the blocks themselves. Within a block the entries are in
+ * parallel arrays, which keeps lookups and page reads on a few cache lines
+ * and allocates no object per entry.
+ * <p>
+ * Next to the key every entry has a 64 bit prefix of it whose order agrees
+ * with the key order, e.g. the first characters of a string. Entries are
+ * compared by prefix first, so most comparisons do not follow the key to a
+ * string somewhere else on the heap; for keys that fit into a long entirely
+ * the key itself can be left null.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <K>
+ *            the type of the sort key
+ */
+class SortedIndex<K> {
+
+	private static final int BLOCK_SIZE = 512;
+
+	private static final class Block {
+
+		final long[] prefixes = new long[BLOCK_SIZE];
+		final Object[] keys = new Object[BLOCK_SIZE];
+		final long[] ids = new long[BLOCK_SIZE];
+		int size;
+	}
+
+	private final Comparator<? super K> keyOrder;
+	// only the last block may be empty, and only when the index is
+	private Block[] blocks = { new Block() };
+	private int[] sizes = new int[1];
+	private long[] lastPrefixes = new long[1];
+	private Object[] lastKeys = new Object[1];
+	private long[] lastIds = new long[1];
+	private int blockCount = 1;
+	private int size;
+
+	/**
+	 * @param keyOrder
+	 *            the order of keys with equal prefixes, must accept the null
+	 *            keys the index is given
+	 */
+	SortedIndex(Comparator<? super K> keyOrder) {
+		this.keyOrder = keyOrder;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an entry, unless the index has one with the same prefix, key and
+	 * id already.
+	 */
+	void add(long prefix, K key, long id) {
+		int b = findBlock(prefix, key, id);
+		int position = search(blocks[b], prefix, key, id);
+		if (position >= 0) {
+			return;
+		}
+		position = -position - 1;
+		if (blocks[b].size == BLOCK_SIZE) {
+			split(b);
+			if (position > blocks[b].size) {
+				position -= blocks[b].size;
+				b++;
+			}
+		}
+		Block block = blocks[b];
+		int moved = block.size - position;
+		System.arraycopy(block.prefixes, position, block.prefixes, position + 1, moved);
+		System.arraycopy(block.keys, position, block.keys, position + 1, moved);
+		System.arraycopy(block.ids, position, block.ids, position + 1, moved);
+		block.prefixes[position] = prefix;
+		block.keys[position] = key;
+		block.ids[position] = id;
+		block.size++;
+		sizes[b]++;
+		size++;
+		updateLast(b);
+	}
+
+	/**
+	 * Removes the entry with exactly this prefix, key and id, if there is one.
+	 */
+	void remove(long prefix, K key, long id) {
+		int b = findBlock(prefix, key, id);
+		Block block = blocks[b];
+		int position = search(block, prefix, key, id);
+		if (position < 0) {
+			return;
+		}
+		int moved = block.size - position - 1;
+		System.arraycopy(block.prefixes, position + 1, block.prefixes, position, moved);
+		System.arraycopy(block.keys, position + 1, block.keys, position, moved);
+		System.arraycopy(block.ids, position + 1, block.ids, position, moved);
+		block.keys[--block.size] = null;
+		sizes[b]--;
+		size--;
+		if (block.size == 0 && blockCount > 1) {
+			removeBlock(b);
+		} else if (block.size > 0) {
+			updateLast(b);
+			mergeIfSmall(b);
+		}
+	}
+
+	/**
+	 * Passes the ids from position {@code from} (inclusive) to {@code to}
+	 * (exclusive) of the order to the action, in O(size / BLOCK_SIZE + to -
+	 * from).
+	 *
+	 * @param descending
+	 *            true to count the positions from the largest key
+	 */
+	void forEach(int from, int to, boolean descending, LongConsumer action) {
+		from = Math.max(from, 0);
+		to = Math.min(to, size);
+		if (from >= to) {
+			return;
+		}
+		int[] remaining = { to - from };
+		forEach(descending ? size - 1 - from : from, descending, id -> {
+			action.accept(id);
+			return --remaining[0] > 0;
+		});
+	}
+
+	/**
+	 * Passes the ids to the action in order until it returns false.
+	 *
+	 * @param descending
+	 *            true to start with the largest key
+	 */
+	void forEach(boolean descending, LongPredicate action) {
+		if (size > 0) {
+			forEach(descending ? size - 1 : 0, descending, action);
+		}
+	}
+
+	/**
+	 * Walks from an ascending position on until the action returns false or
+	 * the entries run out.
+	 */
+	private void forEach(int position, boolean descending, LongPredicate action) {
+		int b = 0;
+		while (position >= sizes[b]) {
+			position -= sizes[b];
+			b++;
+		}
+		if (descending) {
+			for (; b >= 0; b--, position = b >= 0 ? blocks[b].size - 1 : 0) {
+				long[] ids = blocks[b].ids;
+				for (int i = position; i >= 0; i--) {
+					if (!action.test(ids[i])) {
+						return;
+					}
+				}
+			}
+		} else {
+			for (; b < blockCount; b++, position = 0) {
+				Block block = blocks[b];
+				for (int i = position; i < block.size; i++) {
+					if (!action.test(block.ids[i])) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the amount of entries with a smaller prefix than the given one,
+	 *         which is the position of the first entry whose prefix is not
+	 *         smaller
+	 */
+	int position(long prefix) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (lastPrefixes[middle] < prefix) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int position = 0;
+		for (int b = 0; b < low; b++) {
+			position += sizes[b];
+		}
+		Block block = blocks[low];
+		int first = 0;
+		int last = block.size;
+		while (first < last) {
+			int middle = (first + last) >>> 1;
+			if (block.prefixes[middle] < prefix) {
+				first = middle + 1;
+			} else {
+				last = middle;
+			}
+		}
+		return position + first;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(long prefix, K key, long id, long otherPrefix, Object otherKey, long otherId) {
+		int result = Long.compare(prefix, otherPrefix);
+		if (result == 0) {
+			result = keyOrder.compare(key, (K) otherKey);
+		}
+		return result != 0 ? result : Long.compare(id, otherId);
+	}
+
+	/**
+	 * @return the first block whose last entry is not smaller than the given
+	 *         one, or the last block
+	 */
+	private int findBlock(long prefix, K key, long id) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(prefix, key, id, lastPrefixes[middle], lastKeys[middle], lastIds[middle]) > 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the position of the entry in the block, or, like
+	 *         {@link Arrays#binarySearch(long[], long)}, (-(insertion point) -
+	 *         1) if it is not there
+	 */
+	private int search(Block block, long prefix, K key, long id) {
+		int low = 0;
+		int high = block.size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int result = compare(prefix, key, id, block.prefixes[middle], block.keys[middle], block.ids[middle]);
+			if (result > 0) {
+				low = middle + 1;
+			} else if (result < 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Moves the upper half of a full block into a new block after it.
+	 */
+	private void split(int b) {
+		Block block = blocks[b];
+		Block upper = new Block();
+		int half = BLOCK_SIZE / 2;
+		upper.size = BLOCK_SIZE - half;
+		System.arraycopy(block.prefixes, half, upper.prefixes, 0, upper.size);
+		System.arraycopy(block.keys, half, upper.keys, 0, upper.size);
+		System.arraycopy(block.ids, half, upper.ids, 0, upper.size);
+		Arrays.fill(block.keys, half, BLOCK_SIZE, null);
+		block.size = half;
+		insertBlock(b + 1, upper);
+		sizes[b] = half;
+		updateLast(b);
+	}
+
+	/**
+	 * Moves a block that deletions left small into its successor or
+	 * predecessor, if that has room, so the block count keeps tracking the
+	 * size.
+	 */
+	private void mergeIfSmall(int b) {
+		if (blocks[b].size >= BLOCK_SIZE / 4) {
+			return;
+		}
+		if (b + 1 < blockCount && blocks[b].size + blocks[b + 1].size <= BLOCK_SIZE) {
+			append(b, b + 1);
+		} else if (b > 0 && blocks[b - 1].size + blocks[b].size <= BLOCK_SIZE) {
+			append(b - 1, b);
+		}
+	}
+
+	/**
+	 * Appends the entries of block {@code source} to those of the block before
+	 * it and removes it.
+	 */
+	private void append(int target, int source) {
+		Block to = blocks[target];
+		Block from = blocks[source];
+		System.arraycopy(from.prefixes, 0, to.prefixes, to.size, from.size);
+		System.arraycopy(from.keys, 0, to.keys, to.size, from.size);
+		System.arraycopy(from.ids, 0, to.ids, to.size, from.size);
+		to.size += from.size;
+		sizes[target] = to.size;
+		updateLast(target);
+		removeBlock(source);
+	}
+
+	private void insertBlock(int b, Block block) {
+		if (blockCount == blocks.length) {
+			int length = blockCount * 2;
+			blocks = Arrays.copyOf(blocks, length);
+			sizes = Arrays.copyOf(sizes, length);
+			lastPrefixes = Arrays.copyOf(lastPrefixes, length);
+			lastKeys = Arrays.copyOf(lastKeys, length);
+			lastIds = Arrays.copyOf(lastIds, length);
+		}
+		int moved = blockCount - b;
+		System.arraycopy(blocks, b, blocks, b + 1, moved);
+		System.arraycopy(sizes, b, sizes, b + 1, moved);
+		System.arraycopy(lastPrefixes, b, lastPrefixes, b + 1, moved);
+		System.arraycopy(lastKeys, b, lastKeys, b + 1, moved);
+		System.arraycopy(lastIds, b, lastIds, b + 1, moved);
+		blocks[b] = block;
+		sizes[b] = block.size;
+		blockCount++;
+		updateLast(b);
+	}
+
+	private void removeBlock(int b) {
+		int moved = blockCount - b - 1;
+		System.arraycopy(blocks, b + 1, blocks, b, moved);
+		System.arraycopy(sizes, b + 1, sizes, b, moved);
+		System.arraycopy(lastPrefixes, b + 1, lastPrefixes, b, moved);
+		System.arraycopy(lastKeys, b + 1, lastKeys, b, moved);
+		System.arraycopy(lastIds, b + 1, lastIds, b, moved);
+		blockCount--;
+		blocks[blockCount] = null;
+		lastKeys[blockCount] = null;
+	}
+
+	private void updateLast(int b) {
+		Block block = blocks[b];
+		int last = block.size - 1;
+		lastPrefixes[b] = block.prefixes[last];
+		lastKeys[b] = block.keys[last];
+		lastIds[b] = block.ids[last];
+	}
+
+	/**
+	 * @return a prefix of a string that orders like {@link String#compareTo},
+	 *         its first four characters
+	 */
+	static long stringPrefix(String value) {
+		if (value == null) {
+			return Long.MIN_VALUE;
+		}
+		long prefix = 0;
+		for (int i = 0; i < 4; i++) {
+			prefix = prefix << 16 | (i < value.length() ? value.charAt(i) : 0);
+		}
+		// characters compare unsigned, longs signed
+		return prefix ^ Long.MIN_VALUE;
+	}
+}
@@ -0,0 +1,33 @@
+package my.vaadin.app;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * A period of time from a start, inclusive, to an end, exclusive, e.g. a busy
+ * or free period of a location.
+ */
+@SuppressWarnings("serial")
+public class TimeSlot implements Serializable {
+
+	private final LocalDateTime start;
+	private final LocalDateTime end;
+
+	public TimeSlot(LocalDateTime start, LocalDateTime end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	public LocalDateTime getStart() {
+		return start;
+	}
+
+	public LocalDateTime getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return start + " - " + end;
+	}
+}
@@ -0,0 +1,132 @@
+package my.vaadin.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues writes of many threads and hands them to a service in batches, so
+ * that writes arriving at the same time share one lock acquisition and one
+ * log flush. A single writer thread drains the queue; while it applies one
+ * batch the next one collects in the queue. {@link #close()} stops the thread
+ * once the writes queued before are applied.
+ *
+ * @param <T>
+ *            the entity type
+ */
+class WriteBatcher<T> {
+
+	private static final Logger LOGGER = Logger.getLogger(WriteBatcher.class.getName());
+
+	/**
+	 * A queued save or delete and the future acknowledging it.
+	 */
+	static final class Write<T> {
+
+		final T entity;
+		final boolean delete;
+		final CompletableFuture<T> done = new CompletableFuture<>();
+
+		Write(T entity, boolean delete) {
+			this.entity = entity;
+			this.delete = delete;
+		}
+	}
+
+	private final LinkedBlockingQueue<Write<T>> queue = new LinkedBlockingQueue<>();
+	// queued by close() as the last write
+	private final Write<T> stop = new Write<>(null, false);
+	private final Consumer<List<Write<T>>> applier;
+	private final int maxBatchSize;
+	private final Thread writer;
+	// guarded by queue
+	private boolean closed;
+
+	/**
+	 * @param name
+	 *            the name of the writer thread
+	 * @param applier
+	 *            applies a batch of writes in order and makes them durable,
+	 *            the futures are completed afterwards; it may reject a
+	 *            single write by completing its future exceptionally
+	 * @param maxBatchSize
+	 *            the most writes applied in one batch
+	 */
+	WriteBatcher(String name, Consumer<List<Write<T>>> applier, int maxBatchSize) {
+		this.applier = applier;
+		this.maxBatchSize = maxBatchSize;
+		writer = new Thread(this::drain, name);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return the future of the write, failed with an IllegalStateException
+	 *         if this is closed
+	 */
+	CompletableFuture<T> submit(T entity, boolean delete) {
+		Write<T> write = new Write<>(entity, delete);
+		synchronized (queue) {
+			if (closed) {
+				write.done.completeExceptionally(new IllegalStateException(writer.getName() + " is closed"));
+			} else {
+				queue.add(write);
+			}
+		}
+		return write.done;
+	}
+
+	/**
+	 * Applies the writes queued so far, then stops the writer thread. Later
+	 * writes fail.
+	 */
+	void close() {
+		synchronized (queue) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.add(stop);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		List<Write<T>> batch = new ArrayList<>(maxBatchSize);
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException ex) {
+				return;
+			}
+			queue.drainTo(batch, maxBatchSize - 1);
+			// nothing is queued after the stop
+			boolean stopped = batch.remove(stop);
+			try {
+				if (!batch.isEmpty()) {
+					applier.accept(batch);
+				}
+				for (Write<T> write : batch) {
+					write.done.complete(write.entity);
+				}
+			} catch (RuntimeException ex) {
+				LOGGER.log(Level.SEVERE, "Applying a batch of " + batch.size() + " writes failed", ex);
+				for (Write<T> write : batch) {
+					write.done.completeExceptionally(ex);
+				}
+			}
+			batch.clear();
+			if (stopped) {
+				return;
+			}
+		}
+	}
+}
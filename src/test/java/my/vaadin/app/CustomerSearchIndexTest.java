@@ -0,0 +1,84 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CustomerSearchIndexTest {
+
+	private static final String[] NAMES = { "Ann", "Anna", "Hanna", "Johan", "John", "Johanna", "Jon", "Nora",
+			"Ronja", "Zoë", "Åsa", "Ana" };
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void findsWhatAScanFinds() {
+		CustomerSearchIndex index = new CustomerSearchIndex(new ParallelScan(Runnable::run, 1));
+		Map<Long, Customer> customers = new LinkedHashMap<>();
+		for (long id = 1; id <= 2000; id++) {
+			add(index, customers, customer(id));
+		}
+		assertSameAsScan(index, customers);
+
+		// renames and removals have to leave no stale trigrams behind
+		List<Long> ids = new ArrayList<>(customers.keySet());
+		for (int i = 0; i < 1000; i++) {
+			Long id = ids.get(random.nextInt(ids.size()));
+			if (random.nextBoolean()) {
+				index.remove(id);
+				customers.remove(id);
+			} else {
+				add(index, customers, customer(id));
+			}
+		}
+		assertSameAsScan(index, customers);
+
+		index.trim();
+		assertSameAsScan(index, customers);
+	}
+
+	@Test
+	public void scansInSegments() {
+		// threads of their own, so the segments are merged from several
+		CustomerSearchIndex index = new CustomerSearchIndex(
+				new ParallelScan(command -> new Thread(command).start(), 4));
+		Map<Long, Customer> customers = new LinkedHashMap<>();
+		for (long id = 1; id <= 50000; id++) {
+			add(index, customers, customer(id));
+		}
+		assertSameAsScan(index, customers);
+	}
+
+	private void assertSameAsScan(CustomerSearchIndex index, Map<Long, Customer> customers) {
+		for (String filter : Arrays.asList("a", "n", "jo", "NN", "ann", "ohan", "john ", "hanna nor", "zoë",
+				"åsa r", "xyz", " ", "johanna johanna")) {
+			assertArrayEquals(filter, scan(customers, filter), index.search(filter));
+		}
+	}
+
+	private static long[] scan(Map<Long, Customer> customers, String filter) {
+		String query = filter.toLowerCase();
+		return customers.values().stream().filter(customer -> customer.toString().toLowerCase().contains(query))
+				.mapToLong(Customer::getId).sorted().toArray();
+	}
+
+	private static void add(CustomerSearchIndex index, Map<Long, Customer> customers, Customer customer) {
+		index.add(customer);
+		customers.put(customer.getId(), customer);
+	}
+
+	private Customer customer(long id) {
+		Customer customer = new Customer();
+		customer.setId(id);
+		customer.setFirstName(NAMES[random.nextInt(NAMES.length)]);
+		customer.setLastName(NAMES[random.nextInt(NAMES.length)] + (random.nextInt(10) == 0 ? "" : "sen"));
+		return customer;
+	}
+}
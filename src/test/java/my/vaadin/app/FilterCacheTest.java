@@ -0,0 +1,106 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FilterCacheTest {
+
+	private static final List<String> FILTERS = Arrays.asList("a", "an", "ann", "anna", "jo", "john", "ohn",
+			"n s", "sen", "smith", "zz");
+
+	private CustomerService service;
+
+	@After
+	public void closeService() {
+		if (service != null) {
+			service.close();
+		}
+	}
+
+	@Test
+	public void dropsOnlyTheFiltersAWriteChanges() {
+		FilterCache cache = new FilterCache(1000);
+		for (String filter : FILTERS) {
+			cache.put(filter, new long[] { 1 }, false);
+		}
+		// "john smith" becomes "anna smith"
+		cache.invalidate("john smith", "anna smith");
+		for (String filter : FILTERS) {
+			boolean changed = Arrays.asList("a", "an", "ann", "anna", "jo", "john", "ohn", "n s").contains(filter);
+			if (changed) {
+				assertNull(filter, cache.get(filter));
+			} else {
+				assertNotNull(filter, cache.get(filter));
+			}
+		}
+		assertEquals(8, cache.stats().getInvalidations());
+
+		// a new and a removed customer change what their text contains
+		cache.put("jo", new long[] { 1 }, false);
+		cache.put("ohn", new long[] { 1 }, false);
+		cache.invalidate(null, "jo");
+		assertNull(cache.get("jo"));
+		assertNotNull(cache.get("ohn"));
+		cache.invalidate("john", null);
+		assertNull(cache.get("ohn"));
+		assertNotNull(cache.get("smith"));
+	}
+
+	@Test
+	public void forgetsEvictedFilters() {
+		FilterCache cache = new FilterCache(100);
+		for (int i = 0; i < 50; i++) {
+			cache.put("filter " + i, new long[] { i }, false);
+		}
+		assertEquals(50 - cache.stats().getEvictions(), cache.stats().getEntries());
+		cache.invalidate(null, "filter 49");
+		assertNull(cache.get("filter 49"));
+		assertNull(cache.get("filter 4"));
+		cache.clear();
+		cache.put("filter 1", new long[] { 1 }, false);
+		assertArrayEquals(new long[] { 1 }, cache.get("filter 1"));
+	}
+
+	@Test
+	public void servesNoStaleCountsAfterSavesAndDeletes() {
+		service = new CustomerService(PersistenceBackend.inMemory());
+		String[] names = { "Ann", "Anna", "John", "Johan", "Jon", "Sen" };
+		Random random = new Random(3);
+		for (int i = 0; i < 200; i++) {
+			Customer customer = new Customer();
+			customer.setFirstName(names[random.nextInt(names.length)]);
+			customer.setLastName(names[random.nextInt(names.length)] + "sen");
+			service.save(customer);
+		}
+		for (int round = 0; round < 20; round++) {
+			for (String filter : FILTERS) {
+				assertEquals(filter, scan(filter), service.count(filter));
+				assertEquals(filter, scan(filter), service.findAll(filter).size());
+			}
+			List<Customer> customers = service.findAll();
+			Customer customer = customers.get(random.nextInt(customers.size()));
+			if (round % 3 == 0) {
+				service.delete(customer);
+			} else {
+				Customer renamed = customer.mutableCopy();
+				renamed.setFirstName(names[random.nextInt(names.length)]);
+				service.save(renamed);
+			}
+		}
+		assertEquals(0, service.getFilterCacheStats().getEvictions());
+	}
+
+	private long scan(String filter) {
+		return service.findAll().stream().filter(customer -> customer.toString().toLowerCase().contains(filter))
+				.count();
+	}
+}
@@ -0,0 +1,89 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class IntervalIndexTest {
+
+	private static final long HOUR = 60 * 60;
+	private static final long DAY = 24 * HOUR;
+
+	private final Random random = new Random(11);
+	private final IntervalIndex index = new IntervalIndex();
+	// id -> start and end
+	private final Map<Long, long[]> intervals = new HashMap<>();
+
+	@Test
+	public void findsTheOverlappingIntervals() {
+		for (long id = 0; id < 3000; id++) {
+			add(id);
+		}
+		assertSameAsBruteForce();
+
+		for (long id = 0; id < 3000; id += 3) {
+			long[] interval = intervals.remove(id);
+			index.remove(interval[0], interval[1], id);
+		}
+		assertEquals(intervals.size(), index.size());
+		assertSameAsBruteForce();
+	}
+
+	@Test
+	public void findsALongIntervalAmongShortOnes() {
+		for (long id = 0; id < 1000; id++) {
+			add(id);
+		}
+		// starts long before any window, ends after all of them
+		index.add(-1000 * DAY, 1000 * DAY, 1000);
+		intervals.put(1000L, new long[] { -1000 * DAY, 1000 * DAY });
+		assertSameAsBruteForce();
+	}
+
+	private void add(long id) {
+		long start = random.nextInt(100) * DAY + random.nextInt(24) * HOUR;
+		// mostly meetings of an hour or two, some of several days and weeks
+		int kind = random.nextInt(20);
+		long duration = kind == 0 ? random.nextInt(30) * DAY + HOUR : kind == 1 ? DAY : (1 + random.nextInt(8)) * HOUR / 4;
+		index.add(start, start + duration, id);
+		intervals.put(id, new long[] { start, start + duration });
+	}
+
+	private void assertSameAsBruteForce() {
+		for (int i = 0; i < 200; i++) {
+			long from = random.nextInt(110) * DAY - 5 * DAY + random.nextInt(24) * HOUR;
+			long to = from + random.nextInt(i % 2 == 0 ? 3 : 40) * HOUR;
+
+			Set<Long> overlapping = new TreeSet<>();
+			index.forEachCandidate(from, to, id -> {
+				long[] interval = intervals.get(id);
+				assertTrue("starts before the window ends", interval[0] < to);
+				if (interval[1] > from) {
+					assertTrue("passed once", overlapping.add(id));
+				}
+			});
+			assertEquals(bruteForce(from, to, true), overlapping);
+
+			Set<Long> starting = new TreeSet<>();
+			index.forEachStarting(from, to, id -> assertTrue("passed once", starting.add(id)));
+			assertEquals(bruteForce(from, to, false), starting);
+		}
+	}
+
+	private Set<Long> bruteForce(long from, long to, boolean overlapping) {
+		Set<Long> found = new TreeSet<>();
+		intervals.forEach((id, interval) -> {
+			if (overlapping ? interval[0] < to && interval[1] > from : interval[0] >= from && interval[0] < to) {
+				found.add(id);
+			}
+		});
+		return found;
+	}
+}
@@ -0,0 +1,132 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SerializedEntityTest {
+
+	@Test
+	public void keepsAllFieldsOfACustomer() throws Exception {
+		StringBuilder address = new StringBuilder();
+		while (address.length() < 70000) {
+			address.append("Ünterstraße 1, ");
+		}
+		Customer customer = new Customer();
+		customer.setId(12345678901L);
+		customer.setFirstName("Zoë");
+		customer.setLastName("");
+		customer.setBirthDate(LocalDate.of(1912, 6, 23));
+		customer.setEmail("zoe@example.com");
+		customer.setAddress(address.toString());
+		customer.setCity(null);
+		customer.setPostalCode(null);
+		customer.setVersion(7);
+
+		Customer copy = roundTrip(customer);
+		assertFalse(copy.isFrozen());
+		assertEquals(customer.getId(), copy.getId());
+		assertEquals(7, copy.getVersion());
+		assertEquals("Zoë", copy.getFirstName());
+		assertEquals("", copy.getLastName());
+		assertEquals(customer.getBirthDate(), copy.getBirthDate());
+		assertEquals("zoe@example.com", copy.getEmail());
+		assertEquals(address.toString(), copy.getAddress());
+		assertNull(copy.getCity());
+		assertNull(copy.getPostalCode());
+
+		Customer unsaved = new Customer();
+		Customer unsavedCopy = roundTrip(unsaved.freeze());
+		assertTrue(unsavedCopy.isFrozen());
+		assertNull(unsavedCopy.getId());
+		assertNull(unsavedCopy.getBirthDate());
+	}
+
+	@Test
+	public void keepsAllFieldsOfAMeeting() throws Exception {
+		Meeting meeting = new Meeting();
+		meeting.setId(3L);
+		meeting.setCustomerId(4L);
+		meeting.setLocation("Room 1");
+		meeting.setStartTime(LocalDateTime.of(1969, 7, 20, 20, 17, 40, 123));
+		meeting.setEndTime(LocalDateTime.of(1969, 7, 21, 2, 56));
+		meeting.setVersion(2);
+
+		Meeting copy = roundTrip(meeting.freeze());
+		assertTrue(copy.isFrozen());
+		assertEquals(Long.valueOf(3), copy.getId());
+		assertEquals(Long.valueOf(4), copy.getCustomerId());
+		assertEquals(2, copy.getVersion());
+		assertEquals("Room 1", copy.getLocation());
+		assertEquals(meeting.getStartTime(), copy.getStartTime());
+		assertEquals(meeting.getEndTime(), copy.getEndTime());
+
+		Meeting empty = roundTrip(new Meeting());
+		assertNull(empty.getId());
+		assertNull(empty.getCustomerId());
+		assertNull(empty.getLocation());
+		assertNull(empty.getStartTime());
+	}
+
+	@Test
+	public void readsTheMeetingsOfAListFromTheService() throws Exception {
+		MeetingService service = MeetingService.getInstance();
+		Meeting kept = meeting("Kept");
+		Meeting deleted = meeting("Deleted");
+		service.saveAll(Arrays.asList(kept, deleted));
+		MeetingList meetings = new MeetingList();
+		meetings.add(service.get(kept.getId()));
+		meetings.add(service.get(deleted.getId()));
+
+		byte[] bytes = serialize(meetings);
+		service.delete(service.get(deleted.getId()));
+		Meeting renamed = service.get(kept.getId()).mutableCopy();
+		renamed.setLocation("Renamed");
+		service.save(renamed);
+
+		MeetingList copy = deserialize(bytes);
+		assertEquals(1, copy.size());
+		assertEquals(kept.getId(), copy.get(0).getId());
+		assertEquals("Renamed", copy.get(0).getLocation());
+	}
+
+	private static Meeting meeting(String location) {
+		Meeting meeting = new Meeting();
+		meeting.setLocation(location);
+		meeting.setStartTime(LocalDateTime.of(2031, 1, 2, 10, 0));
+		meeting.setEndTime(LocalDateTime.of(2031, 1, 2, 11, 0));
+		return meeting;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T roundTrip(T value) throws IOException, ClassNotFoundException {
+		return (T) deserialize(serialize(value));
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (T) in.readObject();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SortedIndexTest {
+
+	private static final Comparator<String> KEY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+	private static final class Entry {
+
+		final String key;
+		final long id;
+
+		Entry(String key, long id) {
+			this.key = key;
+			this.id = id;
+		}
+	}
+
+	private static final Comparator<Entry> ORDER = Comparator.<Entry, String> comparing(entry -> entry.key, KEY_ORDER)
+			.thenComparingLong(entry -> entry.id);
+
+	private final Random random = new Random(7);
+
+	@Test
+	public void readsRangesLikeASortedList() {
+		SortedIndex<String> index = new SortedIndex<>(KEY_ORDER);
+		List<Entry> entries = new ArrayList<>();
+		// enough for the blocks to split, and to merge again
+		for (long id = 0; id < 5000; id++) {
+			Entry entry = new Entry(key(), id);
+			index.add(SortedIndex.stringPrefix(entry.key), entry.key, entry.id);
+			entries.add(entry);
+		}
+		assertSameAsList(index, entries);
+
+		for (int i = 0; i < 4500; i++) {
+			Entry entry = entries.remove(random.nextInt(entries.size()));
+			index.remove(SortedIndex.stringPrefix(entry.key), entry.key, entry.id);
+		}
+		assertSameAsList(index, entries);
+	}
+
+	@Test
+	public void findsThePositionOfAPrefix() {
+		SortedIndex<Void> index = new SortedIndex<>((a, b) -> 0);
+		List<Long> starts = new ArrayList<>();
+		for (long id = 0; id < 3000; id++) {
+			long start = random.nextInt(1000);
+			index.add(start, null, id);
+			starts.add(start);
+		}
+		for (long prefix = -1; prefix <= 1001; prefix++) {
+			long smaller = prefix;
+			assertEquals(starts.stream().filter(start -> start < smaller).count(), index.position(prefix));
+		}
+	}
+
+	private void assertSameAsList(SortedIndex<String> index, List<Entry> entries) {
+		entries.sort(ORDER);
+		assertEquals(entries.size(), index.size());
+		for (int i = 0; i < 50; i++) {
+			int from = random.nextInt(entries.size() + 10) - 5;
+			int to = from + random.nextInt(1200);
+			assertEquals(ids(entries, from, to, false), read(index, from, to, false));
+			assertEquals(ids(entries, from, to, true), read(index, from, to, true));
+		}
+		List<Long> all = new ArrayList<>();
+		index.forEach(true, id -> all.add(id));
+		assertEquals(ids(entries, 0, entries.size(), true), all);
+
+		List<Long> firstTen = new ArrayList<>();
+		index.forEach(false, id -> firstTen.add(id) && firstTen.size() < 10);
+		assertEquals(ids(entries, 0, 10, false), firstTen);
+	}
+
+	private static List<Long> read(SortedIndex<String> index, int from, int to, boolean descending) {
+		List<Long> ids = new ArrayList<>();
+		index.forEach(from, to, descending, ids::add);
+		return ids;
+	}
+
+	private static List<Long> ids(List<Entry> entries, int from, int to, boolean descending) {
+		List<Long> ids = new ArrayList<>();
+		for (int i = Math.max(from, 0); i < Math.min(to, entries.size()); i++) {
+			ids.add(entries.get(descending ? entries.size() - 1 - i : i).id);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return a key of up to eight characters, so that many share a prefix,
+	 *         or null
+	 */
+	private String key() {
+		if (random.nextInt(20) == 0) {
+			return null;
+		}
+		char[] key = new char[random.nextInt(9)];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = "abAé一".charAt(random.nextInt(5));
+		}
+		return new String(key);
+	}
+}
@@ -0,0 +1,148 @@
+package my.vaadin.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recoversSavesAndDeletesInOrder() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog<Customer> log = open(directory);
+		log.sync(log.logSave(customer(1, "Ada", 1)));
+		log.sync(log.logSave(customer(2, "Grace", 2)));
+		log.sync(log.logSave(customer(1, "Ada Lovelace", 3)));
+		log.sync(log.logDelete(2L));
+		log.close();
+
+		Map<Long, Customer> recovered = recover(directory);
+		assertEquals(Arrays.asList(1L), new ArrayList<>(recovered.keySet()));
+		assertEquals("Ada Lovelace", recovered.get(1L).getFirstName());
+		assertEquals(3, recovered.get(1L).getVersion());
+	}
+
+	@Test
+	public void cutsOffATornRecordAndKeepsAppending() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog<Customer> log = open(directory);
+		log.sync(log.logSave(customer(1, "Ada", 1)));
+		log.sync(log.logSave(customer(2, "Grace", 2)));
+		log.close();
+		// a crash in the middle of writing the last record
+		Path segment = onlySegment(directory);
+		try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			file.truncate(file.size() - 5);
+		}
+
+		log = open(directory);
+		Map<Long, Customer> recovered = new LinkedHashMap<>();
+		log.recover(customer -> recovered.put(customer.getId(), customer), recovered::remove);
+		assertEquals(Arrays.asList(1L), new ArrayList<>(recovered.keySet()));
+		log.sync(log.logSave(customer(3, "Edsger", 3)));
+		log.close();
+
+		assertEquals(Arrays.asList(1L, 3L), new ArrayList<>(recover(directory).keySet()));
+	}
+
+	@Test
+	public void recoversFromASnapshotAndTheLogAfterIt() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		WriteAheadLog<Customer> log = open(directory);
+		List<Customer> stored = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			Customer customer = customer(i, "Customer " + i, i);
+			stored.add(customer);
+			log.sync(log.logSave(customer));
+		}
+		assertTrue(log.needsCheckpoint());
+		log.checkpoint(stored, 6);
+		log.sync(log.logSave(customer(6, "After the snapshot", 6)));
+		log.sync(log.logDelete(2L));
+		log.close();
+
+		Map<Long, Customer> recovered = new LinkedHashMap<>();
+		long nextId = open(directory).recover(customer -> recovered.put(customer.getId(), customer),
+				recovered::remove);
+		assertEquals(6, nextId);
+		assertEquals(Arrays.asList(1L, 3L, 4L, 5L, 6L), new ArrayList<>(recovered.keySet()));
+		assertEquals("After the snapshot", recovered.get(6L).getFirstName());
+		assertEquals(LocalDate.of(1980, 1, 4), recovered.get(4L).getBirthDate());
+	}
+
+	@Test
+	public void keepsStringsOfAnyLength() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		StringBuilder address = new StringBuilder();
+		while (address.length() < 100000) {
+			address.append("Ünterstraße 1, ");
+		}
+		Customer customer = customer(1, "Zoë", 1).mutableCopy();
+		customer.setAddress(address.toString());
+		customer.setCity(null);
+		WriteAheadLog<Customer> log = open(directory);
+		log.sync(log.logSave(customer));
+		log.checkpoint(Arrays.asList(customer), 2);
+		log.close();
+
+		Customer recovered = recover(directory).get(1L);
+		assertEquals("Zoë", recovered.getFirstName());
+		assertEquals(address.toString(), recovered.getAddress());
+		assertEquals(null, recovered.getCity());
+	}
+
+	private static WriteAheadLog<Customer> open(Path directory) {
+		WriteAheadLog<Customer> log = new WriteAheadLog<>(directory, "customers", new CustomerCodec(), 5);
+		log.recover(customer -> {
+		}, id -> {
+		});
+		return log;
+	}
+
+	private static Map<Long, Customer> recover(Path directory) {
+		Map<Long, Customer> recovered = new LinkedHashMap<>();
+		WriteAheadLog<Customer> log = new WriteAheadLog<>(directory, "customers", new CustomerCodec(), 5);
+		log.recover(customer -> recovered.put(customer.getId(), customer), recovered::remove);
+		log.close();
+		return recovered;
+	}
+
+	private static Path onlySegment(Path directory) throws IOException {
+		Collection<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+			files.forEach(segments::add);
+		}
+		assertEquals(1, segments.size());
+		return segments.iterator().next();
+	}
+
+	private static Customer customer(long id, String firstName, long version) {
+		Customer customer = new Customer();
+		customer.setId(id);
+		customer.setFirstName(firstName);
+		customer.setLastName("Test");
+		customer.setBirthDate(LocalDate.of(1980, 1, (int) id));
+		customer.setVersion(version);
+		return customer.freeze();
+	}
+}